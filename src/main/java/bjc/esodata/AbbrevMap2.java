@@ -18,6 +18,7 @@
 package bjc.esodata;
 
 import java.util.*;
+import java.util.stream.*;
 
 /**
  * A map that allows you to reference strings by unambiguous abbreviations to
@@ -31,18 +32,236 @@ import java.util.*;
  * <li>abc</li>
  * </ul>
  *
+ * Internally, the words are stored in a radix trie where each node knows how
+ * many distinct words live beneath it. This means that checking an
+ * abbreviation is a single walk down the trie, and that no storage is needed
+ * for the individual abbreviations themselves.
+ *
+ * Like the multimap this used to be built on, adding the same word multiple
+ * times means you will have to remove it that many times as well.
+ *
+ * Looking words up doesn't modify the map, so any number of threads can look
+ * up words at once, as long as nothing is adding or removing words.
+ *
  * @author Ben Culkin
  */
 public class AbbrevMap2 {
-	// Stores a mapping from strings, to strings that they could be abbreviations
-	// for
-	private Multimap<String, String> backing;
+	/*
+	 * A node in the trie.
+	 *
+	 * The edge leading into a node is stored as a range of characters from some
+	 * word that passes through the node, instead of as its own string. Since the
+	 * range is given in terms of absolute positions, 'from' is the depth of our
+	 * parent, and 'to' is our own depth.
+	 */
+	private static final class TrieNode {
+		// Some word that passes through this node, and the range of it that makes
+		// up the edge into this node.
+		String label;
+		int    from;
+		int    to;
+
+		// The word that ends at this node, and how many times it has been added.
+		String word;
+		int    wordCount;
+
+		// The number of distinct words at or under this node.
+		int subWords;
+
+		// Children, sorted by the first character of their edge.
+		char[]     keys = NO_KEYS;
+		TrieNode[] kids = NO_KIDS;
+		int        numKids;
+
+		TrieNode(String label, int from, int to) {
+			this.label = label;
+			this.from  = from;
+			this.to    = to;
+		}
+
+		int find(char key) {
+			return Arrays.binarySearch(keys, 0, numKids, key);
+		}
+
+		TrieNode child(char key) {
+			int idx = find(key);
+
+			return idx < 0 ? null : kids[idx];
+		}
+
+		void addChild(TrieNode kid) {
+			char key = kid.label.charAt(kid.from);
+			int  idx = -(find(key) + 1);
+
+			if (numKids == keys.length) {
+				int newCap = Math.max(2, numKids * 2);
+
+				keys = Arrays.copyOf(keys, newCap);
+				kids = Arrays.copyOf(kids, newCap);
+			}
+
+			System.arraycopy(keys, idx, keys, idx + 1, numKids - idx);
+			System.arraycopy(kids, idx, kids, idx + 1, numKids - idx);
+
+			keys[idx] = key;
+			kids[idx] = kid;
+
+			numKids += 1;
+		}
+
+		void replaceChild(TrieNode kid) {
+			kids[find(kid.label.charAt(kid.from))] = kid;
+		}
+
+		void removeChild(TrieNode kid) {
+			int idx = find(kid.label.charAt(kid.from));
+
+			numKids -= 1;
+
+			System.arraycopy(keys, idx + 1, keys, idx, numKids - idx);
+			System.arraycopy(kids, idx + 1, kids, idx, numKids - idx);
+
+			kids[numKids] = null;
+		}
+	}
+
+	/*
+	 * Bit-parallel (Wu-Manber) matcher for finding words with a prefix that is
+	 * within a given edit distance of a pattern.
+	 *
+	 * The state is a bit-vector for each number of errors d; bit i of it is set if
+	 * the first i + 1 characters of the pattern match the text read so far with
+	 * at most d errors. Since matches are anchored at the start of the word, the
+	 * empty prefix of the pattern only matches while the text is short enough to
+	 * be deleted entirely.
+	 */
+	private static final class EditMatcher {
+		final int maxEdits;
+
+		// The distinct characters in the pattern, sorted, and their masks
+		final char[] chars;
+		final long[] masks;
+
+		final long fullMask;
+		final long lastBit;
+
+		EditMatcher(String pattern, int maxEdits) {
+			this.maxEdits = maxEdits;
+
+			int len = pattern.length();
+
+			char[] sorted = pattern.toCharArray();
+			Arrays.sort(sorted);
+
+			int distinct = 0;
+			for (int i = 0; i < len; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+			}
+
+			chars = Arrays.copyOf(sorted, distinct);
+			masks = new long[distinct];
+
+			for (int i = 0; i < len; i++) {
+				masks[Arrays.binarySearch(chars, pattern.charAt(i))] |= 1L << i;
+			}
+
+			fullMask = len == 64 ? -1L : (1L << len) - 1;
+			lastBit  = 1L << (len - 1);
+		}
+
+		long[] start() {
+			long[] state = new long[maxEdits + 1];
+
+			// With d errors, we can delete up to d characters of the pattern.
+			for (int d = 0; d <= maxEdits; d++) {
+				state[d] = (d >= 64 ? -1L : (1L << d) - 1) & fullMask;
+			}
+
+			return state;
+		}
+
+		// Advance the state past a character; depth is the amount of text read so
+		// far, not including the new character.
+		void step(long[] state, int depth, char c) {
+			int  idx  = Arrays.binarySearch(chars, c);
+			long mask = idx < 0 ? 0 : masks[idx];
+
+			long prevOld = 0;
+			long prevNew = 0;
+
+			for (int d = 0; d <= maxEdits; d++) {
+				long old = state[d];
+
+				long next = ((old << 1) | shiftIn(depth, d)) & mask;
+
+				if (d > 0) {
+					// Insertion, substitution and deletion, respectively
+					next |= prevOld;
+					next |= (prevOld << 1) | shiftIn(depth, d - 1);
+					next |= (prevNew << 1) | shiftIn(depth + 1, d - 1);
+				}
+
+				next &= fullMask;
+
+				state[d] = next;
+
+				prevOld = old;
+				prevNew = next;
+			}
+		}
+
+		// The empty prefix of the pattern matches while we can delete all the text.
+		private static long shiftIn(int depth, int errors) {
+			return depth <= errors ? 1 : 0;
+		}
+
+		// The fewest errors the full pattern matches with, or -1 if it doesn't.
+		int score(long[] state) {
+			for (int d = 0; d <= maxEdits; d++) {
+				if ((state[d] & lastBit) != 0) return d;
+			}
+
+			return -1;
+		}
+
+		// Check if no amount of additional text could make the pattern match.
+		boolean isDead(long[] state, int depth) {
+			return state[maxEdits] == 0 && depth > maxEdits;
+		}
+	}
+
+	// A word found by a fuzzy search, and how well it matched.
+	private static final class Ranked implements Comparable<Ranked> {
+		final String word;
+		final int    score;
+
+		Ranked(String word, int score) {
+			this.word  = word;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Ranked other) {
+			if (score != other.score) return Integer.compare(score, other.score);
+
+			int lenCmp = Integer.compare(word.length(), other.word.length());
+			if (lenCmp != 0) return lenCmp;
+
+			return word.compareTo(other.word);
+		}
+	}
+
+	private static final char[]     NO_KEYS = new char[0];
+	private static final TrieNode[] NO_KIDS = new TrieNode[0];
+
+	// The root of the trie; it has an empty edge
+	private final TrieNode root;
 
 	/**
 	 * Create a new abbreviation map.
 	 */
 	public AbbrevMap2() {
-		backing = new TSetMultimap<>();
+		root = new TrieNode("", 0, 0);
 	}
 
 	/**
@@ -53,23 +272,78 @@ public class AbbrevMap2 {
 	 */
 	public void add(String... words) {
 		for (String word : words) {
-			for (String substr : genAbbrevs(word)) backing.add(substr, word);
+			// Empty words have no abbreviations, so they can't be looked up.
+			if (word.isEmpty()) continue;
+
+			addWord(word);
 		}
 	}
 
-	// Generate all of the strings a given word could be abbreviated as
-	private static List<String> genAbbrevs(String word) {
-		List<String> retList = new ArrayList<>();
+	private void addWord(String word) {
+		// The nodes we passed through; their counts need updating if the word is new
+		List<TrieNode> path = new ArrayList<>();
 
-		int len = word.length();
+		TrieNode node  = root;
+		int      depth = 0;
+		int      len   = word.length();
+
+		while (true) {
+			path.add(node);
+
+			if (depth == len) break;
+
+			TrieNode kid = node.child(word.charAt(depth));
+
+			if (kid == null) {
+				// Hang the rest of the word off of this node
+				TrieNode leaf = new TrieNode(word, depth, len);
+
+				node.addChild(leaf);
+
+				path.add(leaf);
+
+				node = leaf;
+				break;
+			}
+
+			int match = matchLength(kid, word, depth);
+
+			if (match < kid.to) {
+				// The word diverges from this edge partway along; split it
+				TrieNode split = new TrieNode(kid.label, kid.from, match);
+
+				split.subWords = kid.subWords;
+
+				node.replaceChild(split);
+
+				kid.from = match;
+				split.addChild(kid);
+
+				kid = split;
+			}
+
+			node  = kid;
+			depth = kid.to;
+		}
+
+		if (node.wordCount++ > 0) return;
+
+		node.word = word;
+
+		for (TrieNode step : path) step.subWords += 1;
+	}
 
-		for (int i = 1; i <= len; i++) {
-			String substr = word.substring(0, i);
+	// Find the depth at which word stops matching the edge into kid.
+	private static int matchLength(TrieNode kid, String word, int depth) {
+		int pos = kid.from;
+		int len = word.length();
 
-			retList.add(substr);
+		while (pos < kid.to && depth < len && kid.label.charAt(pos) == word.charAt(depth)) {
+			pos   += 1;
+			depth += 1;
 		}
 
-		return retList;
+		return pos;
 	}
 
 	/**
@@ -80,10 +354,106 @@ public class AbbrevMap2 {
 	 */
 	public void removeWords(String... words) {
 		for (String word : words) {
-			for (String substr : genAbbrevs(word)) backing.remove(substr, word);
+			if (word.isEmpty()) continue;
+
+			removeWord(word);
+		}
+	}
+
+	private void removeWord(String word) {
+		Deque<TrieNode> path = new ArrayDeque<>();
+
+		TrieNode node  = root;
+		int      depth = 0;
+		int      len   = word.length();
+
+		while (depth < len) {
+			path.push(node);
+
+			node = node.child(word.charAt(depth));
+
+			// We don't have that word; bail.
+			if (node == null || node.to > len) return;
+			if (matchLength(node, word, depth) != node.to) return;
+
+			depth = node.to;
+		}
+
+		if (node.wordCount == 0) return;
+		if (--node.wordCount > 0) return;
+
+		node.word = null;
+		node.subWords -= 1;
+
+		for (TrieNode step : path) step.subWords -= 1;
+
+		// Prune or compress the nodes that no longer need to exist
+		while (!path.isEmpty()) {
+			TrieNode parent = path.pop();
+
+			if (node.subWords == 0) {
+				parent.removeChild(node);
+			} else if (node.wordCount == 0 && node.numKids == 1) {
+				TrieNode kid = node.kids[0];
+
+				kid.from = node.from;
+				parent.replaceChild(kid);
+			}
+
+			node = parent;
 		}
 	}
 
+	// Find the node at or under which all the words starting with prefix live.
+	private TrieNode locate(String prefix) {
+		TrieNode node  = root;
+		int      depth = 0;
+		int      len   = prefix.length();
+
+		while (depth < len) {
+			node = node.child(prefix.charAt(depth));
+
+			if (node == null) return null;
+
+			int end = Math.min(node.to, node.from + (len - depth));
+
+			if (matchLength(node, prefix, depth) < end) return null;
+
+			depth = node.to;
+		}
+
+		return node;
+	}
+
+	// Collect all of the words at or under a given node.
+	private static void collect(TrieNode node, Collection<String> words) {
+		if (node.wordCount > 0) words.add(node.word);
+
+		for (int i = 0; i < node.numKids; i++) collect(node.kids[i], words);
+	}
+
+	/**
+	 * Get all of the words stored in this map.
+	 *
+	 * @return All of the words in the map.
+	 */
+	public Set<String> words() {
+		Set<String> words = new HashSet<>();
+
+		collect(root, words);
+
+		return words;
+	}
+
+	/**
+	 * Compile the words in this map into a read-only form.
+	 *
+	 * @return A frozen map containing the same words as this one.
+	 */
+	public FrozenAbbrevMap compile() {
+		return FrozenAbbrevMap.compile(words());
+	}
+
 	/**
 	 * Get all of the strings that a string could be an abbreviation for.
 	 *
@@ -93,7 +463,15 @@ public class AbbrevMap2 {
 	 * @return All of the possible deabbreviations for that word.
 	 */
 	public Set<String> deabbrevAll(String word) {
-		return backing.get(word);
+		Set<String> words = new HashSet<>();
+
+		if (word.isEmpty()) return words;
+
+		TrieNode node = locate(word);
+
+		if (node != null) collect(node, words);
+
+		return words;
 	}
 
 	/**
@@ -106,9 +484,252 @@ public class AbbrevMap2 {
 	 *         one.
 	 */
 	public String deabbrev(String word) {
-		Set<String> st = backing.get(word);
+		if (word.isEmpty()) return null;
+
+		TrieNode node = locate(word);
+
+		if (node == null || node.subWords != 1) return null;
+
+		// Since compressed nodes always branch, a unique word is at the end of a
+		// single chain of nodes.
+		while (node.wordCount == 0) node = node.kids[0];
+
+		return node.word;
+	}
+
+	/**
+	 * Get the unambiguous deabbreviations of a number of words at once.
+	 *
+	 * @param words
+	 *              The words to attempt to deabbreviate.
+	 * @param out
+	 *              The array to store the deabbreviations into. Words without an
+	 *              unambiguous deabbreviation will have null stored for them.
+	 *
+	 * @return The number of words which had an unambiguous deabbreviation.
+	 *
+	 * @throws IllegalArgumentException
+	 *                                  If the output array is too small.
+	 */
+	public int deabbrevAll(String[] words, String[] out) {
+		checkBatch(words, out);
+
+		int found = 0;
+
+		for (int i = 0; i < words.length; i++) {
+			out[i] = deabbrev(words[i]);
+
+			if (out[i] != null) found += 1;
+		}
+
+		return found;
+	}
+
+	/**
+	 * Get the unambiguous deabbreviations of a number of words at once, splitting
+	 * the work across multiple threads.
+	 *
+	 * @param words
+	 *              The words to attempt to deabbreviate.
+	 * @param out
+	 *              The array to store the deabbreviations into. Words without an
+	 *              unambiguous deabbreviation will have null stored for them.
+	 *
+	 * @throws IllegalArgumentException
+	 *                                  If the output array is too small.
+	 */
+	public void parallelDeabbrevAll(String[] words, String[] out) {
+		checkBatch(words, out);
+
+		IntStream.range(0, words.length).parallel().forEach((i) -> out[i] = deabbrev(words[i]));
+	}
+
+	private static void checkBatch(String[] words, String[] out) {
+		if (out.length < words.length) {
+			String msg = String.format("Output array has length %d, but there are %d words",
+					out.length, words.length);
+
+			throw new IllegalArgumentException(msg);
+		}
+	}
+
+	/**
+	 * Get the unambiguous deabbreviations of a stream of words.
+	 *
+	 * If the provided stream is parallel, the returned one will be as well.
+	 *
+	 * @param words
+	 *              The words to attempt to deabbreviate.
+	 *
+	 * @return A stream of the deabbreviations of the words, in the same order.
+	 *         Words without an unambiguous deabbreviation will be null.
+	 */
+	public Stream<String> deabbrevAll(Stream<String> words) {
+		return words.map(this::deabbrev);
+	}
+
+	/**
+	 * Find the words that a mistyped abbreviation is most likely to be for.
+	 *
+	 * A word matches if some prefix of it is within the given number of edits
+	 * (insertions, deletions or substitutions) of the provided word. Matches are
+	 * ranked by the number of edits needed, and then by length.
+	 *
+	 * @param word
+	 *                 The word to attempt to deabbreviate. Must be no more than 64
+	 *                 characters long.
+	 * @param maxEdits
+	 *                 The maximum number of edits to allow.
+	 * @param limit
+	 *                 The maximum number of words to return.
+	 *
+	 * @return The best matching words, best first.
+	 *
+	 * @throws IllegalArgumentException
+	 *                                  If the word is too long, or the edit count
+	 *                                  or limit is invalid.
+	 */
+	public List<String> fuzzyDeabbrev(String word, int maxEdits, int limit) {
+		if (word.length() > 64) {
+			throw new IllegalArgumentException("Fuzzy lookups are limited to 64 characters");
+		}
+		if (maxEdits < 0) throw new IllegalArgumentException("Edit count must not be negative");
+		if (limit < 1)    throw new IllegalArgumentException("Limit must be positive");
+
+		if (word.isEmpty()) return new ArrayList<>();
+
+		EditMatcher matcher = new EditMatcher(word, maxEdits);
+
+		PriorityQueue<Ranked> best = new PriorityQueue<>(Collections.reverseOrder());
+
+		long[] state = matcher.start();
+
+		fuzzySearch(root, matcher, state, 0, matcher.score(state), limit, best);
+
+		return rankedWords(best);
+	}
+
+	private static void fuzzySearch(TrieNode node, EditMatcher matcher, long[] state, int depth,
+			int score, int limit, PriorityQueue<Ranked> best) {
+		for (int i = 0; i < node.numKids; i++) {
+			TrieNode kid = node.kids[i];
+
+			long[] kidState = state.clone();
+			int    kidScore = score;
+			int    kidDepth = depth;
+
+			boolean dead = false;
+
+			for (int pos = kid.from; pos < kid.to; pos++) {
+				matcher.step(kidState, kidDepth, kid.label.charAt(pos));
+
+				kidDepth += 1;
+
+				int posScore = matcher.score(kidState);
+				if (posScore >= 0 && (kidScore < 0 || posScore < kidScore)) kidScore = posScore;
+
+				dead = matcher.isDead(kidState, kidDepth);
+				if (dead) break;
+			}
+
+			if (dead) {
+				// Nothing further down can match any better
+				if (kidScore >= 0) rankSubtree(kid, kidScore, limit, best);
+			} else {
+				if (kid.wordCount > 0 && kidScore >= 0) offer(kid.word, kidScore, limit, best);
+
+				fuzzySearch(kid, matcher, kidState, kidDepth, kidScore, limit, best);
+			}
+		}
+	}
+
+	/**
+	 * Find the words that contain an abbreviation as a subsequence.
+	 *
+	 * This will find words where some characters were skipped when abbreviating
+	 * them, such as 'cmt' for 'commit'. Matches are ranked by how many characters
+	 * were skipped before the end of the abbreviation, and then by length.
+	 *
+	 * @param word
+	 *              The word to attempt to deabbreviate.
+	 * @param limit
+	 *              The maximum number of words to return.
+	 *
+	 * @return The best matching words, best first.
+	 *
+	 * @throws IllegalArgumentException
+	 *                                  If the limit is invalid.
+	 */
+	public List<String> subsequenceDeabbrev(String word, int limit) {
+		if (limit < 1) throw new IllegalArgumentException("Limit must be positive");
+
+		if (word.isEmpty()) return new ArrayList<>();
+
+		PriorityQueue<Ranked> best = new PriorityQueue<>(Collections.reverseOrder());
+
+		subsequenceSearch(root, word, 0, 0, limit, best);
+
+		return rankedWords(best);
+	}
+
+	private static void subsequenceSearch(TrieNode node, String pattern, int matched, int depth,
+			int limit, PriorityQueue<Ranked> best) {
+		int len = pattern.length();
+
+		for (int i = 0; i < node.numKids; i++) {
+			TrieNode kid = node.kids[i];
+
+			int kidMatched = matched;
+			int kidDepth   = depth;
+
+			// Matching greedily finds the earliest place the pattern can finish.
+			for (int pos = kid.from; pos < kid.to && kidMatched < len; pos++) {
+				if (kid.label.charAt(pos) == pattern.charAt(kidMatched)) kidMatched += 1;
+
+				kidDepth += 1;
+			}
+
+			if (kidMatched == len) {
+				rankSubtree(kid, kidDepth - len, limit, best);
+			} else {
+				subsequenceSearch(kid, pattern, kidMatched, kidDepth, limit, best);
+			}
+		}
+	}
+
+	// Offer every word at or under a node with the same score.
+	private static void rankSubtree(TrieNode node, int score, int limit,
+			PriorityQueue<Ranked> best) {
+		if (node.wordCount > 0) offer(node.word, score, limit, best);
+
+		for (int i = 0; i < node.numKids; i++) rankSubtree(node.kids[i], score, limit, best);
+	}
+
+	// Keep track of the best few words seen; the head of the queue is the worst.
+	private static void offer(String word, int score, int limit, PriorityQueue<Ranked> best) {
+		if (best.size() == limit) {
+			Ranked worst = best.peek();
+
+			if (score > worst.score) return;
+
+			Ranked ranked = new Ranked(word, score);
+			if (ranked.compareTo(worst) >= 0) return;
+
+			best.poll();
+			best.add(ranked);
+		} else {
+			best.add(new Ranked(word, score));
+		}
+	}
+
+	private static List<String> rankedWords(PriorityQueue<Ranked> best) {
+		Ranked[] ranked = best.toArray(new Ranked[0]);
+
+		Arrays.sort(ranked);
+
+		List<String> words = new ArrayList<>(ranked.length);
+		for (Ranked rank : ranked) words.add(rank.word);
 
-		if (st.size() == 1) return st.iterator().next();
-		else                return null;
+		return words;
 	}
 }
@@ -0,0 +1,349 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+import bjc.data.Pair;
+import bjc.data.SimplePair;
+
+/**
+ * A bounded-memory approximation of a {@link ThresholdSet}, for counting keys
+ * in streams that are too large to store every distinct key from.
+ *
+ * Counts are kept in a count-min sketch, so the count given for a key is never
+ * less than its true count, and with probability at least 1 - delta, it is no
+ * more than epsilon * N higher, where N is the total number of keys added. The
+ * sketch uses conservative updates, which tightens the estimates somewhat.
+ *
+ * Alongside the sketch, the most frequent keys are tracked using the
+ * space-saving algorithm, which is what iteration goes over. If you track k
+ * keys, then any key which makes up more than 1/k of the stream is guaranteed
+ * to be tracked.
+ *
+ * Since neither structure supports removal, this only supports adding keys.
+ *
+ * @param <KeyType> The value being counted.
+ *
+ * @author Ben Culkin
+ */
+public class ApproximateThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
+	// Counters for the sketch, row-by-row
+	private final long[] sketch;
+	private final long[] seeds;
+	private final int    width;
+
+	// Heavy hitters, stored as a binary min-heap ordered by count
+	private final Object[] heapKeys;
+	private final long[]   heapCounts;
+	private int            heapSize;
+
+	// Where each tracked key is in the heap
+	private final Map<KeyType, Integer> heapIndex;
+
+	// The total number of keys that have been added
+	private long total;
+
+	/**
+	 * Create a new approximate threshold set.
+	 *
+	 * @param epsilon     The error in the counts, as a fraction of the total
+	 *                    number of keys added.
+	 * @param delta       The probability that a count exceeds the error bound.
+	 * @param trackedKeys The number of frequent keys to keep track of.
+	 *
+	 * @throws IllegalArgumentException If any of the parameters are out of range,
+	 *                                  or they need too large a sketch.
+	 */
+	public ApproximateThresholdSet(double epsilon, double delta, int trackedKeys) {
+		if (epsilon <= 0 || epsilon >= 1) {
+			throw new IllegalArgumentException("Epsilon must be between 0 and 1, exclusive");
+		}
+		if (delta <= 0 || delta >= 1) {
+			throw new IllegalArgumentException("Delta must be between 0 and 1, exclusive");
+		}
+		if (trackedKeys < 1) {
+			throw new IllegalArgumentException("Must track at least one key");
+		}
+
+		int depth = (int) Math.ceil(Math.log(1 / delta));
+
+		long columns = (long) Math.ceil(Math.E / epsilon);
+
+		// Leave a little headroom, since some VMs can't allocate right up to the limit
+		if (columns > (Integer.MAX_VALUE - 8) / depth) {
+			throw new IllegalArgumentException(String.format(
+					"Epsilon %s and delta %s need a sketch of %d by %d counters, which is too large",
+					epsilon, delta, depth, columns));
+		}
+
+		width = (int) columns;
+
+		sketch = new long[depth * width];
+		seeds  = new long[depth];
+
+		// Fixed seeds, so that results are reproducible
+		SplittableRandom rand = new SplittableRandom(0x5EED);
+		for (int i = 0; i < depth; i++) seeds[i] = rand.nextLong() | 1;
+
+		heapKeys   = new Object[trackedKeys];
+		heapCounts = new long[trackedKeys];
+		heapIndex  = new HashMap<>();
+	}
+
+	private int column(int row, int hash) {
+		long mixed = (hash + 1L) * seeds[row];
+
+		mixed ^= mixed >>> 33;
+		mixed *= 0xFF51AFD7ED558CCDL;
+		mixed ^= mixed >>> 33;
+
+		return (int) ((mixed >>> 1) % width);
+	}
+
+	/**
+	 * Add multiple keys at once to the set.
+	 *
+	 * @param keys The keys to add.
+	 *
+	 * @return An array containing the results of adding the keys.
+	 */
+	public int[] addKeys(@SuppressWarnings("unchecked") KeyType... keys) {
+		int[] ret = new int[keys.length];
+
+		for (int i = 0; i < keys.length; i++) ret[i] = add(keys[i]);
+
+		return ret;
+	}
+
+	/**
+	 * Add a key to the collection.
+	 *
+	 * @param key The key to add to the collection.
+	 *
+	 * @return The estimated number of times that key now exists in the
+	 *         collection, capped at {@link Integer#MAX_VALUE}.
+	 */
+	public int add(KeyType key) {
+		int hash = Objects.hashCode(key);
+
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < seeds.length; row++) {
+			estimate = Math.min(estimate, sketch[(row * width) + column(row, hash)]);
+		}
+
+		estimate += 1;
+
+		// Conservative update; only raise the counters that are too low.
+		for (int row = 0; row < seeds.length; row++) {
+			int idx = (row * width) + column(row, hash);
+
+			if (sketch[idx] < estimate) sketch[idx] = estimate;
+		}
+
+		total += 1;
+
+		track(key);
+
+		return saturate(estimate);
+	}
+
+	// Update the space-saving counters for a key.
+	private void track(KeyType key) {
+		Integer pos = heapIndex.get(key);
+
+		if (pos != null) {
+			heapCounts[pos] += 1;
+
+			siftDown(pos);
+		} else if (heapSize < heapKeys.length) {
+			heapKeys[heapSize]   = key;
+			heapCounts[heapSize] = 1;
+
+			heapIndex.put(key, heapSize);
+
+			siftUp(heapSize++);
+		} else {
+			// Replace the least frequent key, inheriting its count
+			@SuppressWarnings("unchecked")
+			KeyType evicted = (KeyType) heapKeys[0];
+
+			heapIndex.remove(evicted);
+
+			heapKeys[0]    = key;
+			heapCounts[0] += 1;
+
+			heapIndex.put(key, 0);
+
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) / 2;
+
+			if (heapCounts[parent] <= heapCounts[pos]) return;
+
+			swap(pos, parent);
+
+			pos = parent;
+		}
+	}
+
+	private void siftDown(int pos) {
+		while (true) {
+			int left     = (2 * pos) + 1;
+			int smallest = pos;
+
+			if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+				smallest = left;
+			}
+
+			if (left + 1 < heapSize && heapCounts[left + 1] < heapCounts[smallest]) {
+				smallest = left + 1;
+			}
+
+			if (smallest == pos) return;
+
+			swap(pos, smallest);
+
+			pos = smallest;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void swap(int i, int j) {
+		Object tmpKey   = heapKeys[i];
+		long   tmpCount = heapCounts[i];
+
+		heapKeys[i]   = heapKeys[j];
+		heapCounts[i] = heapCounts[j];
+
+		heapKeys[j]   = tmpKey;
+		heapCounts[j] = tmpCount;
+
+		heapIndex.put((KeyType) heapKeys[i], i);
+		heapIndex.put((KeyType) heapKeys[j], j);
+	}
+
+	/**
+	 * Get the estimated number of times the set contains a set of given keys.
+	 *
+	 * @param keys The keys to look for.
+	 *
+	 * @return The containment counts for each key.
+	 */
+	public int[] containsKeys(@SuppressWarnings("unchecked") KeyType... keys) {
+		int[] ret = new int[keys.length];
+
+		for (int i = 0; i < keys.length; i++) ret[i] = contains(keys[i]);
+
+		return ret;
+	}
+
+	/**
+	 * Get the estimated number of times the set contains a given key.
+	 *
+	 * @param key The key to look for.
+	 *
+	 * @return The estimated number of times the key occurs, capped at
+	 *         {@link Integer#MAX_VALUE}; -1 if it definitely doesn't occur.
+	 */
+	public int contains(KeyType key) {
+		long estimate = count(key);
+
+		return estimate == 0 ? -1 : saturate(estimate);
+	}
+
+	/**
+	 * Get the estimated number of times the set contains a given key.
+	 *
+	 * @param key The key to look for.
+	 *
+	 * @return The estimated number of times the key occurs.
+	 */
+	public long count(KeyType key) {
+		int hash = Objects.hashCode(key);
+
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < seeds.length; row++) {
+			estimate = Math.min(estimate, sketch[(row * width) + column(row, hash)]);
+		}
+
+		return estimate;
+	}
+
+	/**
+	 * Get the total number of keys that have been added.
+	 *
+	 * @return The total number of keys added.
+	 */
+	public long total() {
+		return total;
+	}
+
+	/**
+	 * Get the most frequent keys that have been added, along with their estimated
+	 * counts.
+	 *
+	 * @return The tracked keys, from most to least frequent.
+	 */
+	public List<Pair<KeyType, Long>> heavyHitters() {
+		List<Pair<KeyType, Long>> hitters = new ArrayList<>(heapSize);
+
+		for (int i = 0; i < heapSize; i++) {
+			@SuppressWarnings("unchecked")
+			KeyType key = (KeyType) heapKeys[i];
+
+			// Both counts are overestimates, so the smaller one is better.
+			hitters.add(new SimplePair<>(key, Math.min(heapCounts[i], count(key))));
+		}
+
+		hitters.sort((lhs, rhs) -> Long.compare(rhs.getRight(), lhs.getRight()));
+
+		return hitters;
+	}
+
+	/**
+	 * Iterate over the tracked keys which are estimated to occur more than once,
+	 * from most to least frequent.
+	 */
+	@Override
+	public Iterator<Pair<KeyType, Integer>> iterator() {
+		List<Pair<KeyType, Integer>> repeated = new ArrayList<>();
+
+		for (Pair<KeyType, Long> hitter : heavyHitters()) {
+			long cnt = hitter.getRight();
+
+			if (cnt > 1) repeated.add(new SimplePair<>(hitter.getLeft(), saturate(cnt)));
+		}
+
+		return repeated.iterator();
+	}
+
+	private static int saturate(long count) {
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ApproximateThresholdSet [total=%d, heavyHitters=%s]", total,
+				heavyHitters());
+	}
+}
@@ -0,0 +1,365 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import bjc.data.Pair;
+import bjc.data.SimplePair;
+
+/**
+ * A version of {@link ThresholdSet} which can be safely used from multiple
+ * threads at once.
+ *
+ * Each key has its own counter, which is updated using compare-and-swap, so
+ * threads counting different keys never contend with each other, and counting
+ * a key that is already present doesn't need any locking at all. The return
+ * values of the add, remove and contains methods are the same as for
+ * {@link ThresholdSet}.
+ *
+ * The set view and the iterator are weakly consistent, in the same way as the
+ * views of {@link ConcurrentHashMap}. They won't throw
+ * {@link ConcurrentModificationException}, but they may or may not reflect
+ * changes that happen while they are in use.
+ *
+ * Unlike {@link ThresholdSet}, null keys aren't supported.
+ *
+ * @param <KeyType> The value being counted.
+ *
+ * @author Ben Culkin
+ */
+public class ConcurrentThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
+	// Weakly consistent view of the keys with a count of one.
+	private class SetView extends AbstractSet<KeyType> {
+		@Override
+		public boolean add(KeyType key) {
+			// Like ThresholdSet, adding an existing key removes it from the view.
+			return ConcurrentThresholdSet.this.add(key) <= 2;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			// Will throw a ClassCastException if you give us something bad.
+			@SuppressWarnings("unchecked")
+			KeyType k = (KeyType) o;
+
+			return ConcurrentThresholdSet.this.remove(k) == 0;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			// Will throw a ClassCastException if you give us something bad.
+			@SuppressWarnings("unchecked")
+			KeyType k = (KeyType) o;
+
+			return ConcurrentThresholdSet.this.contains(k) == 1;
+		}
+
+		@Override
+		public int size() {
+			return (int) singles.sum();
+		}
+
+		@Override
+		public Iterator<KeyType> iterator() {
+			Iterator<Map.Entry<KeyType, AtomicInteger>> itr = backing.entrySet().iterator();
+
+			return new Iterator<>() {
+				private KeyType next = findNext();
+				private KeyType last;
+
+				private KeyType findNext() {
+					while (itr.hasNext()) {
+						Map.Entry<KeyType, AtomicInteger> entry = itr.next();
+
+						if (entry.getValue().get() == 1) return entry.getKey();
+					}
+
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public KeyType next() {
+					if (next == null) throw new NoSuchElementException();
+
+					last = next;
+					next = findNext();
+
+					return last;
+				}
+
+				@Override
+				public void remove() {
+					if (last == null) throw new IllegalStateException();
+
+					ConcurrentThresholdSet.this.remove(last);
+
+					last = null;
+				}
+			};
+		}
+	}
+
+	/*
+	 * The counter for each key.
+	 *
+	 * A counter that reaches zero is dead; it is removed from the map, and never
+	 * used again. Anyone who sees a dead counter acts as if the key is missing.
+	 */
+	private final ConcurrentMap<KeyType, AtomicInteger> backing;
+
+	// The number of keys with a count of exactly one
+	private final LongAdder singles;
+
+	/**
+	 * Create a new empty concurrent threshold set.
+	 */
+	public ConcurrentThresholdSet() {
+		backing = new ConcurrentHashMap<>();
+		singles = new LongAdder();
+	}
+
+	/**
+	 * Add multiple keys at once to the set.
+	 *
+	 * Note that the keys are added one at a time, not atomically as a group.
+	 *
+	 * @param keys The keys to add.
+	 *
+	 * @return An array containing the results of adding the keys.
+	 */
+	public int[] addKeys(@SuppressWarnings("unchecked") KeyType... keys) {
+		int[] ret = new int[keys.length];
+
+		for (int i = 0; i < keys.length; i++) ret[i] = add(keys[i]);
+
+		return ret;
+	}
+
+	/**
+	 * Atomically add a key to the collection.
+	 *
+	 * @param key The key to add to the collection.
+	 *
+	 * @return The number of times that key now exists in the collection. Should
+	 *         always be &gt; 0.
+	 */
+	public int add(KeyType key) {
+		while (true) {
+			AtomicInteger counter = backing.get(key);
+
+			if (counter == null) {
+				AtomicInteger fresh = new AtomicInteger(1);
+
+				counter = backing.putIfAbsent(key, fresh);
+
+				if (counter == null) {
+					// New key
+					singles.increment();
+
+					return 1;
+				}
+			}
+
+			int cnt = increment(counter);
+
+			if (cnt > 0) {
+				if (cnt == 2) singles.decrement();
+
+				return cnt;
+			}
+
+			// The counter died before we could use it; clear it out and try again.
+			backing.remove(key, counter);
+		}
+	}
+
+	// Increment a counter, unless it is dead. Returns the new count, or 0 if dead.
+	private static int increment(AtomicInteger counter) {
+		while (true) {
+			int cur = counter.get();
+
+			if (cur == 0) return 0;
+
+			if (counter.compareAndSet(cur, cur + 1)) return cur + 1;
+		}
+	}
+
+	/**
+	 * Remove multiple keys at once from the set.
+	 *
+	 * Note that the keys are removed one at a time, not atomically as a group.
+	 *
+	 * @param keys The keys to remove from the collection.
+	 *
+	 * @return The results from removing the keys.
+	 */
+	public int[] removeKeys(@SuppressWarnings("unchecked") KeyType... keys) {
+		int[] ret = new int[keys.length];
+
+		for (int i = 0; i < keys.length; i++) ret[i] = remove(keys[i]);
+
+		return ret;
+	}
+
+	/**
+	 * Atomically remove a key from the collection.
+	 *
+	 * @param key The key to remove from the collection.
+	 *
+	 * @return The number of times that key now exists in the collection. Returns -1
+	 *         if that key wasn't in the collection beforehand.
+	 */
+	public int remove(KeyType key) {
+		AtomicInteger counter = backing.get(key);
+
+		if (counter == null) return -1;
+
+		while (true) {
+			int cur = counter.get();
+
+			// Someone else removed the last occurrence
+			if (cur == 0) return -1;
+
+			if (counter.compareAndSet(cur, cur - 1)) {
+				if (cur == 1) {
+					singles.decrement();
+
+					backing.remove(key, counter);
+				} else if (cur == 2) {
+					singles.increment();
+				}
+
+				return cur - 1;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of times the set contains a set of given keys.
+	 *
+	 * @param keys The keys to look for.
+	 *
+	 * @return The containment counts for each key.
+	 */
+	public int[] containsKeys(@SuppressWarnings("unchecked") KeyType... keys) {
+		int[] ret = new int[keys.length];
+
+		for (int i = 0; i < keys.length; i++) ret[i] = contains(keys[i]);
+
+		return ret;
+	}
+
+	/**
+	 * Get the number of times the set contains a given key.
+	 *
+	 * @param key The key to look for.
+	 *
+	 * @return The number of times the key occurs; -1 if it doesn't occur.
+	 */
+	public int contains(KeyType key) {
+		AtomicInteger counter = backing.get(key);
+
+		if (counter == null) return -1;
+
+		int cnt = counter.get();
+
+		return cnt == 0 ? -1 : cnt;
+	}
+
+	/**
+	 * Get a set containing all of the values that are in this set at least once.
+	 *
+	 * @return A snapshot of every value that occurs at least once in this set.
+	 */
+	public Set<KeyType> values() {
+		Set<KeyType> retSet = new HashSet<>();
+
+		backing.forEach((key, counter) -> {
+			if (counter.get() > 0) retSet.add(key);
+		});
+
+		return retSet;
+	}
+
+	/**
+	 * Get a view of this collection as a java.util.Set.
+	 *
+	 * The view contains the keys that occur exactly once, and is weakly
+	 * consistent.
+	 *
+	 * @return A view of the collection as a set.
+	 */
+	public Set<KeyType> setView() {
+		return new SetView();
+	}
+
+	/**
+	 * Iterate over the keys that occur more than once, along with their counts.
+	 *
+	 * The counts are the counts at the time that each key is reached.
+	 */
+	@Override
+	public Iterator<Pair<KeyType, Integer>> iterator() {
+		Iterator<Map.Entry<KeyType, AtomicInteger>> itr = backing.entrySet().iterator();
+
+		return new Iterator<>() {
+			private Pair<KeyType, Integer> next = findNext();
+
+			private Pair<KeyType, Integer> findNext() {
+				while (itr.hasNext()) {
+					Map.Entry<KeyType, AtomicInteger> entry = itr.next();
+
+					int cnt = entry.getValue().get();
+
+					if (cnt > 1) return new SimplePair<>(entry.getKey(), cnt);
+				}
+
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Pair<KeyType, Integer> next() {
+				if (next == null) throw new NoSuchElementException();
+
+				Pair<KeyType, Integer> ret = next;
+
+				next = findNext();
+
+				return ret;
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConcurrentThresholdSet %s", backing);
+	}
+}
@@ -0,0 +1,512 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+import java.util.function.*;
+
+import bjc.data.*;
+
+/**
+ * A compact, read-only encoding of a {@link NestList}.
+ *
+ * Instead of wrapping every element in an {@link Either} and giving every
+ * sublist its own backing list, this stores the structure as a flat array of
+ * tokens, in the order a depth-first traversal would see them. Each token is
+ * either an element or the start of a sublist; sublist tokens record where that
+ * sublist ends, so whole sublists can be skipped at once. The elements
+ * themselves are kept in their own array, so a deep traversal is just a walk
+ * over that array.
+ *
+ * Getting the deep size of this list, or of any sublist, takes constant time.
+ * Getting the n-th top-level item takes time proportional to n, as items
+ * before it have to be skipped over.
+ *
+ * Sublists are views onto the same arrays, so taking one doesn't copy anything.
+ *
+ * @author Ben Culkin
+ *
+ * @param <Element> The type contained in the list.
+ */
+public class FlatNestList<Element> implements Iterable<Element> {
+	/**
+	 * The cursor found an element.
+	 */
+	public static final int ELEMENT = 0;
+	/**
+	 * The cursor found the start of a sublist.
+	 */
+	public static final int START   = 1;
+	/**
+	 * The cursor found the end of a sublist.
+	 */
+	public static final int END     = 2;
+	/**
+	 * The cursor has reached the end of the list.
+	 */
+	public static final int DONE    = 3;
+
+	// Marks a token as an element, instead of the start of a sublist
+	private static final int ATOM = -1;
+
+	private final Object[] atoms;
+
+	// For each token, either ATOM or the token index after the end of the sublist
+	private final int[] ends;
+	// For each token, the number of atoms before it; has one extra trailing entry
+	private final int[] atomsBefore;
+
+	private final int maxDepth;
+
+	// The range of tokens in this list
+	private final int from;
+	private final int to;
+
+	// Number of top-level items, or -1 if not yet counted
+	private int size = -1;
+
+	private FlatNestList(Object[] atoms, int[] ends, int[] atomsBefore, int maxDepth,
+			int from, int to) {
+		this.atoms       = atoms;
+		this.ends        = ends;
+		this.atomsBefore = atomsBefore;
+		this.maxDepth    = maxDepth;
+
+		this.from = from;
+		this.to   = to;
+	}
+
+	/**
+	 * Convert a nesting list into its flat form.
+	 *
+	 * @param <Element> The type contained in the list.
+	 *
+	 * @param list The list to convert.
+	 *
+	 * @return The flat form of the list.
+	 */
+	public static <Element> FlatNestList<Element> from(NestList<Element> list) {
+		int atomCount  = 0;
+		int tokenCount = 0;
+
+		// Sized for the common case of a mostly-flat list; grown as needed
+		Object[] atoms = new Object[Math.max(16, list.size())];
+		int[]    ends  = new int[atoms.length];
+
+		Deque<Iterator<Either<Element, NestList<Element>>>> iterators = new ArrayDeque<>();
+		int[] starts = new int[8];
+
+		int maxDepth = 0;
+
+		iterators.push(list.iterator());
+
+		while (!iterators.isEmpty()) {
+			Iterator<Either<Element, NestList<Element>>> itr = iterators.peek();
+
+			if (!itr.hasNext()) {
+				iterators.pop();
+
+				// Close the sublist we just finished
+				if (!iterators.isEmpty()) ends[starts[iterators.size() - 1]] = tokenCount;
+
+				continue;
+			}
+
+			Either<Element, NestList<Element>> item = itr.next();
+
+			if (tokenCount == ends.length) ends = Arrays.copyOf(ends, ends.length * 2);
+
+			if (item.isLeft()) {
+				if (atomCount == atoms.length) atoms = Arrays.copyOf(atoms, atoms.length * 2);
+
+				atoms[atomCount++] = item.forceLeft();
+				ends[tokenCount++] = ATOM;
+			} else {
+				int depth = iterators.size();
+
+				if (depth == starts.length) starts = Arrays.copyOf(starts, depth * 2);
+
+				starts[depth - 1] = tokenCount++;
+				maxDepth          = Math.max(maxDepth, depth);
+
+				iterators.push(item.forceRight().iterator());
+			}
+		}
+
+		int[] atomsBefore = new int[tokenCount + 1];
+
+		for (int i = 0; i < tokenCount; i++) {
+			atomsBefore[i + 1] = atomsBefore[i] + (ends[i] == ATOM ? 1 : 0);
+		}
+
+		return new FlatNestList<>(Arrays.copyOf(atoms, atomCount), Arrays.copyOf(ends, tokenCount),
+				atomsBefore, maxDepth, 0, tokenCount);
+	}
+
+	/**
+	 * Convert this list back into a nesting list.
+	 *
+	 * @return A nesting list with the same structure and elements as this list.
+	 */
+	public NestList<Element> toNestList() {
+		Deque<NestList<Element>> lists = new ArrayDeque<>();
+
+		NestList<Element> current = new NestList<>();
+
+		Cursor cursor = cursor();
+
+		for (int event = cursor.next(); event != DONE; event = cursor.next()) {
+			switch (event) {
+			case ELEMENT:
+				current.addItem(cursor.element());
+				break;
+			case START:
+				NestList<Element> sublist = new NestList<>();
+
+				current.addItem(sublist);
+				lists.push(current);
+
+				current = sublist;
+				break;
+			case END:
+				current = lists.pop();
+				break;
+			default:
+				throw new IllegalStateException("Unknown cursor event " + event);
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Get the number of top-level items in this list.
+	 *
+	 * @return The number of elements and sublists directly contained in this
+	 *         list.
+	 */
+	public int size() {
+		if (size < 0) {
+			int count = 0;
+
+			for (int tok = from; tok < to; tok = skip(tok)) count += 1;
+
+			size = count;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Get the total number of elements contained in this list and all sublists.
+	 *
+	 * @return The total number of elements contained in this list.
+	 */
+	public int deepSize() {
+		return atomsBefore[to] - atomsBefore[from];
+	}
+
+	/**
+	 * Check if a top-level item is a sublist.
+	 *
+	 * @param index The index of the item.
+	 *
+	 * @return Whether or not the item is a sublist.
+	 */
+	public boolean isSublist(int index) {
+		return ends[token(index)] != ATOM;
+	}
+
+	/**
+	 * Get a top-level element from this list.
+	 *
+	 * @param index The index of the element.
+	 *
+	 * @return The element at that index.
+	 *
+	 * @throws IllegalArgumentException If the item at that index is a sublist.
+	 */
+	@SuppressWarnings("unchecked")
+	public Element element(int index) {
+		int tok = token(index);
+
+		if (ends[tok] != ATOM) throw new IllegalArgumentException("Item " + index + " is a sublist");
+
+		return (Element) atoms[atomsBefore[tok]];
+	}
+
+	/**
+	 * Get a top-level sublist from this list.
+	 *
+	 * @param index The index of the sublist.
+	 *
+	 * @return A view of the sublist at that index.
+	 *
+	 * @throws IllegalArgumentException If the item at that index isn't a sublist.
+	 */
+	public FlatNestList<Element> sublist(int index) {
+		int tok = token(index);
+
+		if (ends[tok] == ATOM) throw new IllegalArgumentException("Item " + index + " is not a sublist");
+
+		return new FlatNestList<>(atoms, ends, atomsBefore, maxDepth, tok + 1, ends[tok]);
+	}
+
+	/**
+	 * Get an element by its position in the flattened form of this list.
+	 *
+	 * @param index The index of the element in the flattened list.
+	 *
+	 * @return The element at that index.
+	 */
+	@SuppressWarnings("unchecked")
+	public Element deepGet(int index) {
+		if (index < 0 || index >= deepSize()) {
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for deep size " + deepSize());
+		}
+
+		return (Element) atoms[atomsBefore[from] + index];
+	}
+
+	/**
+	 * Get a read-only view of the flattened form of this list.
+	 *
+	 * @return A view of every element in this list and its sublists.
+	 */
+	public List<Element> deepFlatten() {
+		return new AbstractList<>() {
+			@Override
+			public Element get(int index) {
+				return deepGet(index);
+			}
+
+			@Override
+			public int size() {
+				return deepSize();
+			}
+		};
+	}
+
+	/**
+	 * Perform an action for every element in this list and its sublists.
+	 *
+	 * @param action The action to perform.
+	 */
+	@SuppressWarnings("unchecked")
+	public void deepForEach(Consumer<? super Element> action) {
+		for (int i = atomsBefore[from]; i < atomsBefore[to]; i++) {
+			action.accept((Element) atoms[i]);
+		}
+	}
+
+	/**
+	 * Return an iterator over a flattened version of this list.
+	 *
+	 * @return An iterator over every element in this list and its sublists.
+	 */
+	public Iterator<Element> flatIterator() {
+		return new Iterator<>() {
+			private int next = atomsBefore[from];
+
+			@Override
+			public boolean hasNext() {
+				return next < atomsBefore[to];
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Element next() {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				return (Element) atoms[next++];
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Element> iterator() {
+		return flatIterator();
+	}
+
+	/**
+	 * Create a cursor for walking the structure of this list.
+	 *
+	 * @return A cursor positioned before the start of this list.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Walks over the structure of a flat list, one token at a time.
+	 *
+	 * Calling {@link Cursor#next()} gives back one of {@link #ELEMENT},
+	 * {@link #START}, {@link #END} or {@link #DONE}; walking doesn't allocate
+	 * anything.
+	 *
+	 * @author Ben Culkin
+	 */
+	public final class Cursor {
+		private int pos = from;
+
+		// The token indexes where each open sublist ends
+		private final int[] sublistEnds = new int[maxDepth];
+		private int         depth;
+
+		private Cursor() {
+			// Created by cursor()
+		}
+
+		/**
+		 * Move to the next token.
+		 *
+		 * @return The kind of token the cursor is now at.
+		 */
+		public int next() {
+			if (depth > 0 && pos == sublistEnds[depth - 1]) {
+				depth -= 1;
+
+				return END;
+			}
+
+			if (pos >= to) return DONE;
+
+			int tok = pos++;
+
+			if (ends[tok] == ATOM) return ELEMENT;
+
+			sublistEnds[depth++] = ends[tok];
+
+			return START;
+		}
+
+		/**
+		 * Get the element the cursor is at.
+		 *
+		 * @return The element the cursor is at.
+		 *
+		 * @throws IllegalStateException If the cursor isn't at an element.
+		 */
+		@SuppressWarnings("unchecked")
+		public Element element() {
+			int tok = pos - 1;
+
+			if (tok < from || ends[tok] != ATOM) throw new IllegalStateException("Cursor isn't at an element");
+
+			return (Element) atoms[atomsBefore[tok]];
+		}
+
+		/**
+		 * Get how many sublists the cursor is inside of.
+		 *
+		 * @return The current nesting depth of the cursor.
+		 */
+		public int depth() {
+			return depth;
+		}
+	}
+
+	// Get the token for a top-level item.
+	private int token(int index) {
+		if (index < 0) throw new IndexOutOfBoundsException("Index " + index + " is negative");
+
+		int tok = from;
+
+		for (int i = 0; i < index && tok < to; i++) tok = skip(tok);
+
+		if (tok >= to) throw new IndexOutOfBoundsException("Index " + index + " is out of bounds");
+
+		return tok;
+	}
+
+	// Get the token after an item, skipping over sublists.
+	private int skip(int tok) {
+		return ends[tok] == ATOM ? tok + 1 : ends[tok];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+
+		Cursor cursor = cursor();
+
+		boolean first = true;
+
+		for (int event = cursor.next(); event != DONE; event = cursor.next()) {
+			if (event == END) {
+				sb.append(']');
+				first = false;
+
+				continue;
+			}
+
+			if (!first) sb.append(", ");
+
+			if (event == START) {
+				sb.append('[');
+				first = true;
+			} else {
+				sb.append(cursor.element());
+				first = false;
+			}
+		}
+
+		return sb.append(']').toString();
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+
+		for (int tok = from; tok < to; tok++) {
+			result = 31 * result + (ends[tok] == ATOM
+					? Objects.hashCode(atoms[atomsBefore[tok]])
+					: ends[tok] - tok);
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)                  return true;
+		if (obj == null)                  return false;
+		if (getClass() != obj.getClass()) return false;
+
+		FlatNestList<?> other = (FlatNestList<?>) obj;
+
+		if (to - from != other.to - other.from) return false;
+
+		for (int i = 0; i < to - from; i++) {
+			int lhs = from + i;
+			int rhs = other.from + i;
+
+			if (ends[lhs] == ATOM) {
+				if (other.ends[rhs] != ATOM) return false;
+
+				if (!Objects.equals(atoms[atomsBefore[lhs]], other.atoms[other.atomsBefore[rhs]])) {
+					return false;
+				}
+			} else if (ends[lhs] - lhs != other.ends[rhs] - rhs) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,414 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A read-only version of {@link AbbrevMap2}, for large vocabularies that don't
+ * change.
+ *
+ * The words are compiled into a minimal acyclic automaton (a DAWG), which is
+ * laid out in a single flat buffer. Each state records how many words can be
+ * reached from it, so abbreviations are checked the same way as in the trie.
+ *
+ * Since the layout doesn't contain any pointers, a compiled map can be saved to
+ * a file, and then memory-mapped back in without having to rebuild it.
+ *
+ * The layout of the buffer is a header, followed by the states. The header is
+ * made up of the magic number, the format version, and the offset of the root
+ * state. Each state is the number of words reachable from it, a word containing
+ * the number of arcs (with the high bit set if the state ends a word), and then
+ * the arcs, sorted by their label. Each arc is a label, and the offset of the
+ * state it leads to.
+ *
+ * @author Ben Culkin
+ */
+public class FrozenAbbrevMap {
+	private static final int MAGIC   = 0x41424256; // 'ABBV'
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 12;
+
+	private static final int FINAL_FLAG = 0x80000000;
+	private static final int STATE_SIZE = 8;
+	private static final int ARC_SIZE   = 6;
+
+	// A state in the automaton, during construction.
+	private static final class BuildState {
+		boolean isFinal;
+
+		char[]       labels  = new char[0];
+		BuildState[] targets = new BuildState[0];
+
+		// The offset of this state, and the words reachable from it, once it has
+		// been written.
+		int offset = -1;
+		int count;
+
+		BuildState lastChild() {
+			return targets.length == 0 ? null : targets[targets.length - 1];
+		}
+
+		void addArc(char label, BuildState target) {
+			int len = labels.length;
+
+			labels  = Arrays.copyOf(labels, len + 1);
+			targets = Arrays.copyOf(targets, len + 1);
+
+			labels[len]  = label;
+			targets[len] = target;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = Boolean.hashCode(isFinal);
+
+			result = 31 * result + Arrays.hashCode(labels);
+
+			// Children are already unique, so identity is what matters for them.
+			for (BuildState target : targets) {
+				result = 31 * result + System.identityHashCode(target);
+			}
+
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)                  return true;
+			if (!(obj instanceof BuildState)) return false;
+
+			BuildState other = (BuildState) obj;
+
+			if (isFinal != other.isFinal)               return false;
+			if (!Arrays.equals(labels, other.labels))   return false;
+			if (targets.length != other.targets.length) return false;
+
+			for (int i = 0; i < targets.length; i++) {
+				if (targets[i] != other.targets[i]) return false;
+			}
+
+			return true;
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final int        root;
+
+	/**
+	 * Create a frozen abbreviation map from an already compiled buffer.
+	 *
+	 * @param buffer
+	 *               The buffer containing the compiled map.
+	 *
+	 * @throws IllegalArgumentException
+	 *                                  If the buffer doesn't contain a compiled
+	 *                                  map.
+	 */
+	public FrozenAbbrevMap(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+		if (this.buffer.capacity() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Buffer does not contain a compiled abbreviation map");
+		}
+
+		int version = this.buffer.getInt(4);
+		if (version != VERSION) {
+			String msg = String.format("Unsupported abbreviation map version %d (expected %d)",
+					version, VERSION);
+
+			throw new IllegalArgumentException(msg);
+		}
+
+		this.root = this.buffer.getInt(8);
+	}
+
+	/**
+	 * Compile a set of words into a frozen abbreviation map.
+	 *
+	 * @param words
+	 *              The words to put into the map.
+	 *
+	 * @return A frozen map containing the given words.
+	 */
+	public static FrozenAbbrevMap compile(String... words) {
+		return compile(Arrays.asList(words));
+	}
+
+	/**
+	 * Compile a set of words into a frozen abbreviation map.
+	 *
+	 * @param words
+	 *              The words to put into the map.
+	 *
+	 * @return A frozen map containing the given words.
+	 */
+	public static FrozenAbbrevMap compile(Collection<String> words) {
+		// The construction requires the words in sorted order.
+		SortedSet<String> sorted = new TreeSet<>(words);
+
+		// Empty words have no abbreviations
+		sorted.remove("");
+
+		Map<BuildState, BuildState> register = new HashMap<>();
+
+		BuildState start = new BuildState();
+
+		String prev = "";
+		for (String word : sorted) {
+			int common = 0;
+			int limit  = Math.min(prev.length(), word.length());
+
+			while (common < limit && prev.charAt(common) == word.charAt(common)) common++;
+
+			BuildState state = start;
+			for (int i = 0; i < common; i++) state = state.lastChild();
+
+			// Anything past the common prefix is done being added to.
+			if (state.lastChild() != null) replaceOrRegister(state, register);
+
+			for (int i = common; i < word.length(); i++) {
+				BuildState next = new BuildState();
+
+				state.addArc(word.charAt(i), next);
+
+				state = next;
+			}
+
+			state.isFinal = true;
+
+			prev = word;
+		}
+
+		if (start.lastChild() != null) replaceOrRegister(start, register);
+
+		// Lay the states out, children before their parents
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + layoutSize(register.values(), start));
+
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(0);
+
+		write(start, out);
+
+		out.putInt(8, start.offset);
+
+		return new FrozenAbbrevMap(out);
+	}
+
+	// Merge the last child of a state with an equivalent state, if there is one.
+	private static void replaceOrRegister(BuildState state, Map<BuildState, BuildState> register) {
+		BuildState child = state.lastChild();
+
+		if (child.lastChild() != null) replaceOrRegister(child, register);
+
+		BuildState existing = register.putIfAbsent(child, child);
+
+		if (existing != null) state.targets[state.targets.length - 1] = existing;
+	}
+
+	private static int layoutSize(Collection<BuildState> states, BuildState start) {
+		int size = STATE_SIZE + (start.labels.length * ARC_SIZE);
+
+		for (BuildState state : states) {
+			size += STATE_SIZE + (state.labels.length * ARC_SIZE);
+		}
+
+		return size;
+	}
+
+	// Write out a state and everything under it.
+	private static void write(BuildState state, ByteBuffer out) {
+		// Already written; states can be shared.
+		if (state.offset >= 0) return;
+
+		int count = state.isFinal ? 1 : 0;
+
+		for (BuildState target : state.targets) {
+			write(target, out);
+
+			count += target.count;
+		}
+
+		state.offset = out.position();
+		state.count  = count;
+
+		out.putInt(count);
+		out.putInt(state.labels.length | (state.isFinal ? FINAL_FLAG : 0));
+
+		for (int i = 0; i < state.labels.length; i++) {
+			out.putChar(state.labels[i]);
+			out.putInt(state.targets[i].offset);
+		}
+	}
+
+	/**
+	 * Load a frozen abbreviation map from a file, by memory-mapping it.
+	 *
+	 * @param file
+	 *             The file to load the map from.
+	 *
+	 * @return The map stored in the file.
+	 *
+	 * @throws IOException
+	 *                     If something goes wrong reading the file.
+	 */
+	public static FrozenAbbrevMap load(Path file) throws IOException {
+		try (FileChannel chan = FileChannel.open(file, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed.
+			return new FrozenAbbrevMap(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()));
+		}
+	}
+
+	/**
+	 * Save this map to a file, in a form that can be loaded by
+	 * {@link FrozenAbbrevMap#load(Path)}.
+	 *
+	 * @param file
+	 *             The file to save the map to.
+	 *
+	 * @throws IOException
+	 *                     If something goes wrong writing the file.
+	 */
+	public void save(Path file) throws IOException {
+		try (FileChannel chan = FileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer src = buffer.duplicate();
+
+			src.clear();
+
+			while (src.hasRemaining()) chan.write(src);
+		}
+	}
+
+	/**
+	 * Get the number of words stored in this map.
+	 *
+	 * @return The number of words in the map.
+	 */
+	public int size() {
+		return buffer.getInt(root);
+	}
+
+	// Find the state reached by following a word, or -1 if there isn't one.
+	private int walk(String word) {
+		int state = root;
+
+		for (int i = 0; i < word.length(); i++) {
+			state = target(state, word.charAt(i));
+
+			if (state < 0) return -1;
+		}
+
+		return state;
+	}
+
+	// Follow the arc with a given label out of a state, or -1 if there isn't one.
+	private int target(int state, char label) {
+		int lo = 0;
+		int hi = (buffer.getInt(state + 4) & ~FINAL_FLAG) - 1;
+
+		int arcs = state + STATE_SIZE;
+
+		while (lo <= hi) {
+			int  mid = (lo + hi) >>> 1;
+			char val = buffer.getChar(arcs + (mid * ARC_SIZE));
+
+			if      (val < label) lo = mid + 1;
+			else if (val > label) hi = mid - 1;
+			else                  return buffer.getInt(arcs + (mid * ARC_SIZE) + 2);
+		}
+
+		return -1;
+	}
+
+	// Collect all of the words reachable from a state.
+	private void collect(int state, StringBuilder prefix, Collection<String> words) {
+		int header = buffer.getInt(state + 4);
+
+		if ((header & FINAL_FLAG) != 0) words.add(prefix.toString());
+
+		int numArcs = header & ~FINAL_FLAG;
+		int arcs    = state + STATE_SIZE;
+
+		for (int i = 0; i < numArcs; i++) {
+			int arc = arcs + (i * ARC_SIZE);
+
+			prefix.append(buffer.getChar(arc));
+			collect(buffer.getInt(arc + 2), prefix, words);
+			prefix.setLength(prefix.length() - 1);
+		}
+	}
+
+	/**
+	 * Get all of the strings that a string could be an abbreviation for.
+	 *
+	 * @param word
+	 *             The word to attempt to deabbreviate.
+	 *
+	 * @return All of the possible deabbreviations for that word.
+	 */
+	public Set<String> deabbrevAll(String word) {
+		Set<String> words = new HashSet<>();
+
+		if (word.isEmpty()) return words;
+
+		int state = walk(word);
+
+		if (state >= 0) collect(state, new StringBuilder(word), words);
+
+		return words;
+	}
+
+	/**
+	 * Get the unambiguous thing the string is an abbreviation for.
+	 *
+	 * @param word
+	 *             The word to attempt to deabbreviate.
+	 *
+	 * @return The unambiguous deabbreviation of the string, or null if there isn't
+	 *         one.
+	 */
+	public String deabbrev(String word) {
+		if (word.isEmpty()) return null;
+
+		int state = walk(word);
+
+		if (state < 0 || buffer.getInt(state) != 1) return null;
+
+		StringBuilder sb = new StringBuilder(word);
+
+		// Only a single word is reachable, so there is at most one arc to follow.
+		int header = buffer.getInt(state + 4);
+		while ((header & FINAL_FLAG) == 0) {
+			int arc = state + STATE_SIZE;
+
+			sb.append(buffer.getChar(arc));
+
+			state  = buffer.getInt(arc + 2);
+			header = buffer.getInt(state + 4);
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,295 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+import bjc.data.Pair;
+import bjc.funcdata.ObjectFrozen;
+
+/**
+ * A compact, read-only multimap, created by {@link TSetMultimap#compile()}.
+ *
+ * The values are stored in a compressed sparse row layout; there is one packed
+ * array of all of the values, with the values for each key stored next to each
+ * other, and an array of offsets giving where the values for each key start.
+ * The keys themselves are found using an open-addressed table of indices, and
+ * the values for each key are sorted by hash code, so that checking whether a
+ * key has a value is a binary search.
+ *
+ * Since nothing can change, the set of values for each key is created once,
+ * when the map is compiled, so looking up a key doesn't allocate anything.
+ *
+ * Attempting to modify this map will throw {@link ObjectFrozen}.
+ *
+ * @author Ben Culkin
+ *
+ * @param <KeyType>   The type of keys in the map.
+ * @param <ValueType> The type of values in the map.
+ */
+public class FrozenSetMultimap<KeyType, ValueType>
+		implements Iterable<Pair<KeyType, ValueType>>, Multimap<KeyType, ValueType> {
+	// Read-only set of the values in a range of the packed array
+	private final class RangeView extends AbstractSet<ValueType> {
+		private final int start;
+		private final int end;
+
+		RangeView(int start, int end) {
+			this.start = start;
+			this.end   = end;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(start, end, o) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+
+		@Override
+		public Iterator<ValueType> iterator() {
+			return new Iterator<>() {
+				private int pos = start;
+
+				@Override
+				public boolean hasNext() {
+					return pos < end;
+				}
+
+				@Override
+				public ValueType next() {
+					if (pos >= end) throw new NoSuchElementException();
+
+					return valueAt(pos++);
+				}
+			};
+		}
+	}
+
+	// The keys, and where their values start; offsets has an extra entry at the end
+	private final Object[] keys;
+	private final int[]    offsets;
+
+	// The values for all of the keys, packed together, and their hash codes.
+	private final Object[] values;
+	private final int[]    hashes;
+
+	// Open-addressed table of (index + 1) into keys; zero is an empty slot.
+	private final int[] table;
+
+	private final Set<ValueType>[] views;
+
+	@SuppressWarnings("unchecked")
+	FrozenSetMultimap(Map<KeyType, ThresholdSet<ValueType>> source) {
+		int numKeys   = 0;
+		int numValues = 0;
+
+		for (ThresholdSet<ValueType> vals : source.values()) {
+			if (vals.size() == 0) continue;
+
+			numKeys   += 1;
+			numValues += vals.size();
+		}
+
+		keys    = new Object[numKeys];
+		offsets = new int[numKeys + 1];
+		values  = new Object[numValues];
+		hashes  = new int[numValues];
+
+		@SuppressWarnings("rawtypes")
+		Set[] rawViews = new Set[numKeys];
+		views = rawViews;
+
+		int tableSize = 2;
+		while (tableSize < numKeys * 2) tableSize *= 2;
+
+		table = new int[tableSize];
+
+		int keyIdx = 0;
+		int valIdx = 0;
+
+		for (Map.Entry<KeyType, ThresholdSet<ValueType>> entry : source.entrySet()) {
+			ThresholdSet<ValueType> vals = entry.getValue();
+
+			if (vals.size() == 0) continue;
+
+			keys[keyIdx]    = entry.getKey();
+			offsets[keyIdx] = valIdx;
+
+			for (ValueType val : vals.valueView()) values[valIdx++] = val;
+
+			Arrays.sort(values, offsets[keyIdx], valIdx, Comparator.comparingInt(Objects::hashCode));
+
+			for (int i = offsets[keyIdx]; i < valIdx; i++) hashes[i] = Objects.hashCode(values[i]);
+
+			views[keyIdx] = new RangeView(offsets[keyIdx], valIdx);
+
+			int slot = slotFor(entry.getKey());
+			while (table[slot] != 0) slot = (slot + 1) & (table.length - 1);
+
+			table[slot] = keyIdx + 1;
+
+			keyIdx += 1;
+		}
+
+		offsets[numKeys] = valIdx;
+	}
+
+	private int slotFor(Object key) {
+		int hash = Objects.hashCode(key);
+
+		return (hash ^ (hash >>> 16)) & (table.length - 1);
+	}
+
+	// Find the index of a key, or -1 if it isn't present.
+	private int keyIndex(Object key) {
+		int slot = slotFor(key);
+
+		while (true) {
+			int idx = table[slot] - 1;
+
+			if (idx < 0)                        return -1;
+			if (Objects.equals(keys[idx], key)) return idx;
+
+			slot = (slot + 1) & (table.length - 1);
+		}
+	}
+
+	// Find a value in a range, by searching for the first value with its hash.
+	private int indexOf(int start, int end, Object value) {
+		int hash = Objects.hashCode(value);
+
+		int lo = start;
+		int hi = end;
+
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+
+			if (hashes[mid] < hash) lo = mid + 1;
+			else                    hi = mid;
+		}
+
+		for (int i = lo; i < end && hashes[i] == hash; i++) {
+			if (Objects.equals(values[i], value)) return i;
+		}
+
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ValueType valueAt(int idx) {
+		return (ValueType) values[idx];
+	}
+
+	@SuppressWarnings("unchecked")
+	private KeyType keyAt(int idx) {
+		return (KeyType) keys[idx];
+	}
+
+	@Override
+	public void add(KeyType key, ValueType value) {
+		throw new ObjectFrozen("Can't add key " + key + " to compiled multimap");
+	}
+
+	@Override
+	public void remove(KeyType key, ValueType value) {
+		throw new ObjectFrozen("Can't remove key " + key + " from compiled multimap");
+	}
+
+	@Override
+	public void remove(KeyType key) {
+		throw new ObjectFrozen("Can't remove key " + key + " from compiled multimap");
+	}
+
+	@Override
+	public Set<ValueType> get(KeyType key) {
+		int idx = keyIndex(key);
+
+		if (idx < 0) return Collections.emptySet();
+
+		return views[idx];
+	}
+
+	@Override
+	public Optional<ValueType> getSingle(KeyType key) {
+		int idx = keyIndex(key);
+
+		if (idx < 0 || offsets[idx + 1] - offsets[idx] != 1) return Optional.empty();
+
+		return Optional.of(valueAt(offsets[idx]));
+	}
+
+	/**
+	 * Get the number of values mapped to a key.
+	 *
+	 * @param key The key to look up values for.
+	 *
+	 * @return The number of values mapped to that key.
+	 */
+	public int count(KeyType key) {
+		int idx = keyIndex(key);
+
+		return idx < 0 ? 0 : offsets[idx + 1] - offsets[idx];
+	}
+
+	/**
+	 * Get the number of keys in this map.
+	 *
+	 * @return The number of keys in this map.
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public boolean contains(KeyType key) {
+		return keyIndex(key) >= 0;
+	}
+
+	@Override
+	public boolean contains(KeyType key, ValueType value) {
+		int idx = keyIndex(key);
+
+		return idx >= 0 && indexOf(offsets[idx], offsets[idx + 1], value) >= 0;
+	}
+
+	@Override
+	public Iterator<Pair<KeyType, ValueType>> iterator() {
+		return new Iterator<>() {
+			private int keyIdx = 0;
+			private int valIdx = 0;
+
+			@Override
+			public boolean hasNext() {
+				return valIdx < values.length;
+			}
+
+			@Override
+			public Pair<KeyType, ValueType> next() {
+				if (valIdx >= values.length) throw new NoSuchElementException();
+
+				while (offsets[keyIdx + 1] <= valIdx) keyIdx += 1;
+
+				return Pair.pair(keyAt(keyIdx), valueAt(valIdx++));
+			}
+		};
+	}
+}
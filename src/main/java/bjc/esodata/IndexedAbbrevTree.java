@@ -0,0 +1,419 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+import bjc.data.Pair;
+import bjc.data.TransformIterator;
+
+/**
+ * A version of {@link AbbrevTree} which indexes its nodes, instead of having
+ * every node track all of the labelled nodes underneath it.
+ *
+ * The nodes are numbered in the order a depth-first traversal enters them, so
+ * every subtree covers a contiguous range of numbers. Alongside that, there is
+ * a single list for each label, containing the numbers of the nodes with that
+ * label in sorted order. Finding the nodes with a label under a given node is
+ * then just a pair of binary searches.
+ *
+ * The index is rebuilt lazily, the first time it is needed after the tree has
+ * been modified. This means that building up a tree and then querying it is
+ * cheap, but interleaving modifications with queries is not.
+ *
+ * Unlike {@link AbbrevTree}, nodes use identity for equality, and a node always
+ * counts as one of its own descendants when looking up labels.
+ *
+ * @param <Label>     The label on each node
+ * @param <Contained> The type of data contained in the nodes.
+ *
+ * @author Ben Culkin
+ */
+public class IndexedAbbrevTree<Label, Contained> implements Iterable<Pair<Label, Contained>> {
+	// A growable list of node numbers.
+	private static final class Postings {
+		int[] items = new int[4];
+		int   size;
+
+		void add(int item) {
+			if (size == items.length) items = Arrays.copyOf(items, size * 2);
+
+			items[size++] = item;
+		}
+
+		// Find the first position with an item that isn't less than the key.
+		int lowerBound(int key) {
+			int lo = 0;
+			int hi = size;
+
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+
+				if (items[mid] < key) lo = mid + 1;
+				else                  hi = mid;
+			}
+
+			return lo;
+		}
+	}
+
+	// The index, which is shared by all of the nodes in a tree.
+	private static final class TreeIndex<Label, Contained> {
+		IndexedAbbrevTree<Label, Contained> root;
+
+		boolean dirty = true;
+
+		// The nodes, in the order they are numbered.
+		List<IndexedAbbrevTree<Label, Contained>> order;
+
+		Map<Label, Postings> postings;
+
+		TreeIndex(IndexedAbbrevTree<Label, Contained> root) {
+			this.root = root;
+		}
+
+		void refresh() {
+			if (!dirty) return;
+
+			// Use new containers, so that existing iterators aren't disturbed.
+			order    = new ArrayList<>();
+			postings = new HashMap<>();
+
+			Deque<Iterator<IndexedAbbrevTree<Label, Contained>>> stack = new ArrayDeque<>();
+			Deque<IndexedAbbrevTree<Label, Contained>>           open  = new ArrayDeque<>();
+
+			enter(root);
+			open.push(root);
+			stack.push(root.children.values().iterator());
+
+			// Done iteratively, so that deep trees don't overflow the stack.
+			while (!stack.isEmpty()) {
+				Iterator<IndexedAbbrevTree<Label, Contained>> itr = stack.peek();
+
+				if (itr.hasNext()) {
+					IndexedAbbrevTree<Label, Contained> node = itr.next();
+
+					enter(node);
+					open.push(node);
+					stack.push(node.children.values().iterator());
+				} else {
+					stack.pop();
+
+					open.pop().exit = order.size();
+				}
+			}
+
+			dirty = false;
+		}
+
+		private void enter(IndexedAbbrevTree<Label, Contained> node) {
+			node.enter = order.size();
+
+			order.add(node);
+
+			postings.computeIfAbsent(node.label, (lbl) -> new Postings()).add(node.enter);
+		}
+	}
+
+	private TreeIndex<Label, Contained> index;
+
+	private final Map<Label, IndexedAbbrevTree<Label, Contained>> children;
+	private IndexedAbbrevTree<Label, Contained> parent;
+
+	private Contained data;
+	private final Label label;
+
+	// The range of node numbers covered by this subtree; only valid if the index
+	// isn't dirty.
+	private int enter;
+	private int exit;
+
+	/**
+	 * Create a new empty root IndexedAbbrevTree.
+	 */
+	public IndexedAbbrevTree() {
+		this(null, null);
+	}
+
+	/**
+	 * Create a new occupied root IndexedAbbrevTree.
+	 *
+	 * @param label The label for this tree
+	 * @param data  The data for this tree
+	 */
+	public IndexedAbbrevTree(Label label, Contained data) {
+		this.label = label;
+		this.data  = data;
+
+		this.children = new LinkedHashMap<>();
+		this.index    = new TreeIndex<>(this);
+	}
+
+	/**
+	 * Create a new occupied child IndexedAbbrevTree.
+	 *
+	 * If the parent already has a child with the given label, it will be
+	 * replaced.
+	 *
+	 * @param parent The parent of this node
+	 * @param label  The label for this tree
+	 * @param data   The data for this tree
+	 */
+	public IndexedAbbrevTree(IndexedAbbrevTree<Label, Contained> parent, Label label,
+			Contained data) {
+		this.label = label;
+		this.data  = data;
+
+		this.children = new LinkedHashMap<>();
+		this.parent   = parent;
+		this.index    = parent.index;
+
+		IndexedAbbrevTree<Label, Contained> old = parent.children.put(label, this);
+		if (old != null) old.detach();
+
+		index.dirty = true;
+	}
+
+	/**
+	 * Get the data contained in this node.
+	 *
+	 * @return The contained data.
+	 */
+	public Contained getData() {
+		return data;
+	}
+
+	/**
+	 * Set the data contained in this node.
+	 *
+	 * @param data The new data.
+	 */
+	public void setData(Contained data) {
+		this.data = data;
+	}
+
+	/**
+	 * Get the label for this node.
+	 *
+	 * @return The label for this node.
+	 */
+	public Label getLabel() {
+		return label;
+	}
+
+	/**
+	 * Get the parent of this node.
+	 *
+	 * @return The parent of this node, or null if it is a root.
+	 */
+	public IndexedAbbrevTree<Label, Contained> getParent() {
+		return parent;
+	}
+
+	/**
+	 * Add a child to this node
+	 *
+	 * @param key The label for the new node
+	 * @param dat The data for the new node.
+	 *
+	 * @return The new node
+	 */
+	public IndexedAbbrevTree<Label, Contained> add(Label key, Contained dat) {
+		return new IndexedAbbrevTree<>(this, key, dat);
+	}
+
+	/**
+	 * Remove a direct child from this node.
+	 *
+	 * The removed child becomes the root of its own tree.
+	 *
+	 * @param key The label for this child.
+	 *
+	 * @return The removed child.
+	 */
+	public Optional<IndexedAbbrevTree<Label, Contained>> removeChild(Label key) {
+		IndexedAbbrevTree<Label, Contained> node = children.remove(key);
+
+		if (node != null) node.detach();
+
+		return Optional.ofNullable(node);
+	}
+
+	// Split this node off into its own tree.
+	private void detach() {
+		index.dirty = true;
+
+		parent = null;
+
+		TreeIndex<Label, Contained> newIndex = new TreeIndex<>(this);
+
+		Deque<IndexedAbbrevTree<Label, Contained>> pending = new ArrayDeque<>();
+		pending.push(this);
+
+		while (!pending.isEmpty()) {
+			IndexedAbbrevTree<Label, Contained> node = pending.pop();
+
+			node.index = newIndex;
+
+			pending.addAll(node.children.values());
+		}
+	}
+
+	/**
+	 * Retrieve a number of subnodes from this tree which correspond to the given
+	 * keys.
+	 *
+	 * Note that the keys are passed in reverse order. Essentially, the first
+	 * argument is the actual key, the remainder are just disambiguators
+	 *
+	 * @param keys The keys to look up.
+	 *
+	 * @return All of the nodes which match the given key pattern, in depth-first
+	 *         order.
+	 */
+	public List<IndexedAbbrevTree<Label, Contained>> nodes(
+			@SuppressWarnings("unchecked") Label... keys) {
+		index.refresh();
+
+		List<IndexedAbbrevTree<Label, Contained>> order = index.order;
+
+		// The roots of the subtrees we are searching. These are always disjoint, and
+		// in sorted order.
+		int[] focus    = { enter };
+		int   numFocus = 1;
+
+		// COBOL keylists are in reverse order
+		for (int i = keys.length - 1; i >= 0; i--) {
+			Postings post = index.postings.get(keys[i]);
+
+			if (post == null) return new ArrayList<>();
+
+			int[] next    = new int[4];
+			int   numNext = 0;
+
+			// Nodes we've found inside of this one can be skipped, since we already
+			// search everything under this one.
+			int covered = -1;
+
+			for (int j = 0; j < numFocus; j++) {
+				IndexedAbbrevTree<Label, Contained> node = order.get(focus[j]);
+
+				int lo = post.lowerBound(node.enter);
+				int hi = post.lowerBound(node.exit);
+
+				for (int k = lo; k < hi; k++) {
+					int found = post.items[k];
+
+					if (i != 0 && found < covered) continue;
+
+					if (numNext == next.length) next = Arrays.copyOf(next, numNext * 2);
+
+					next[numNext++] = found;
+
+					covered = order.get(found).exit;
+				}
+			}
+
+			focus    = next;
+			numFocus = numNext;
+		}
+
+		List<IndexedAbbrevTree<Label, Contained>> nodes = new ArrayList<>(numFocus);
+
+		for (int i = 0; i < numFocus; i++) nodes.add(order.get(focus[i]));
+
+		return nodes;
+	}
+
+	/**
+	 * Retrieve all of the values which correspond to a given key.
+	 *
+	 * Note that the keys are passed in reverse order. Essentially, the first
+	 * argument is the actual key, the remainder are just disambiguators
+	 *
+	 * @param keys The keys to look up
+	 *
+	 * @return All of the values which correspond to the key, in depth-first order.
+	 */
+	public List<Contained> values(@SuppressWarnings("unchecked") Label... keys) {
+		List<Contained> res = new ArrayList<>();
+
+		for (IndexedAbbrevTree<Label, Contained> node : nodes(keys)) res.add(node.data);
+
+		return res;
+	}
+
+	/**
+	 * Count the number of nodes which correspond to a given key.
+	 *
+	 * @param key The key to look up.
+	 *
+	 * @return The number of nodes at or under this one with the given label.
+	 */
+	public int count(Label key) {
+		index.refresh();
+
+		Postings post = index.postings.get(key);
+
+		if (post == null) return 0;
+
+		return post.lowerBound(exit) - post.lowerBound(enter);
+	}
+
+	/**
+	 * Returns the singular value identified by the given keypath.
+	 *
+	 * Note that unlike {@link IndexedAbbrevTree#nodes(Object...)} and
+	 * {@link IndexedAbbrevTree#values(Object...)}, the keys to this method are
+	 * passed in the proper order, not reverse.
+	 *
+	 * @param keys The keypath to look up.
+	 *
+	 * @return An optional containing the identified element if there is one;
+	 *         otherwise, empty.
+	 */
+	public Optional<IndexedAbbrevTree<Label, Contained>> path(
+			@SuppressWarnings("unchecked") Label... keys) {
+		IndexedAbbrevTree<Label, Contained> focus = this;
+
+		for (Label key : keys) {
+			focus = focus.children.get(key);
+
+			if (focus == null) return Optional.empty();
+		}
+
+		return Optional.of(focus);
+	}
+
+	/**
+	 * Iterate over the labels and data of this node and all of its descendants,
+	 * in depth-first order.
+	 */
+	@Override
+	public Iterator<Pair<Label, Contained>> iterator() {
+		index.refresh();
+
+		return new TransformIterator<>(index.order.subList(enter, exit).iterator(),
+				(node) -> Pair.pair(node.label, node.data));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("IndexedAbbrevTree [label=%s, data=%s]", label, data);
+	}
+}
@@ -0,0 +1,555 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+import bjc.data.Pair;
+
+/**
+ * A multimap from keys to integers, intended for use as an inverted index.
+ *
+ * The values for each key are stored as a sorted posting list. Posting lists
+ * are split into blocks of {@value #BLOCK_SIZE} values; the first value of each
+ * block is stored in a skip array, and the rest are stored as variable-length
+ * deltas from the previous value. This means that long posting lists take up a
+ * fraction of the space an int[] would.
+ *
+ * Queries combining multiple keys are done by walking cursors over the posting
+ * lists. Intersections use the skip arrays to gallop past whole blocks, so
+ * intersecting a short list with a long one only decodes the blocks of the long
+ * list which could contain a match.
+ *
+ * Adding values in increasing order for a key is cheap; adding or removing a
+ * value anywhere else requires re-encoding that key's posting list. Like
+ * {@link TSetMultimap}, each value is only stored once per key, but unlike it,
+ * adding a value multiple times doesn't require removing it that many times.
+ *
+ * @author Ben Culkin
+ *
+ * @param <KeyType> The type of keys in the index.
+ */
+public class InvertedIndex<KeyType>
+		implements Iterable<Pair<KeyType, Integer>>, Multimap<KeyType, Integer> {
+	private static final int BLOCK_SIZE = 128;
+
+	// A compressed, sorted list of values.
+	private static final class PostingList {
+		// The variable-length deltas
+		byte[] data = new byte[16];
+		int    dataLen;
+
+		// The first value in each block, and where its deltas start
+		int[] blockStarts  = new int[1];
+		int[] blockOffsets = new int[1];
+		int   numBlocks;
+
+		int size;
+		int last;
+
+		void append(int value) {
+			if (size % BLOCK_SIZE == 0) {
+				if (numBlocks == blockStarts.length) {
+					blockStarts  = Arrays.copyOf(blockStarts, numBlocks * 2);
+					blockOffsets = Arrays.copyOf(blockOffsets, numBlocks * 2);
+				}
+
+				blockStarts[numBlocks]  = value;
+				blockOffsets[numBlocks] = dataLen;
+
+				numBlocks += 1;
+			} else {
+				// Deltas are treated as unsigned, so the full int range works
+				int delta = value - last;
+
+				if (dataLen + 5 > data.length) data = Arrays.copyOf(data, data.length * 2);
+
+				while ((delta & ~0x7F) != 0) {
+					data[dataLen++] = (byte) ((delta & 0x7F) | 0x80);
+
+					delta >>>= 7;
+				}
+
+				data[dataLen++] = (byte) delta;
+			}
+
+			size += 1;
+			last  = value;
+		}
+
+		boolean contains(int value) {
+			if (size == 0 || value > last) return false;
+
+			Cursor cur = new Cursor(this);
+
+			return cur.seek(value) && cur.value == value;
+		}
+
+		int[] toArray() {
+			int[] values = new int[size];
+
+			Cursor cur = new Cursor(this);
+
+			for (int i = 0; cur.next(); i++) values[i] = cur.value;
+
+			return values;
+		}
+
+		static PostingList of(int[] values, int count) {
+			PostingList list = new PostingList();
+
+			for (int i = 0; i < count; i++) list.append(values[i]);
+
+			return list;
+		}
+	}
+
+	// A position in a posting list.
+	private static final class Cursor {
+		final PostingList list;
+
+		int block = -1;
+		int index = -1;
+		int pos;
+
+		// The value the cursor is currently on
+		int value;
+
+		Cursor(PostingList list) {
+			this.list = list;
+		}
+
+		// Move to the next value; returns false when there are no more.
+		boolean next() {
+			if (index + 1 >= list.size) {
+				index = list.size;
+
+				return false;
+			}
+
+			index += 1;
+
+			if (index % BLOCK_SIZE == 0) {
+				block += 1;
+
+				pos   = list.blockOffsets[block];
+				value = list.blockStarts[block];
+			} else {
+				int delta = 0;
+				int shift = 0;
+
+				byte cur;
+				do {
+					cur = list.data[pos++];
+
+					delta |= (cur & 0x7F) << shift;
+					shift += 7;
+				} while ((cur & 0x80) != 0);
+
+				value += delta;
+			}
+
+			return true;
+		}
+
+		// Move to the first value not less than the target, returning false if
+		// there isn't one. Never moves backwards.
+		boolean seek(int target) {
+			if (index >= list.size) return false;
+			if (index >= 0 && value >= target) return true;
+
+			if (target > list.last) {
+				index = list.size;
+
+				return false;
+			}
+
+			// Gallop through the blocks, then binary search for the right one
+			int from  = Math.max(block, 0);
+			int step  = 1;
+			int bound = from;
+
+			while (bound < list.numBlocks && list.blockStarts[bound] <= target) {
+				from   = bound;
+				bound += step;
+				step  *= 2;
+			}
+
+			int lo = from;
+			int hi = Math.min(bound, list.numBlocks) - 1;
+
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+
+				if (list.blockStarts[mid] <= target) lo = mid;
+				else                                 hi = mid - 1;
+			}
+
+			if (lo > block) {
+				// Jump to the start of the block
+				block = lo - 1;
+				index = (lo * BLOCK_SIZE) - 1;
+			}
+
+			while (next()) {
+				if (value >= target) return true;
+			}
+
+			return false;
+		}
+	}
+
+	// Live, read-only view of the values for a key
+	private final class ValueView extends AbstractSet<Integer> {
+		private final KeyType key;
+
+		ValueView(KeyType key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return (o instanceof Integer) && InvertedIndex.this.contains(key, (Integer) o);
+		}
+
+		@Override
+		public int size() {
+			return count(key);
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			PostingList list = backing.get(key);
+
+			if (list == null) return Collections.emptyIterator();
+
+			return new CursorIterator(list);
+		}
+	}
+
+	// Iterator over the values in a posting list.
+	private static final class CursorIterator implements Iterator<Integer> {
+		private final Cursor cursor;
+
+		private boolean hasNext;
+
+		CursorIterator(PostingList list) {
+			cursor  = new Cursor(list);
+			hasNext = cursor.next();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+		@Override
+		public Integer next() {
+			if (!hasNext) throw new NoSuchElementException();
+
+			int value = cursor.value;
+
+			hasNext = cursor.next();
+
+			return value;
+		}
+	}
+
+	private final Map<KeyType, PostingList> backing;
+
+	/**
+	 * Create a new empty inverted index.
+	 */
+	public InvertedIndex() {
+		backing = new HashMap<>();
+	}
+
+	@Override
+	public void add(KeyType key, Integer value) {
+		int val = value;
+
+		PostingList list = backing.computeIfAbsent(key, (k) -> new PostingList());
+
+		if (list.size == 0 || val > list.last) {
+			list.append(val);
+		} else if (!list.contains(val)) {
+			int[] values = list.toArray();
+			int   idx    = -(Arrays.binarySearch(values, val) + 1);
+
+			int[] newValues = new int[values.length + 1];
+
+			System.arraycopy(values, 0, newValues, 0, idx);
+			System.arraycopy(values, idx, newValues, idx + 1, values.length - idx);
+
+			newValues[idx] = val;
+
+			backing.put(key, PostingList.of(newValues, newValues.length));
+		}
+	}
+
+	@Override
+	public void remove(KeyType key, Integer value) {
+		PostingList list = backing.get(key);
+
+		// We have no values for that key, or not that value; bail.
+		if (list == null || !list.contains(value)) return;
+
+		if (list.size == 1) {
+			backing.remove(key);
+
+			return;
+		}
+
+		int[] values = list.toArray();
+		int   idx    = Arrays.binarySearch(values, value);
+
+		System.arraycopy(values, idx + 1, values, idx, values.length - idx - 1);
+
+		backing.put(key, PostingList.of(values, values.length - 1));
+	}
+
+	@Override
+	public void remove(KeyType key) {
+		backing.remove(key);
+	}
+
+	/**
+	 * Get a set containing all of the values that are recorded for that key.
+	 *
+	 * The returned set is a read-only view, which iterates in ascending order.
+	 *
+	 * @param key The key to look up values for.
+	 *
+	 * @return A view of all of the values that have been mapped to that key.
+	 */
+	@Override
+	public Set<Integer> get(KeyType key) {
+		return new ValueView(key);
+	}
+
+	/**
+	 * Get the values recorded for a key as an array.
+	 *
+	 * @param key The key to look up values for.
+	 *
+	 * @return The values for that key, in ascending order.
+	 */
+	public int[] postings(KeyType key) {
+		PostingList list = backing.get(key);
+
+		return list == null ? new int[0] : list.toArray();
+	}
+
+	@Override
+	public Optional<Integer> getSingle(KeyType key) {
+		PostingList list = backing.get(key);
+
+		if (list == null || list.size != 1) return Optional.empty();
+
+		return Optional.of(list.last);
+	}
+
+	/**
+	 * Get the number of values mapped to a key.
+	 *
+	 * @param key The key to look up values for.
+	 *
+	 * @return The number of values mapped to that key.
+	 */
+	public int count(KeyType key) {
+		PostingList list = backing.get(key);
+
+		return list == null ? 0 : list.size;
+	}
+
+	@Override
+	public boolean contains(KeyType key) {
+		return backing.containsKey(key);
+	}
+
+	@Override
+	public boolean contains(KeyType key, Integer value) {
+		PostingList list = backing.get(key);
+
+		return list != null && list.contains(value);
+	}
+
+	/**
+	 * Find the values which are mapped to every one of the given keys.
+	 *
+	 * @param keys The keys to look for values under.
+	 *
+	 * @return The values mapped to all of the keys, in ascending order.
+	 */
+	public int[] and(@SuppressWarnings("unchecked") KeyType... keys) {
+		return andNot(Arrays.asList(keys), Collections.emptyList());
+	}
+
+	/**
+	 * Find the values which are mapped to any of the given keys.
+	 *
+	 * @param keys The keys to look for values under.
+	 *
+	 * @return The values mapped to any of the keys, in ascending order.
+	 */
+	public int[] or(@SuppressWarnings("unchecked") KeyType... keys) {
+		List<Cursor> cursors = new ArrayList<>();
+
+		int total = 0;
+
+		for (KeyType key : keys) {
+			PostingList list = backing.get(key);
+
+			if (list == null) continue;
+
+			Cursor cur = new Cursor(list);
+			cur.next();
+
+			cursors.add(cur);
+
+			total += list.size;
+		}
+
+		int[] result = new int[total];
+		int   count  = 0;
+
+		// Merge the lists; there aren't usually enough of them to need a heap.
+		while (!cursors.isEmpty()) {
+			int min = Integer.MAX_VALUE;
+			for (Cursor cur : cursors) min = Math.min(min, cur.value);
+
+			result[count++] = min;
+
+			Iterator<Cursor> itr = cursors.iterator();
+			while (itr.hasNext()) {
+				Cursor cur = itr.next();
+
+				if (cur.value == min && !cur.next()) itr.remove();
+			}
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Find the values which are mapped to every one of the required keys, and
+	 * none of the excluded keys.
+	 *
+	 * @param required The keys the values must be mapped to. Must not be empty.
+	 * @param excluded The keys the values must not be mapped to.
+	 *
+	 * @return The matching values, in ascending order.
+	 *
+	 * @throws IllegalArgumentException If there are no required keys.
+	 */
+	public int[] andNot(Collection<KeyType> required, Collection<KeyType> excluded) {
+		if (required.isEmpty()) throw new IllegalArgumentException("Must require at least one key");
+
+		List<PostingList> lists = new ArrayList<>(required.size());
+
+		for (KeyType key : required) {
+			PostingList list = backing.get(key);
+
+			// Nothing can be mapped to all of the keys.
+			if (list == null) return new int[0];
+
+			lists.add(list);
+		}
+
+		// Drive the intersection from the shortest list
+		lists.sort((lhs, rhs) -> Integer.compare(lhs.size, rhs.size));
+
+		Cursor[] cursors = new Cursor[lists.size()];
+		for (int i = 0; i < cursors.length; i++) cursors[i] = new Cursor(lists.get(i));
+
+		List<Cursor> exclusions = new ArrayList<>();
+		for (KeyType key : excluded) {
+			PostingList list = backing.get(key);
+
+			if (list != null) exclusions.add(new Cursor(list));
+		}
+
+		int[] result = new int[lists.get(0).size];
+		int   count  = 0;
+
+		Cursor driver = cursors[0];
+
+		boolean more = driver.next();
+
+		candidates:
+		while (more) {
+			int candidate = driver.value;
+
+			for (int i = 1; i < cursors.length; i++) {
+				if (!cursors[i].seek(candidate)) break candidates;
+
+				if (cursors[i].value != candidate) {
+					// Skip ahead to where this list could next match
+					more = driver.seek(cursors[i].value);
+
+					continue candidates;
+				}
+			}
+
+			boolean isExcluded = false;
+			for (Cursor exclusion : exclusions) {
+				if (exclusion.seek(candidate) && exclusion.value == candidate) {
+					isExcluded = true;
+					break;
+				}
+			}
+
+			if (!isExcluded) result[count++] = candidate;
+
+			more = driver.next();
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	@Override
+	public Iterator<Pair<KeyType, Integer>> iterator() {
+		Iterator<Map.Entry<KeyType, PostingList>> mapIter = backing.entrySet().iterator();
+
+		return new Iterator<>() {
+			private KeyType           currKey;
+			private Iterator<Integer> listIter;
+
+			@Override
+			public boolean hasNext() {
+				while (listIter == null || !listIter.hasNext()) {
+					if (!mapIter.hasNext()) return false;
+
+					Map.Entry<KeyType, PostingList> entry = mapIter.next();
+
+					currKey  = entry.getKey();
+					listIter = new CursorIterator(entry.getValue());
+				}
+
+				return true;
+			}
+
+			@Override
+			public Pair<KeyType, Integer> next() {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				return Pair.pair(currKey, listIter.next());
+			}
+		};
+	}
+}
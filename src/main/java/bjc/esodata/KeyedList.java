@@ -19,15 +19,48 @@ package bjc.esodata;
 
 import java.util.*;
 
+/**
+ * A list of values, where each value also has a key that it can be looked up
+ * by.
+ * 
+ * Values stay in the order they were added. Removing a value leaves a
+ * tombstone in its place, so that iterators and positions aren't disturbed;
+ * once enough tombstones build up, the list is compacted in a single pass.
+ * Iterators survive compaction by finding their place again by key.
+ * 
+ * @author Ben Culkin
+ *
+ * @param <Key> The type of keys for the list.
+ * @param <Val> The type of values in the list.
+ */
 public class KeyedList<Key, Val> implements Iterable<Val> {
-	private List<Val> backing;
-	private Map<Key, Integer> indices;
+	// Marks an entry whose value has been removed
+	private static final Object TOMBSTONE = new Object();
+
+	// Don't bother compacting when there are fewer tombstones than this
+	private static final int MIN_COMPACT = 32;
+
+	private Object[] entryKeys;
+	private Object[] backing;
+
+	private final ObjectIntMap indices;
 
 	private int currIdx = 0;
 
+	// The number of values, and the number of tombstones
+	private int size;
+	private int removed;
+
+	// Incremented whenever the list is compacted, so iterators can tell
+	private int epoch;
+
+	/**
+	 * Create a new empty keyed list.
+	 */
 	public KeyedList() {
-		backing = new ArrayList<>();
-		indices = new HashMap<>();
+		entryKeys = new Object[16];
+		backing   = new Object[16];
+		indices   = new ObjectIntMap();
 	}
 
 	/**
@@ -46,8 +79,22 @@ public class KeyedList<Key, Val> implements Iterable<Val> {
 		if (indices.containsKey(key))
 			return false;
 
-		backing.add(val);
+		if (currIdx == backing.length) {
+			// Compacting may free up enough room that we don't need to grow
+			if (shouldCompact()) compact();
+
+			if (currIdx == backing.length) {
+				entryKeys = Arrays.copyOf(entryKeys, currIdx * 2);
+				backing   = Arrays.copyOf(backing, currIdx * 2);
+			}
+		}
+
+		entryKeys[currIdx] = key;
+		backing[currIdx]   = val;
+
 		indices.put(key, currIdx++);
+		size += 1;
+
 		return true;
 	}
 
@@ -60,22 +107,124 @@ public class KeyedList<Key, Val> implements Iterable<Val> {
 	 * @return The previous value for the key, if there was one
 	 */
 	public Val set(Key key, Val newVal) {
-		if (indices.containsKey(key)) {
-			return backing.set(indices.get(key), newVal);
+		int idx = indices.get(key);
+
+		if (idx != ObjectIntMap.MISSING) {
+			Val old = valueAt(idx);
+
+			backing[idx] = newVal;
+
+			return old;
 		}
 
 		add(key, newVal);
 		return null;
 	}
 
+	/**
+	 * Remove the item associated with a given key.
+	 * 
+	 * @param key The key to remove.
+	 * 
+	 * @return The value for the key, or null if there wasn't one.
+	 */
+	public Val remove(Key key) {
+		int idx = indices.remove(key);
+
+		if (idx == ObjectIntMap.MISSING) return null;
+
+		Val old = removeAt(idx);
+
+		if (shouldCompact()) compact();
+
+		return old;
+	}
+
+	/**
+	 * Get the number of items in this list.
+	 * 
+	 * @return The number of items in this list.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all of the tombstones left by removed items.
+	 * 
+	 * This happens automatically once there are more tombstones than items, but
+	 * can be done early to free up memory.
+	 */
+	public void compact() {
+		int dest = 0;
+
+		for (int src = 0; src < currIdx; src++) {
+			if (entryKeys[src] == TOMBSTONE) continue;
+
+			if (src != dest) {
+				entryKeys[dest] = entryKeys[src];
+				backing[dest]   = backing[src];
+
+				indices.put(entryKeys[dest], dest);
+			}
+
+			dest += 1;
+		}
+
+		Arrays.fill(entryKeys, dest, currIdx, null);
+		Arrays.fill(backing, dest, currIdx, null);
+
+		// Give back memory if we shrank a lot
+		if (backing.length > 16 && dest * 4 < backing.length) {
+			int newLength = Math.max(16, dest * 2);
+
+			entryKeys = Arrays.copyOf(entryKeys, newLength);
+			backing   = Arrays.copyOf(backing, newLength);
+		}
+
+		currIdx = dest;
+		removed = 0;
+		epoch  += 1;
+	}
+
 	/**
 	 * Retrieve all of the keys for this list.
 	 * 
-	 * @return An immutable set of the keys for this list
+	 * @return An immutable set of the keys for this list, in the order they
+	 *         were added
 	 */
 	public Set<Key> keys() {
 		// TODO: write mutable wrapper which will update the list appropriately
-		return Collections.unmodifiableSet(indices.keySet());
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Key> iterator() {
+				Itr itr = new Itr(0);
+
+				return new Iterator<>() {
+					@Override
+					public boolean hasNext() {
+						return itr.hasNext();
+					}
+
+					@Override
+					public Key next() {
+						itr.next();
+
+						return itr.lastKey();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return indices.containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
 	}
 
 	/**
@@ -83,10 +232,12 @@ public class KeyedList<Key, Val> implements Iterable<Val> {
 	 * 
 	 * @param key The key to look up.
 	 * 
-	 * @return The value for the given key.
+	 * @return The value for the given key, or null if there isn't one.
 	 */
 	public Val get(Key key) {
-		return backing.get(indices.get(key));
+		int idx = indices.get(key);
+
+		return idx == ObjectIntMap.MISSING ? null : valueAt(idx);
 	}
 
 	/**
@@ -102,22 +253,206 @@ public class KeyedList<Key, Val> implements Iterable<Val> {
 
 	@Override
 	public Iterator<Val> iterator() {
-		return backing.iterator();
+		return new Itr(0);
 	}
 
 	/**
 	 * Return an iterator that starts at the value for the given key.'
 	 * 
+	 * The indexes the iterator reports are positions in the list, counting any
+	 * tombstones. The iterator doesn't support adding items, since they need a
+	 * key.
+	 * 
 	 * @param key The key to start at.
 	 * 
 	 * @return An iterator starting at the given key, or null if the key isn't
 	 *         present.
 	 */
 	public ListIterator<Val> iteratorFrom(Key key) {
-		if (indices.containsKey(key)) {
-			return backing.listIterator(indices.get(key));
+		int idx = indices.get(key);
+
+		if (idx == ObjectIntMap.MISSING) return null;
+
+		Itr itr = new Itr(idx);
+
+		itr.anchor(idx, false);
+
+		return itr;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Val valueAt(int idx) {
+		return (Val) backing[idx];
+	}
+
+	private Val removeAt(int idx) {
+		Val old = valueAt(idx);
+
+		entryKeys[idx] = TOMBSTONE;
+		backing[idx]   = null;
+
+		size    -= 1;
+		removed += 1;
+
+		return old;
+	}
+
+	private boolean shouldCompact() {
+		return removed >= MIN_COMPACT && removed > size;
+	}
+
+	/*
+	 * Iterates over the values, skipping tombstones.
+	 * 
+	 * To find its place again after the list is compacted, the iterator keeps
+	 * track of the key of an item next to its cursor.
+	 */
+	private final class Itr implements ListIterator<Val> {
+		private int cursor;
+		private int lastRet = -1;
+
+		private int expectedEpoch = epoch;
+
+		// The item the cursor is next to, and which side of it the cursor is on
+		private boolean hasAnchor;
+		private Object  anchorKey;
+		private boolean anchorAfter;
+
+		Itr(int cursor) {
+			this.cursor = cursor;
 		}
 
-		return null;
+		void anchor(int idx, boolean after) {
+			hasAnchor   = true;
+			anchorKey   = entryKeys[idx];
+			anchorAfter = after;
+		}
+
+		@SuppressWarnings("unchecked")
+		Key lastKey() {
+			return (Key) anchorKey;
+		}
+
+		// Find our place again, if the list has been compacted.
+		private void sync() {
+			if (expectedEpoch == epoch) return;
+
+			expectedEpoch = epoch;
+
+			if (!hasAnchor) return;
+
+			int idx = indices.get(anchorKey);
+
+			if (idx == ObjectIntMap.MISSING) throw new ConcurrentModificationException();
+
+			cursor = anchorAfter ? idx + 1 : idx;
+
+			if (lastRet >= 0) lastRet = idx;
+		}
+
+		@Override
+		public boolean hasNext() {
+			sync();
+
+			while (cursor < currIdx && entryKeys[cursor] == TOMBSTONE) cursor += 1;
+
+			return cursor < currIdx;
+		}
+
+		@Override
+		public Val next() {
+			if (!hasNext()) throw new NoSuchElementException();
+
+			lastRet = cursor++;
+
+			anchor(lastRet, true);
+
+			return valueAt(lastRet);
+		}
+
+		@Override
+		public boolean hasPrevious() {
+			sync();
+
+			while (cursor > 0 && entryKeys[cursor - 1] == TOMBSTONE) cursor -= 1;
+
+			return cursor > 0;
+		}
+
+		@Override
+		public Val previous() {
+			if (!hasPrevious()) throw new NoSuchElementException();
+
+			lastRet = --cursor;
+
+			anchor(lastRet, false);
+
+			return valueAt(lastRet);
+		}
+
+		@Override
+		public int nextIndex() {
+			sync();
+
+			return cursor;
+		}
+
+		@Override
+		public int previousIndex() {
+			sync();
+
+			return cursor - 1;
+		}
+
+		@Override
+		public void remove() {
+			sync();
+
+			if (lastRet < 0) throw new IllegalStateException();
+
+			int idx = lastRet;
+
+			// Move our anchor off the item being removed, so we survive compaction
+			int next = idx + 1;
+			while (next < currIdx && entryKeys[next] == TOMBSTONE) next += 1;
+
+			int prev = idx - 1;
+			while (prev >= 0 && entryKeys[prev] == TOMBSTONE) prev -= 1;
+
+			if (next < currIdx) {
+				anchor(next, false);
+
+				cursor = next;
+			} else if (prev >= 0) {
+				anchor(prev, true);
+
+				cursor = prev + 1;
+			} else {
+				hasAnchor = false;
+
+				cursor = 0;
+			}
+
+			lastRet = -1;
+
+			indices.remove(entryKeys[idx]);
+			removeAt(idx);
+
+			if (shouldCompact()) compact();
+		}
+
+		@Override
+		public void set(Val e) {
+			sync();
+
+			if (lastRet < 0) throw new IllegalStateException();
+
+			backing[lastRet] = e;
+		}
+
+		@Override
+		public void add(Val e) {
+			throw new UnsupportedOperationException("Can't add items without a key");
+		}
 	}
 }
@@ -0,0 +1,730 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ * A durable, append-only log of values with keys, like a {@link KeyedList}
+ * that lives on disk.
+ *
+ * Values are appended to a series of fixed-size segment files in a directory,
+ * which are memory-mapped, so appending a value is just a copy into memory.
+ * Nothing is guaranteed to be on disk until {@link KeyedLog#force()} is
+ * called; if several threads call it at once, one of them flushes everything
+ * written so far and the rest just wait for that to finish.
+ *
+ * An index from keys to where their values are is kept in memory. When a
+ * segment fills up, a footer listing its keys is written to the end of it, so
+ * that opening the log again only needs to read the footers and scan the last
+ * segment. Each record has a checksum, so a record that was only partly written
+ * before a crash is dropped when the log is opened again.
+ *
+ * @author Ben Culkin
+ *
+ * @param <Key> The type of keys for the log.
+ * @param <Val> The type of values in the log.
+ */
+public class KeyedLog<Key, Val> implements Iterable<Val>, Closeable {
+	/**
+	 * Converts things to and from the bytes stored in the log.
+	 *
+	 * @author Ben Culkin
+	 *
+	 * @param <T> The type being converted.
+	 */
+	public interface Codec<T> {
+		/**
+		 * Convert a thing to bytes.
+		 *
+		 * @param value The thing to convert.
+		 *
+		 * @return The bytes for the thing.
+		 */
+		byte[] encode(T value);
+
+		/**
+		 * Convert bytes back to a thing.
+		 *
+		 * @param bytes The bytes to convert.
+		 *
+		 * @return The thing the bytes stood for.
+		 */
+		T decode(byte[] bytes);
+	}
+
+	/**
+	 * Codec which stores strings as UTF-8.
+	 */
+	public static final Codec<String> UTF8 = new Codec<>() {
+		@Override
+		public byte[] encode(String value) {
+			return value.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String decode(byte[] bytes) {
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	};
+
+	/**
+	 * The size of segment files, if no other size is given.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final long MAGIC = 0x4B657965644C6F67L; // "KeyedLog"
+
+	/*
+	 * Each record is a header, then the key and value bytes. The header holds
+	 * the key length plus one (so that zero marks the end of the records), the
+	 * value length, and a CRC of the key and value.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	/*
+	 * The trailer at the very end of a full segment: where the footer starts, the
+	 * number of records, and the magic number. The footer holds the length,
+	 * bytes and offset of each key.
+	 */
+	private static final int TRAILER_SIZE = 16;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/* A single segment file. */
+	private static final class Segment {
+		final int              number;
+		final MappedByteBuffer buffer;
+
+		// Where the records end
+		int recordEnd;
+		// How much space the footer will need, for segments being written to
+		int footerSize;
+
+		boolean sealed;
+
+		// The keys and offsets of the records, for segments being written to
+		List<byte[]> keys;
+		int[]        offsets;
+
+		Segment(int number, MappedByteBuffer buffer) {
+			this.number = number;
+			this.buffer = buffer;
+		}
+	}
+
+	private final Path       directory;
+	private final int        segmentSize;
+	private final Codec<Key> keyCodec;
+	private final Codec<Val> valCodec;
+
+	private final List<Segment> segments = new ArrayList<>();
+
+	/* Key -> record number, and record number -> segment number & offset. */
+	private final ObjectIntMap indices = new ObjectIntMap();
+	private long[]             locations = new long[16];
+	private int                size;
+
+	// Records appended in total, and records known to be on disk
+	private long         appended;
+	private volatile long forced;
+
+	// The first segment that might have unforced writes
+	private int firstDirty;
+
+	private final Object forceLock = new Object();
+
+	private boolean closed;
+
+	private KeyedLog(Path directory, int segmentSize, Codec<Key> keyCodec, Codec<Val> valCodec) {
+		this.directory   = directory;
+		this.segmentSize = segmentSize;
+		this.keyCodec    = keyCodec;
+		this.valCodec    = valCodec;
+	}
+
+	/**
+	 * Open a log in a directory, creating it if it doesn't exist.
+	 *
+	 * @param <Key>     The type of keys for the log.
+	 * @param <Val>     The type of values in the log.
+	 *
+	 * @param directory The directory to keep the segment files in.
+	 * @param keyCodec  The codec for keys.
+	 * @param valCodec  The codec for values.
+	 *
+	 * @return The log stored in that directory.
+	 *
+	 * @throws IOException If something goes wrong reading the log.
+	 */
+	public static <Key, Val> KeyedLog<Key, Val> open(Path directory, Codec<Key> keyCodec,
+			Codec<Val> valCodec) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE, keyCodec, valCodec);
+	}
+
+	/**
+	 * Open a log in a directory, creating it if it doesn't exist.
+	 *
+	 * @param <Key>       The type of keys for the log.
+	 * @param <Val>       The type of values in the log.
+	 *
+	 * @param directory   The directory to keep the segment files in.
+	 * @param segmentSize The size of new segment files, in bytes.
+	 * @param keyCodec    The codec for keys.
+	 * @param valCodec    The codec for values.
+	 *
+	 * @return The log stored in that directory.
+	 *
+	 * @throws IOException If something goes wrong reading the log.
+	 */
+	public static <Key, Val> KeyedLog<Key, Val> open(Path directory, int segmentSize,
+			Codec<Key> keyCodec, Codec<Val> valCodec) throws IOException {
+		if (segmentSize < HEADER_SIZE + TRAILER_SIZE + 64) {
+			throw new IllegalArgumentException("Segment size " + segmentSize + " is too small");
+		}
+
+		Files.createDirectories(directory);
+
+		KeyedLog<Key, Val> log = new KeyedLog<>(directory, segmentSize, keyCodec, valCodec);
+
+		log.recover();
+
+		return log;
+	}
+
+	/**
+	 * Append a value to the log.
+	 *
+	 * If a value already exists with the given key, the new one will not be
+	 * added.
+	 *
+	 * @param key The key for the value.
+	 * @param val The value to append.
+	 *
+	 * @return Whether or not the value was added to the log.
+	 *
+	 * @throws IOException If a new segment file couldn't be created.
+	 */
+	public synchronized boolean add(Key key, Val val) throws IOException {
+		checkOpen();
+
+		if (indices.containsKey(key)) return false;
+
+		byte[] keyBytes = keyCodec.encode(key);
+		byte[] valBytes = valCodec.encode(val);
+
+		append(key, keyBytes, valBytes);
+
+		return true;
+	}
+
+	/**
+	 * Append several values to the log at once.
+	 *
+	 * Values whose keys are already in the log are skipped.
+	 *
+	 * @param entries The keys and values to append, in order.
+	 *
+	 * @return The number of values that were added.
+	 *
+	 * @throws IOException If a new segment file couldn't be created.
+	 */
+	public synchronized int addAll(Map<Key, Val> entries) throws IOException {
+		checkOpen();
+
+		int count = 0;
+
+		for (Map.Entry<Key, Val> entry : entries.entrySet()) {
+			if (indices.containsKey(entry.getKey())) continue;
+
+			append(entry.getKey(), keyCodec.encode(entry.getKey()), valCodec.encode(entry.getValue()));
+
+			count += 1;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Retrieve the value associated with the given key.
+	 *
+	 * @param key The key to look up.
+	 *
+	 * @return The value for the given key, or null if there isn't one.
+	 */
+	public synchronized Val get(Key key) {
+		checkOpen();
+
+		int record = indices.get(key);
+
+		if (record == ObjectIntMap.MISSING) return null;
+
+		long location = locations[record];
+
+		return readValue(segments.get((int) (location >>> 32)), (int) location);
+	}
+
+	/**
+	 * Check if this log contains a value for a given key.
+	 *
+	 * @param key The key to look up.
+	 *
+	 * @return Whether this log contains a value for the given key.
+	 */
+	public synchronized boolean containsKey(Key key) {
+		checkOpen();
+
+		return indices.containsKey(key);
+	}
+
+	/**
+	 * Get the number of values in this log.
+	 *
+	 * @return The number of values in this log.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Val> iterator() {
+		return new Itr(0, 0);
+	}
+
+	/**
+	 * Return an iterator that starts at the value for the given key, and reads
+	 * forward through the log.
+	 *
+	 * @param key The key to start at.
+	 *
+	 * @return An iterator starting at the given key, or null if the key isn't
+	 *         present.
+	 */
+	public synchronized Iterator<Val> iteratorFrom(Key key) {
+		checkOpen();
+
+		int record = indices.get(key);
+
+		if (record == ObjectIntMap.MISSING) return null;
+
+		long location = locations[record];
+
+		return new Itr((int) (location >>> 32), (int) location);
+	}
+
+	/**
+	 * Make sure everything appended so far is on disk.
+	 *
+	 * If other threads are also forcing the log, only one flush will happen for
+	 * all of them.
+	 */
+	public void force() {
+		long target;
+		int  lastSegment;
+
+		synchronized (this) {
+			checkOpen();
+
+			target      = appended;
+			lastSegment = segments.size() - 1;
+		}
+
+		if (forced >= target) return;
+
+		synchronized (forceLock) {
+			// Someone else may have flushed our writes while we waited
+			if (forced >= target) return;
+
+			int first;
+
+			synchronized (this) {
+				// Pick up anything appended while we waited, too
+				target      = appended;
+				lastSegment = segments.size() - 1;
+				first       = firstDirty;
+			}
+
+			for (int i = first; i <= lastSegment; i++) {
+				Segment segment;
+
+				synchronized (this) {
+					segment = segments.get(i);
+				}
+
+				segment.buffer.force();
+			}
+
+			synchronized (this) {
+				// Full segments won't be written to again
+				firstDirty = Math.max(firstDirty, lastSegment);
+			}
+
+			forced = target;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) return;
+
+		force();
+
+		synchronized (this) {
+			closed = true;
+
+			segments.clear();
+		}
+	}
+
+	/* Writing */
+
+	private void append(Key key, byte[] keyBytes, byte[] valBytes) throws IOException {
+		int recordSize = HEADER_SIZE + keyBytes.length + valBytes.length;
+		int footerSize = 8 + keyBytes.length;
+
+		if (recordSize + footerSize + TRAILER_SIZE > segmentSize) {
+			throw new IllegalArgumentException(String.format(
+					"Record of %d bytes doesn't fit in a segment of %d bytes", recordSize, segmentSize));
+		}
+
+		Segment segment = segments.get(segments.size() - 1);
+
+		/*
+		 * The last segment can already be sealed if opening a new one failed, or
+		 * if we crashed between the two; either way, start a new one.
+		 */
+		if (segment.sealed || segment.recordEnd + recordSize + segment.footerSize + footerSize
+				+ TRAILER_SIZE > segment.buffer.capacity()) {
+			seal(segment);
+
+			segment = newSegment(segment.number + 1);
+		}
+
+		int offset = segment.recordEnd;
+
+		CRC32 crc = new CRC32();
+		crc.update(keyBytes);
+		crc.update(valBytes);
+
+		// Write the header last, so a partial record never looks complete
+		segment.buffer.put(offset + HEADER_SIZE, keyBytes);
+		segment.buffer.put(offset + HEADER_SIZE + keyBytes.length, valBytes);
+		segment.buffer.putInt(offset + 4, valBytes.length);
+		segment.buffer.putInt(offset + 8, (int) crc.getValue());
+		segment.buffer.putInt(offset, keyBytes.length + 1);
+
+		segment.recordEnd   = offset + recordSize;
+		segment.footerSize += footerSize;
+
+		trackKey(segment, keyBytes, offset);
+
+		index(key, segment.number, offset);
+
+		appended += 1;
+	}
+
+	private void trackKey(Segment segment, byte[] keyBytes, int offset) {
+		int count = segment.keys.size();
+
+		if (count == segment.offsets.length) {
+			segment.offsets = Arrays.copyOf(segment.offsets, count * 2);
+		}
+
+		segment.keys.add(keyBytes);
+		segment.offsets[count] = offset;
+	}
+
+	private void index(Key key, int segment, int offset) {
+		if (indices.containsKey(key)) return;
+
+		if (size == locations.length) locations = Arrays.copyOf(locations, size * 2);
+
+		locations[size] = ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+
+		indices.put(key, size++);
+	}
+
+	/*
+	 * Write the footer for a segment, so it can be recovered quickly. The records
+	 * and footer are forced before the trailer is written, so a trailer on disk
+	 * always means the records it points at are there too.
+	 */
+	private static void seal(Segment segment) {
+		if (segment.sealed) return;
+
+		MappedByteBuffer buffer = segment.buffer;
+
+		int pos         = segment.recordEnd;
+		int footerStart = pos;
+
+		for (int i = 0; i < segment.keys.size(); i++) {
+			byte[] key = segment.keys.get(i);
+
+			buffer.putInt(pos, key.length);
+			buffer.put(pos + 4, key);
+			buffer.putInt(pos + 4 + key.length, segment.offsets[i]);
+
+			pos += 8 + key.length;
+		}
+
+		buffer.force();
+
+		int trailer = buffer.capacity() - TRAILER_SIZE;
+
+		buffer.putInt(trailer, footerStart);
+		buffer.putInt(trailer + 4, segment.keys.size());
+		buffer.putLong(trailer + 8, MAGIC);
+
+		segment.sealed = true;
+		segment.keys   = null;
+	}
+
+	private Segment newSegment(int number) throws IOException {
+		Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+
+		Segment segment = new Segment(number, map(file, segmentSize));
+
+		segment.keys    = new ArrayList<>();
+		segment.offsets = new int[16];
+
+		segments.add(segment);
+
+		return segment;
+	}
+
+	private static MappedByteBuffer map(Path file, long size) throws IOException {
+		try (FileChannel chan = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return chan.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/* Reading */
+
+	private void recover() throws IOException {
+		List<Path> files;
+
+		try (Stream<Path> listing = Files.list(directory)) {
+			files = listing
+				.filter((path) -> {
+					String name = path.getFileName().toString();
+
+					return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+				})
+				.sorted()
+				.collect(Collectors.toList());
+		}
+
+		if (files.isEmpty()) {
+			newSegment(0);
+
+			return;
+		}
+
+		for (int i = 0; i < files.size(); i++) {
+			Path file = files.get(i);
+
+			String name = file.getFileName().toString();
+			int number = Integer.parseInt(
+					name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+
+			if (number != i) throw new IOException("Segment " + i + " is missing from " + directory);
+
+			Segment segment = new Segment(number, map(file, Files.size(file)));
+
+			segments.add(segment);
+
+			if (!readFooter(segment)) {
+				scan(segment);
+
+				// Only the last segment should be open for writing
+				if (i != files.size() - 1) seal(segment);
+			}
+		}
+
+		// We may have crashed after sealing the last segment but before opening the next
+		if (segments.get(segments.size() - 1).sealed) newSegment(segments.size());
+
+		firstDirty = segments.size() - 1;
+	}
+
+	/*
+	 * Recover a sealed segment from its footer; returns false if it has none, or
+	 * if the footer doesn't make sense, in which case the segment is scanned
+	 * instead. The record checksums aren't checked here, since that would mean
+	 * reading the whole segment; sealing forces the records before writing the
+	 * trailer, which is what makes the footer safe to trust.
+	 */
+	private boolean readFooter(Segment segment) {
+		ByteBuffer buffer = segment.buffer;
+
+		int trailer = buffer.capacity() - TRAILER_SIZE;
+
+		if (trailer < 0 || buffer.getLong(trailer + 8) != MAGIC) return false;
+
+		int footerStart = buffer.getInt(trailer);
+		int count       = buffer.getInt(trailer + 4);
+
+		if (footerStart < 0 || footerStart > trailer || count < 0) return false;
+
+		List<byte[]> keys    = new ArrayList<>();
+		int[]        offsets = new int[count];
+
+		int pos = footerStart;
+
+		for (int i = 0; i < count; i++) {
+			if (pos + 8 > trailer) return false;
+
+			int keyLen = buffer.getInt(pos);
+			if (keyLen < 0 || pos + 8 + keyLen > trailer) return false;
+
+			byte[] key = new byte[keyLen];
+			buffer.get(pos + 4, key);
+
+			int offset = buffer.getInt(pos + 4 + keyLen);
+
+			// The record must be before the footer, and have a header that agrees
+			if (offset < 0 || offset + HEADER_SIZE + keyLen > footerStart
+					|| buffer.getInt(offset) != keyLen + 1) {
+				return false;
+			}
+
+			keys.add(key);
+			offsets[i] = offset;
+
+			pos += 8 + keyLen;
+		}
+
+		segment.recordEnd = footerStart;
+		segment.sealed    = true;
+
+		for (int i = 0; i < count; i++) {
+			index(keyCodec.decode(keys.get(i)), segment.number, offsets[i]);
+		}
+
+		return true;
+	}
+
+	// Recover an unsealed segment by reading its records.
+	private void scan(Segment segment) {
+		ByteBuffer buffer = segment.buffer;
+
+		segment.keys    = new ArrayList<>();
+		segment.offsets = new int[16];
+
+		int limit = buffer.capacity() - TRAILER_SIZE;
+		int pos   = 0;
+
+		while (pos + HEADER_SIZE <= limit) {
+			int keyLen = buffer.getInt(pos) - 1;
+			int valLen = buffer.getInt(pos + 4);
+
+			if (keyLen < 0 || valLen < 0 || (long) pos + HEADER_SIZE + keyLen + valLen > limit) break;
+
+			byte[] key = new byte[keyLen];
+			byte[] val = new byte[valLen];
+
+			buffer.get(pos + HEADER_SIZE, key);
+			buffer.get(pos + HEADER_SIZE + keyLen, val);
+
+			CRC32 crc = new CRC32();
+			crc.update(key);
+			crc.update(val);
+
+			// A torn write; drop it and anything after it
+			if ((int) crc.getValue() != buffer.getInt(pos + 8)) break;
+
+			trackKey(segment, key, pos);
+			index(keyCodec.decode(key), segment.number, pos);
+
+			segment.footerSize += 8 + keyLen;
+
+			pos += HEADER_SIZE + keyLen + valLen;
+		}
+
+		// Clear out any partial record, so it can't be mistaken for a real one
+		for (int i = pos; i < Math.min(pos + HEADER_SIZE, limit); i++) buffer.put(i, (byte) 0);
+
+		segment.recordEnd = pos;
+	}
+
+	private Val readValue(Segment segment, int offset) {
+		ByteBuffer buffer = segment.buffer;
+
+		int keyLen = buffer.getInt(offset) - 1;
+
+		byte[] val = new byte[buffer.getInt(offset + 4)];
+
+		buffer.get(offset + HEADER_SIZE + keyLen, val);
+
+		return valCodec.decode(val);
+	}
+
+	private void checkOpen() {
+		if (closed) throw new IllegalStateException("Log is closed");
+	}
+
+	/* Reads records in order, starting from a given place. */
+	private final class Itr implements Iterator<Val> {
+		private int segment;
+		private int offset;
+
+		Itr(int segment, int offset) {
+			this.segment = segment;
+			this.offset  = offset;
+		}
+
+		@Override
+		public boolean hasNext() {
+			synchronized (KeyedLog.this) {
+				checkOpen();
+
+				// Move on to the next segment if we're done with this one
+				while (offset >= segments.get(segment).recordEnd && segment < segments.size() - 1) {
+					segment += 1;
+					offset   = 0;
+				}
+
+				return offset < segments.get(segment).recordEnd;
+			}
+		}
+
+		@Override
+		public Val next() {
+			synchronized (KeyedLog.this) {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				Segment current = segments.get(segment);
+
+				Val val = readValue(current, offset);
+
+				offset += HEADER_SIZE + (current.buffer.getInt(offset) - 1) + current.buffer.getInt(offset + 4);
+
+				return val;
+			}
+		}
+	}
+}
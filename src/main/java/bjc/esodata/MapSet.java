@@ -18,14 +18,25 @@
 package bjc.esodata;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * A string-keyed set of maps.
  *
+ * An indexed set of maps, created with {@link MapSet#indexed()}, also keeps
+ * track of which maps each key is in, so that lookups across all of the maps
+ * don't need to check every map. To keep the index up to date, changes to the
+ * maps in an indexed set need to go through the maps returned by
+ * {@link MapSet#getMap(String)}, not the maps originally passed in.
+ *
  * @author bjculkin
  *
  * @param <KeyType>
@@ -38,6 +49,9 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 
 	private Map<KeyType, ValueType> currentMap = null;
 
+	/* The names of the maps each key is in, or null if we aren't indexed. */
+	private Map<KeyType, Set<String>> keyIndex;
+
 	/**
 	 * Create a new set of maps.
 	 */
@@ -45,6 +59,25 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 		backing = new HashMap<>();
 	}
 
+	/**
+	 * Create a new set of maps which keeps an index of which maps contain each
+	 * key.
+	 *
+	 * @param <KeyType>
+	 *                    The key type of the maps.
+	 * @param <ValueType>
+	 *                    The value type of the maps.
+	 *
+	 * @return A new indexed set of maps.
+	 */
+	public static <KeyType, ValueType> MapSet<KeyType, ValueType> indexed() {
+		MapSet<KeyType, ValueType> set = new MapSet<>();
+
+		set.keyIndex = new HashMap<>();
+
+		return set;
+	}
+
 	/**
 	 * Create a new set of maps, with the specified set of maps.
 	 *
@@ -58,13 +91,49 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 	/**
 	 * Add a keyed map.
 	 *
+	 * If this replaces the current map, the new map becomes the current map.
+	 *
 	 * @param key
 	 *            The key for the map.
 	 * @param map
 	 *            The map itself.
 	 */
 	public void addMap(String key, Map<KeyType, ValueType> map) {
-		backing.put(key, map);
+		Map<KeyType, ValueType> old = backing.get(key);
+
+		// Unindex the old map first, so keys it shares with the new one survive
+		if (keyIndex != null && old != null) {
+			for (KeyType mapKey : old.keySet()) unindex(mapKey, key);
+		}
+
+		Map<KeyType, ValueType> wrapped = wrap(key, map);
+
+		backing.put(key, wrapped);
+
+		if (old != null && old == currentMap) currentMap = wrapped;
+	}
+
+	/**
+	 * Remove a keyed map.
+	 *
+	 * If the map was the current map, there will no longer be a current map.
+	 *
+	 * @param key
+	 *            The key for the map.
+	 * @return The map that was attached to the key, or null if there wasn't one.
+	 */
+	public Map<KeyType, ValueType> removeMap(String key) {
+		Map<KeyType, ValueType> old = backing.remove(key);
+
+		if (old == null) return null;
+
+		if (keyIndex != null) {
+			for (KeyType mapKey : old.keySet()) unindex(mapKey, key);
+		}
+
+		if (old == currentMap) currentMap = null;
+
+		return old;
 	}
 
 	/**
@@ -74,6 +143,71 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 		currentMap = null;
 
 		backing.clear();
+
+		if (keyIndex != null) keyIndex.clear();
+	}
+
+	/**
+	 * Get the names of the maps which contain a key.
+	 *
+	 * For an indexed set, this takes constant time; otherwise, every map is
+	 * checked.
+	 *
+	 * @param key
+	 *            The key to look for.
+	 * @return The names of the maps which contain the key.
+	 */
+	public Set<String> whichMaps(KeyType key) {
+		if (keyIndex != null) {
+			Set<String> names = keyIndex.get(key);
+
+			return names == null ? Collections.emptySet() : Collections.unmodifiableSet(names);
+		}
+
+		Set<String> names = new HashSet<>();
+
+		backing.forEach((name, map) -> {
+			if (map.containsKey(key)) names.add(name);
+		});
+
+		return names;
+	}
+
+	/**
+	 * Get the value of a key from the first map which contains it.
+	 *
+	 * @param key
+	 *                      The key to look for.
+	 * @param priorityOrder
+	 *                      The names of the maps to check, in the order to check
+	 *                      them.
+	 * @return The value of the key in the first map that has it, or null if none
+	 *         of them do.
+	 */
+	public ValueType getFromAny(KeyType key, List<String> priorityOrder) {
+		if (keyIndex != null) {
+			Set<String> names = keyIndex.get(key);
+
+			if (names == null) return null;
+
+			for (String name : priorityOrder) {
+				if (!names.contains(name)) continue;
+
+				Map<KeyType, ValueType> map = backing.get(name);
+
+				if (map != null && map.containsKey(key)) return map.get(key);
+			}
+
+			return null;
+		}
+
+		for (String name : priorityOrder) {
+			Map<KeyType, ValueType> map = backing.get(name);
+
+			if (map != null && map.containsKey(key)) return map.get(key);
+		}
+
+		return null;
 	}
 
 	/**
@@ -101,28 +235,43 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 	/**
 	 * Get all of the backing entries.
 	 *
+	 * For an indexed set, this view is read-only, so that the index stays up to
+	 * date; use {@link #removeMap(String)} to remove maps instead.
+	 *
 	 * @return The backing entries.
 	 */
 	public Set<Map.Entry<String, Map<KeyType, ValueType>>> getMapEntries() {
-		return backing.entrySet();
+		if (keyIndex == null) return backing.entrySet();
+
+		return Collections.unmodifiableMap(backing).entrySet();
 	}
 
 	/**
 	 * Get all of the keys.
 	 *
+	 * For an indexed set, this view is read-only, so that the index stays up to
+	 * date; use {@link #removeMap(String)} to remove maps instead.
+	 *
 	 * @return The keys currently in use.
 	 */
 	public Set<String> getMapKeys() {
-		return backing.keySet();
+		if (keyIndex == null) return backing.keySet();
+
+		return Collections.unmodifiableSet(backing.keySet());
 	}
 
 	/**
 	 * Get all of the keyed maps.
 	 *
+	 * For an indexed set, this view is read-only, so that the index stays up to
+	 * date; use {@link #removeMap(String)} to remove maps instead.
+	 *
 	 * @return The keyed maps.
 	 */
 	public Collection<Map<KeyType, ValueType>> getMapValues() {
-		return backing.values();
+		if (keyIndex == null) return backing.values();
+
+		return Collections.unmodifiableCollection(backing.values());
 	}
 
 	/**
@@ -133,9 +282,11 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 	 * @return False if there is no map attached to the key, true otherwise.
 	 */
 	public boolean setMap(String key) {
-		if (!backing.containsKey(key)) return false;
+		Map<KeyType, ValueType> map = backing.get(key);
+
+		if (map == null) return false;
 
-		currentMap = backing.get(key);
+		currentMap = map;
 
 		return true;
 	}
@@ -148,15 +299,7 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 	 *            The key to use as the current map.
 	 */
 	public void setCreateMap(String key) {
-		if (!backing.containsKey(key)) {
-			currentMap = new HashMap<>();
-
-			backing.put(key, currentMap);
-
-			return;
-		}
-
-		currentMap = backing.get(key);
+		currentMap = backing.computeIfAbsent(key, (name) -> wrap(name, new HashMap<>()));
 	}
 
 	/**
@@ -168,15 +311,7 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 	 *            The map to bind to the key if it isn't present.
 	 */
 	public void setPutMap(String key, Map<KeyType, ValueType> map) {
-		if (!backing.containsKey(key)) {
-			currentMap = map;
-
-			backing.put(key, map);
-
-			return;
-		}
-
-		currentMap = backing.get(key);
+		currentMap = backing.computeIfAbsent(key, (name) -> wrap(name, map));
 	}
 
 	@Override
@@ -192,4 +327,118 @@ public class MapSet<KeyType, ValueType> extends AbstractMap<KeyType, ValueType>
 
 		return currentMap.put(key, value);
 	}
+
+	/* Wrap a map so that changes to it update the index. */
+	private Map<KeyType, ValueType> wrap(String name, Map<KeyType, ValueType> map) {
+		if (keyIndex == null) return map;
+
+		for (KeyType key : map.keySet()) index(key, name);
+
+		return new IndexedMap(name, map);
+	}
+
+	private void index(KeyType key, String name) {
+		keyIndex.computeIfAbsent(key, (k) -> new HashSet<>()).add(name);
+	}
+
+	private void unindex(Object key, String name) {
+		Set<String> names = keyIndex.get(key);
+
+		if (names == null) return;
+
+		names.remove(name);
+
+		if (names.isEmpty()) keyIndex.remove(key);
+	}
+
+	/* A map in an indexed set, which keeps the index up to date. */
+	private final class IndexedMap extends AbstractMap<KeyType, ValueType> {
+		private final String                  name;
+		private final Map<KeyType, ValueType> delegate;
+
+		IndexedMap(String name, Map<KeyType, ValueType> delegate) {
+			this.name     = name;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public ValueType get(Object key) {
+			return delegate.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return delegate.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return delegate.size();
+		}
+
+		@Override
+		public ValueType put(KeyType key, ValueType value) {
+			if (!delegate.containsKey(key)) index(key, name);
+
+			return delegate.put(key, value);
+		}
+
+		@Override
+		public ValueType remove(Object key) {
+			if (!delegate.containsKey(key)) return null;
+
+			unindex(key, name);
+
+			return delegate.remove(key);
+		}
+
+		@Override
+		public void clear() {
+			for (KeyType key : delegate.keySet()) unindex(key, name);
+
+			delegate.clear();
+		}
+
+		@Override
+		public Set<Map.Entry<KeyType, ValueType>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Map.Entry<KeyType, ValueType>> iterator() {
+					Iterator<Map.Entry<KeyType, ValueType>> itr = delegate.entrySet().iterator();
+
+					return new Iterator<>() {
+						private Map.Entry<KeyType, ValueType> last;
+
+						@Override
+						public boolean hasNext() {
+							return itr.hasNext();
+						}
+
+						@Override
+						public Map.Entry<KeyType, ValueType> next() {
+							last = itr.next();
+
+							return last;
+						}
+
+						@Override
+						public void remove() {
+							if (last == null) throw new IllegalStateException();
+
+							unindex(last.getKey(), name);
+
+							itr.remove();
+
+							last = null;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return delegate.size();
+				}
+			};
+		}
+	}
 }
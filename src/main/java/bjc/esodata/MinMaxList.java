@@ -22,6 +22,9 @@ import java.util.*;
 // @FIXME Nov 15th, 2020 Ben Culkin :RecalcMinMax
 // Is there some sort of way to avoid having to recalculate these elements when
 // that element is removed?
+//
+// SegmentMinMaxList does this, at the cost of extra memory and slower inserts
+// into the middle of the list.
 /**
  * A list that automatically tracks the minimum & maximum element of a list.
  * 
@@ -20,7 +20,9 @@ package bjc.esodata;
 import static bjc.functypes.Combinators.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 import bjc.data.*;
 
@@ -37,6 +39,12 @@ import bjc.data.*;
  */
 public class NestList<Element> extends AbstractList<Either<Element, NestList<Element>>>
 {
+	/**
+	 * The deep size at or below which the parallel operations will work
+	 * sequentially, if no other threshold is given.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+	
 	private final List<Either<Element, NestList<Element>>> backing;
 
 	/**
@@ -55,6 +63,14 @@ public class NestList<Element> extends AbstractList<Either<Element, NestList<Ele
 		backing = new ArrayList<>(cap);
 	}
 	
+	/*
+	 * Create a nesting list with a specific backing list, such as one which
+	 * fills itself in lazily.
+	 */
+	NestList(List<Either<Element, NestList<Element>>> backing) {
+		this.backing = backing;
+	}
+	
 	/**
 	 * Add an element to this list.
 	 * 
@@ -280,16 +296,14 @@ public class NestList<Element> extends AbstractList<Either<Element, NestList<Ele
 			BiFunction<Output, Element, Output> elementFolder,
 			BiFunction<Output, NestList<Element>, Output> listFolder)
 	{
-		Holder<Output> out = Holder.of(initial);
+		Output out = initial;
 		for (Either<Element, NestList<Element>> item : backing)
 		{
-			out.transform((state) -> item.extract(
-					(ele) -> elementFolder.apply(state, ele),
-					(lst) -> listFolder.apply(state, lst))
-			);
+			if (item.isLeft()) out = elementFolder.apply(out, item.forceLeft());
+			else               out = listFolder.apply(out, item.forceRight());
 		}
 		
-		return out.getValue();
+		return out;
 	}
 	
 	/**
@@ -312,6 +326,122 @@ public class NestList<Element> extends AbstractList<Either<Element, NestList<Ele
 				(state, lst) -> lst.deepReduce(state, elementFolder));
 	}
 	
+	/**
+	 * Get a spliterator over a flattened version of this list.
+	 * 
+	 * The spliterator splits at sublist boundaries, balancing the pieces by how
+	 * many elements they hold, and won't split pieces which are small enough.
+	 * 
+	 * @param threshold The deep size at or below which pieces won't be split.
+	 * 
+	 * @return A spliterator over a flattened version of this list.
+	 */
+	public Spliterator<Element> deepSpliterator(int threshold) {
+		return new NestSpliterator<>(this, threshold);
+	}
+	
+	/**
+	 * Perform a recursive mapping over this list, in parallel.
+	 * 
+	 * @param <NewElement> The new element type.
+	 * 
+	 * @param mapper The element mapper. Must be safe to call from multiple
+	 *               threads.
+	 * 
+	 * @return A new list with the same structure, but transformed elements.
+	 */
+	public <NewElement> NestList<NewElement> parallelDeepMap(
+			Function<Element, NewElement> mapper)
+	{
+		return parallelDeepMap(mapper, DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Perform a recursive mapping over this list, in parallel.
+	 * 
+	 * @param <NewElement> The new element type.
+	 * 
+	 * @param mapper The element mapper. Must be safe to call from multiple
+	 *               threads.
+	 * @param threshold The deep size at or below which parts of the list will be
+	 *                  mapped sequentially.
+	 * 
+	 * @return A new list with the same structure, but transformed elements.
+	 */
+	public <NewElement> NestList<NewElement> parallelDeepMap(
+			Function<Element, NewElement> mapper, int threshold)
+	{
+		return ForkJoinPool.commonPool().invoke(new DeepMapTask<>(this, mapper, threshold,
+				NestSpliterator.weigh(this)));
+	}
+	
+	/**
+	 * Perform a recursive reduction over this list, in parallel.
+	 * 
+	 * @param <Output> The type of the output value.
+	 * 
+	 * @param identity The identity value for the combiner.
+	 * @param elementFolder The function to fold elements with.
+	 * @param combiner The function to combine partial results with. Must be
+	 *                 associative, and compatible with the folder.
+	 * 
+	 * @return The result of recursively reducing the list.
+	 */
+	public <Output> Output parallelDeepReduce(
+			Output identity,
+			BiFunction<Output, Element, Output> elementFolder,
+			BinaryOperator<Output> combiner)
+	{
+		return parallelDeepReduce(identity, elementFolder, combiner,
+				DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Perform a recursive reduction over this list, in parallel.
+	 * 
+	 * @param <Output> The type of the output value.
+	 * 
+	 * @param identity The identity value for the combiner.
+	 * @param elementFolder The function to fold elements with.
+	 * @param combiner The function to combine partial results with. Must be
+	 *                 associative, and compatible with the folder.
+	 * @param threshold The deep size at or below which parts of the list will be
+	 *                  reduced sequentially.
+	 * 
+	 * @return The result of recursively reducing the list.
+	 */
+	public <Output> Output parallelDeepReduce(
+			Output identity,
+			BiFunction<Output, Element, Output> elementFolder,
+			BinaryOperator<Output> combiner,
+			int threshold)
+	{
+		return StreamSupport.stream(deepSpliterator(threshold), true)
+				.reduce(identity, elementFolder, combiner);
+	}
+	
+	/**
+	 * Flatten this list recursively, in parallel.
+	 * 
+	 * @return A flattened form of this list.
+	 */
+	public List<Element> parallelDeepFlatten() {
+		return parallelDeepFlatten(DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Flatten this list recursively, in parallel.
+	 * 
+	 * @param threshold The deep size at or below which parts of the list will be
+	 *                  flattened sequentially.
+	 * 
+	 * @return A flattened form of this list.
+	 */
+	public List<Element> parallelDeepFlatten(int threshold) {
+		return StreamSupport.stream(deepSpliterator(threshold), true)
+				.collect(Collectors.toList());
+	}
+	
 	/**
 	 * Conditionally expand elements of this list into the provided list.
 	 * 
@@ -402,4 +532,91 @@ public class NestList<Element> extends AbstractList<Either<Element, NestList<Ele
 		
 		return Objects.equals(backing, other.backing);
 	}
+
+	/*
+	 * Maps a range of the items of a list, splitting it in half until the pieces
+	 * are small enough to map sequentially. The weights of the whole list are
+	 * worked out once, and handed down to the tasks for its sublists.
+	 */
+	private static final class DeepMapTask<Element, NewElement>
+			extends RecursiveTask<NestList<NewElement>>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final NestList<Element> source;
+		private final Function<Element, NewElement> mapper;
+		private final int threshold;
+		
+		private final NestSpliterator.Weights weights;
+		private final int lo;
+		private final int hi;
+		
+		// Where to put the mapped items, for tasks over part of a list
+		private final Either<NewElement, NestList<NewElement>>[] output;
+		
+		DeepMapTask(NestList<Element> source, Function<Element, NewElement> mapper,
+				int threshold, NestSpliterator.Weights weights)
+		{
+			this(source, mapper, threshold, weights, 0, source.size(), null);
+		}
+		
+		private DeepMapTask(NestList<Element> source, 
+				Function<Element, NewElement> mapper, int threshold,
+				NestSpliterator.Weights weights, int lo, int hi,
+				Either<NewElement, NestList<NewElement>>[] output)
+		{
+			this.source    = source;
+			this.mapper    = mapper;
+			this.threshold = threshold;
+			this.weights   = weights;
+			this.lo        = lo;
+			this.hi        = hi;
+			this.output    = output;
+		}
+		
+		@Override
+		protected NestList<NewElement> compute() {
+			if (output == null) {
+				// Mapping a whole list
+				if (weights.between(0, hi) <= threshold) return source.deepMap(mapper);
+				
+				@SuppressWarnings({"unchecked", "rawtypes"})
+				Either<NewElement, NestList<NewElement>>[] items = new Either[hi];
+				
+				new DeepMapTask<>(source, mapper, threshold, weights, 0, hi, items)
+					.compute();
+				
+				NestList<NewElement> result = new NestList<>(items.length);
+				for (Either<NewElement, NestList<NewElement>> item : items) {
+					result.add(item);
+				}
+				
+				return result;
+			}
+			
+			if (hi - lo == 1) {
+				// Sublists big enough to split get their own task
+				Either<Element, NestList<Element>> item = source.get(lo);
+				
+				if (!item.isLeft() && weights.between(lo, hi) > threshold) {
+					output[lo] = Either.right(new DeepMapTask<>(
+							item.forceRight(), mapper, threshold, weights.children[lo]).compute());
+				} else {
+					output[lo] = item.map(mapper, (lst) -> lst.deepMap(mapper));
+				}
+			} else if (weights.between(lo, hi) <= threshold) {
+				for (int i = lo; i < hi; i++) {
+					output[i] = source.get(i).map(mapper, (lst) -> lst.deepMap(mapper));
+				}
+			} else {
+				int mid = NestSpliterator.midpoint(weights, lo, hi);
+				
+				invokeAll(
+						new DeepMapTask<>(source, mapper, threshold, weights, lo, mid, output),
+						new DeepMapTask<>(source, mapper, threshold, weights, mid, hi, output));
+			}
+			
+			return null;
+		}
+	}
 }
@@ -0,0 +1,521 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.function.*;
+
+import bjc.data.*;
+
+/**
+ * A streaming parser for nested, s-expression style text.
+ *
+ * The input is a sequence of items, each of which is either an element or a
+ * parenthesized list of items. Elements are runs of characters other than
+ * whitespace, parentheses, double-quotes and semicolons; or double-quoted
+ * strings, where a backslash escapes the next character. A semicolon starts a
+ * comment which runs to the end of the line.
+ *
+ * The parser works as a pull parser: {@link NestListReader#next()} reads one
+ * token at a time, and gives back {@link #ELEMENT}, {@link #START},
+ * {@link #END} or {@link #DONE}. Only a fixed-size buffer of the input is kept
+ * in memory. On top of that, individual top-level items can be built into
+ * {@link NestList}s or skipped over without building anything.
+ *
+ * For input that can be randomly accessed, {@link NestListReader#lazy} builds a
+ * list whose sublists aren't parsed until they are first used.
+ *
+ * @author Ben Culkin
+ *
+ * @param <Element> The type of element in the lists being read.
+ */
+public class NestListReader<Element> implements Closeable {
+	/**
+	 * The reader found an element.
+	 */
+	public static final int ELEMENT = FlatNestList.ELEMENT;
+	/**
+	 * The reader found the start of a list.
+	 */
+	public static final int START   = FlatNestList.START;
+	/**
+	 * The reader found the end of a list.
+	 */
+	public static final int END     = FlatNestList.END;
+	/**
+	 * The reader has reached the end of its input.
+	 */
+	public static final int DONE    = FlatNestList.DONE;
+
+	private final Function<String, Element> converter;
+
+	// Where input comes from; either a reader, or a range of a sequence
+	private final Reader       input;
+	private final CharSequence text;
+	private int                textPos;
+	private final int          textEnd;
+
+	private final char[] buf = new char[8192];
+	private int          pos;
+	private int          limit;
+	// How many characters came before the start of the buffer
+	private long         offset;
+
+	private final StringBuilder atom = new StringBuilder();
+
+	private int     depth;
+	private boolean atEOF;
+
+	/**
+	 * Create a new reader for nested lists.
+	 *
+	 * @param input     The source of the text to parse.
+	 * @param converter The function to turn element text into elements.
+	 */
+	public NestListReader(Reader input, Function<String, Element> converter) {
+		this.input     = input;
+		this.converter = converter;
+
+		this.text    = null;
+		this.textEnd = 0;
+	}
+
+	/**
+	 * Create a new reader for nested lists.
+	 *
+	 * @param input     The source of the bytes to parse.
+	 * @param charset   The character set the bytes are encoded in.
+	 * @param converter The function to turn element text into elements.
+	 */
+	public NestListReader(ReadableByteChannel input, Charset charset,
+			Function<String, Element> converter) {
+		this(Channels.newReader(input, charset.newDecoder(), -1), converter);
+	}
+
+	private NestListReader(CharSequence text, int start, int end,
+			Function<String, Element> converter) {
+		this.text      = text;
+		this.textPos   = start;
+		this.textEnd   = end;
+		this.converter = converter;
+
+		this.input  = null;
+		this.offset = start;
+	}
+
+	/**
+	 * Create a new reader for nested lists of strings.
+	 *
+	 * @param input The source of the text to parse.
+	 *
+	 * @return A reader for the text.
+	 */
+	public static NestListReader<String> of(Reader input) {
+		return new NestListReader<>(input, Function.identity());
+	}
+
+	/**
+	 * Read the next token from the input.
+	 *
+	 * @return The kind of token that was read.
+	 *
+	 * @throws IOException If something goes wrong reading the input, or if the
+	 *                     input is malformed.
+	 */
+	public int next() throws IOException {
+		if (!skipSpace()) {
+			if (depth > 0) throw malformed("Missing ')' at end of input");
+
+			return DONE;
+		}
+
+		char c = buf[pos];
+
+		if (c == '(') {
+			pos   += 1;
+			depth += 1;
+
+			return START;
+		} else if (c == ')') {
+			if (depth == 0) throw malformed("Unbalanced ')'");
+
+			pos   += 1;
+			depth -= 1;
+
+			return END;
+		} else if (c == '"') {
+			pos += 1;
+
+			readQuoted();
+		} else {
+			readBare();
+		}
+
+		return ELEMENT;
+	}
+
+	/**
+	 * Get the element that was just read.
+	 *
+	 * @return The element that was just read.
+	 */
+	public Element element() {
+		return converter.apply(atom.toString());
+	}
+
+	/**
+	 * Get how many lists the reader is currently inside of.
+	 *
+	 * @return The current nesting depth.
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Get how far into the input the reader is.
+	 *
+	 * @return The number of characters the reader has consumed.
+	 */
+	public long position() {
+		return offset + pos;
+	}
+
+	/**
+	 * Check if there are any more top-level items.
+	 *
+	 * @return Whether or not there are any top-level items left.
+	 *
+	 * @throws IOException           If something goes wrong reading the input.
+	 * @throws IllegalStateException If the reader is in the middle of a list.
+	 */
+	public boolean hasNextItem() throws IOException {
+		checkTopLevel();
+
+		return skipSpace();
+	}
+
+	/**
+	 * Read the next top-level item.
+	 *
+	 * @return The next top-level item.
+	 *
+	 * @throws IOException            If something goes wrong reading the
+	 *                                input, or if the input is malformed.
+	 * @throws IllegalStateException  If the reader is in the middle of a list.
+	 * @throws NoSuchElementException If there are no items left.
+	 */
+	public Either<Element, NestList<Element>> nextItem() throws IOException {
+		checkTopLevel();
+
+		int event = next();
+
+		if (event == DONE)    throw new NoSuchElementException("No items left");
+		if (event == ELEMENT) return Either.left(element());
+
+		return Either.right(readList());
+	}
+
+	/**
+	 * Skip over the next top-level item, without building anything.
+	 *
+	 * @return Whether or not there was an item to skip.
+	 *
+	 * @throws IOException           If something goes wrong reading the input,
+	 *                               or if the input is malformed.
+	 * @throws IllegalStateException If the reader is in the middle of a list.
+	 */
+	public boolean skipItem() throws IOException {
+		checkTopLevel();
+
+		int event = next();
+
+		if (event == DONE)  return false;
+		if (event == START) skipList();
+
+		return true;
+	}
+
+	/**
+	 * Read all of the remaining top-level items into a list.
+	 *
+	 * @return A list of the remaining items.
+	 *
+	 * @throws IOException           If something goes wrong reading the input,
+	 *                               or if the input is malformed.
+	 * @throws IllegalStateException If the reader is in the middle of a list.
+	 */
+	public NestList<Element> readAll() throws IOException {
+		NestList<Element> items = new NestList<>();
+
+		while (hasNextItem()) items.add(nextItem());
+
+		return items;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (input != null) input.close();
+	}
+
+	/**
+	 * Create a list which parses its sublists the first time they are used.
+	 *
+	 * Parsing the top level of the list skips over its sublists, remembering
+	 * where they are in the text. This avoids building parts of the list which
+	 * are never looked at, at the cost of keeping the text around.
+	 *
+	 * Since errors in the text won't be found until the list is used, they are
+	 * thrown as {@link UncheckedIOException}s when that happens.
+	 *
+	 * @param <Element> The type of element in the list.
+	 *
+	 * @param text      The text to parse.
+	 * @param converter The function to turn element text into elements.
+	 *
+	 * @return A list which parses the text as it is used.
+	 */
+	public static <Element> NestList<Element> lazy(CharSequence text,
+			Function<String, Element> converter) {
+		return new NestList<>(new LazyBacking<>(text, 0, text.length(), converter));
+	}
+
+	/*
+	 * The backing list for a lazily parsed list, which reads its items the first
+	 * time anything looks at it.
+	 */
+	private static final class LazyBacking<Element>
+			extends AbstractList<Either<Element, NestList<Element>>> {
+		private CharSequence text;
+		private final int    start;
+		private final int    end;
+
+		private final Function<String, Element> converter;
+
+		private List<Either<Element, NestList<Element>>> items;
+
+		LazyBacking(CharSequence text, int start, int end, Function<String, Element> converter) {
+			this.text      = text;
+			this.start     = start;
+			this.end       = end;
+			this.converter = converter;
+		}
+
+		private List<Either<Element, NestList<Element>>> items() {
+			if (items != null) return items;
+
+			List<Either<Element, NestList<Element>>> parsed = new ArrayList<>();
+
+			NestListReader<Element> reader = new NestListReader<>(text, start, end, converter);
+
+			try {
+				for (int event = reader.next(); event != DONE; event = reader.next()) {
+					if (event == ELEMENT) {
+						parsed.add(Either.left(reader.element()));
+					} else {
+						int subStart = (int) reader.position();
+
+						reader.skipList();
+
+						// Don't include the closing parenthesis
+						int subEnd = (int) reader.position() - 1;
+
+						parsed.add(Either.right(new NestList<>(
+								new LazyBacking<>(text, subStart, subEnd, converter))));
+					}
+				}
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+
+			items = parsed;
+			// The sublists have their own reference to it
+			text  = null;
+
+			return items;
+		}
+
+		@Override
+		public Either<Element, NestList<Element>> get(int index) {
+			return items().get(index);
+		}
+
+		@Override
+		public Either<Element, NestList<Element>> set(int index,
+				Either<Element, NestList<Element>> element) {
+			return items().set(index, element);
+		}
+
+		@Override
+		public void add(int index, Either<Element, NestList<Element>> element) {
+			items().add(index, element);
+		}
+
+		@Override
+		public Either<Element, NestList<Element>> remove(int index) {
+			return items().remove(index);
+		}
+
+		@Override
+		public int size() {
+			return items().size();
+		}
+	}
+
+	/* Internal parsing. */
+
+	private void checkTopLevel() {
+		if (depth != 0) throw new IllegalStateException("Reader is in the middle of a list");
+	}
+
+	// Build a list whose start has just been read.
+	private NestList<Element> readList() throws IOException {
+		Deque<NestList<Element>> lists = new ArrayDeque<>();
+
+		NestList<Element> current = new NestList<>();
+
+		int target = depth - 1;
+
+		while (depth > target) {
+			int event = next();
+
+			if (event == ELEMENT) {
+				current.addItem(element());
+			} else if (event == START) {
+				NestList<Element> sublist = new NestList<>();
+
+				current.addItem(sublist);
+				lists.push(current);
+
+				current = sublist;
+			} else if (event == END) {
+				if (depth > target) current = lists.pop();
+			} else {
+				// next() throws on unclosed lists, so this can't happen
+				throw malformed("Unexpected end of input");
+			}
+		}
+
+		return current;
+	}
+
+	// Skip to the end of a list whose start has just been read.
+	private void skipList() throws IOException {
+		int target = depth - 1;
+
+		while (depth > target) {
+			if (next() == DONE) throw malformed("Unexpected end of input");
+		}
+	}
+
+	// Skip whitespace and comments; returns whether there is more input.
+	private boolean skipSpace() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) return false;
+
+			char c = buf[pos];
+
+			if (c == ';') {
+				while (true) {
+					if (pos == limit && !fill()) return false;
+					if (buf[pos] == '\n') break;
+
+					pos += 1;
+				}
+			} else if (Character.isWhitespace(c)) {
+				pos += 1;
+			} else {
+				return true;
+			}
+		}
+	}
+
+	private void readBare() throws IOException {
+		atom.setLength(0);
+
+		while (pos < limit || fill()) {
+			int begin = pos;
+
+			while (pos < limit && !endsBare(buf[pos])) pos += 1;
+
+			atom.append(buf, begin, pos - begin);
+
+			if (pos < limit) return;
+		}
+	}
+
+	private static boolean endsBare(char c) {
+		return c == '(' || c == ')' || c == '"' || c == ';' || Character.isWhitespace(c);
+	}
+
+	private void readQuoted() throws IOException {
+		atom.setLength(0);
+
+		while (true) {
+			if (pos == limit && !fill()) throw malformed("Unterminated string");
+
+			char c = buf[pos++];
+
+			if (c == '"') return;
+
+			if (c == '\\') {
+				if (pos == limit && !fill()) throw malformed("Unterminated string");
+
+				c = buf[pos++];
+			}
+
+			atom.append(c);
+		}
+	}
+
+	// Refill the buffer; returns whether any input was read.
+	private boolean fill() throws IOException {
+		if (atEOF) return false;
+
+		offset += limit;
+		pos     = 0;
+		limit   = 0;
+
+		if (input != null) {
+			int count;
+
+			do {
+				count = input.read(buf);
+			} while (count == 0);
+
+			if (count > 0) limit = count;
+		} else {
+			int count = Math.min(buf.length, textEnd - textPos);
+
+			for (int i = 0; i < count; i++) buf[i] = text.charAt(textPos++);
+
+			limit = count;
+		}
+
+		if (limit == 0) atEOF = true;
+
+		return limit > 0;
+	}
+
+	private IOException malformed(String message) {
+		return new IOException(message + " at offset " + position());
+	}
+}
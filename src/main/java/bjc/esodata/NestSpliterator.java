@@ -0,0 +1,180 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+import java.util.function.*;
+
+import bjc.data.*;
+
+/*
+ * Spliterator over the flattened elements of a NestList.
+ *
+ * Covers a range of the top-level items of a list. Splits happen at item
+ * boundaries, and are balanced by the number of elements under each item; a
+ * range with a single sublist in it descends into that sublist to split it
+ * further. The weights for every sublist are worked out once, up front, so
+ * splitting doesn't have to count elements again.
+ */
+final class NestSpliterator<Element> implements Spliterator<Element> {
+	private final int threshold;
+
+	private NestList<Element> list;
+	private Weights           weights;
+
+	private int lo;
+	private int hi;
+
+	// Created once we start handing out elements
+	private Deque<Iterator<Either<Element, NestList<Element>>>> iterators;
+
+	NestSpliterator(NestList<Element> list, int threshold) {
+		this(list, weigh(list), 0, list.size(), threshold);
+	}
+
+	private NestSpliterator(NestList<Element> list, Weights weights, int lo, int hi, int threshold) {
+		this.list      = list;
+		this.weights   = weights;
+		this.lo        = lo;
+		this.hi        = hi;
+		this.threshold = threshold;
+	}
+
+	/*
+	 * The number of elements under each item of a list, as prefix sums, along
+	 * with the weights of each of its sublists.
+	 */
+	static final class Weights {
+		// Number of elements before each top-level item of the list
+		final int[]     prefix;
+		// Weights for the sublists; null for elements
+		final Weights[] children;
+
+		private Weights(int size) {
+			prefix   = new int[size + 1];
+			children = new Weights[size];
+		}
+
+		int between(int lo, int hi) {
+			return prefix[hi] - prefix[lo];
+		}
+	}
+
+	// Weigh a list and all of its sublists, in one pass over it.
+	static Weights weigh(NestList<?> list) {
+		Weights weights = new Weights(list.size());
+
+		for (int i = 0; i < list.size(); i++) {
+			Either<?, ? extends NestList<?>> item = list.get(i);
+
+			int weight = 1;
+
+			if (!item.isLeft()) {
+				Weights child = weigh(item.forceRight());
+
+				weights.children[i] = child;
+				weight = child.prefix[child.prefix.length - 1];
+			}
+
+			weights.prefix[i + 1] = weights.prefix[i] + weight;
+		}
+
+		return weights;
+	}
+
+	// Find the item which splits a range of items into two halves by weight.
+	static int midpoint(Weights weights, int lo, int hi) {
+		int[] prefix = weights.prefix;
+
+		int target = prefix[lo] + (prefix[hi] - prefix[lo]) / 2;
+
+		int idx = Arrays.binarySearch(prefix, lo + 1, hi, target);
+		if (idx < 0) idx = -idx - 1;
+
+		return Math.max(lo + 1, Math.min(idx, hi - 1));
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Element> action) {
+		if (iterators == null) {
+			iterators = new ArrayDeque<>();
+			iterators.push(list.subList(lo, hi).iterator());
+		}
+
+		while (!iterators.isEmpty()) {
+			Iterator<Either<Element, NestList<Element>>> itr = iterators.peek();
+
+			if (!itr.hasNext()) {
+				iterators.pop();
+
+				continue;
+			}
+
+			Either<Element, NestList<Element>> item = itr.next();
+
+			if (item.isLeft()) {
+				action.accept(item.forceLeft());
+
+				return true;
+			}
+
+			iterators.push(item.forceRight().iterator());
+		}
+
+		return false;
+	}
+
+	@Override
+	public Spliterator<Element> trySplit() {
+		if (iterators != null || weights.between(lo, hi) <= threshold) return null;
+
+		// Descend through ranges that are just one sublist
+		while (hi - lo == 1) {
+			Either<Element, NestList<Element>> item = list.get(lo);
+
+			if (item.isLeft()) return null;
+
+			list    = item.forceRight();
+			weights = weights.children[lo];
+			lo      = 0;
+			hi      = list.size();
+		}
+
+		if (hi - lo < 2) return null;
+
+		int mid = midpoint(weights, lo, hi);
+
+		Spliterator<Element> prefix = new NestSpliterator<>(list, weights, lo, mid, threshold);
+
+		lo = mid;
+
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return weights.between(lo, hi);
+	}
+
+	@Override
+	public int characteristics() {
+		if (iterators == null) return ORDERED | SIZED | SUBSIZED;
+
+		return ORDERED;
+	}
+}
@@ -0,0 +1,179 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+/*
+ * A map from objects to non-negative ints, which doesn't box its values.
+ *
+ * The entries are stored in an open-addressed table using linear probing,
+ * the same way ThresholdSet stores its counts.
+ */
+final class ObjectIntMap {
+	/* The value returned for keys which aren't in the map. */
+	static final int MISSING = -1;
+
+	// Markers for null keys, and for slots whose key was removed.
+	private static final Object NULL_KEY  = new Object();
+	private static final Object TOMBSTONE = new Object();
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Object[] keys;
+	private int[]    values;
+
+	// The number of keys in the table, and the number of removed slots
+	private int size;
+	private int tombstones;
+
+	ObjectIntMap() {
+		keys   = new Object[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+	}
+
+	int size() {
+		return size;
+	}
+
+	int get(Object key) {
+		int idx = find(maskNull(key));
+
+		return idx < 0 ? MISSING : values[idx];
+	}
+
+	boolean containsKey(Object key) {
+		return find(maskNull(key)) >= 0;
+	}
+
+	// Returns the old value, or MISSING if there wasn't one.
+	int put(Object key, int value) {
+		Object masked = maskNull(key);
+
+		int idx  = slotFor(masked, keys.length);
+		int free = -1;
+
+		while (true) {
+			Object cur = keys[idx];
+
+			if (cur == null) break;
+
+			if (cur == TOMBSTONE) {
+				if (free < 0) free = idx;
+			} else if (cur.equals(masked)) {
+				int old = values[idx];
+
+				values[idx] = value;
+
+				return old;
+			}
+
+			idx = (idx + 1) & (keys.length - 1);
+		}
+
+		if (free >= 0) {
+			idx         = free;
+			tombstones -= 1;
+		}
+
+		keys[idx]   = masked;
+		values[idx] = value;
+
+		size += 1;
+
+		// Keep at least a quarter of the table empty, so probes stay short
+		if ((size + tombstones) * 4 >= keys.length * 3) rehash();
+
+		return MISSING;
+	}
+
+	// Returns the old value, or MISSING if there wasn't one.
+	int remove(Object key) {
+		int idx = find(maskNull(key));
+
+		if (idx < 0) return MISSING;
+
+		int old = values[idx];
+
+		keys[idx]   = TOMBSTONE;
+		values[idx] = 0;
+
+		size       -= 1;
+		tombstones += 1;
+
+		return old;
+	}
+
+	void clear() {
+		keys   = new Object[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+
+		size       = 0;
+		tombstones = 0;
+	}
+
+	private static Object maskNull(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	private static int slotFor(Object key, int length) {
+		int hash = key.hashCode();
+
+		return (hash ^ (hash >>> 16)) & (length - 1);
+	}
+
+	// Find the slot a key is stored in, or -1 if it isn't stored.
+	private int find(Object key) {
+		int idx = slotFor(key, keys.length);
+
+		while (true) {
+			Object cur = keys[idx];
+
+			if (cur == null)                         return -1;
+			if (cur != TOMBSTONE && cur.equals(key)) return idx;
+
+			idx = (idx + 1) & (keys.length - 1);
+		}
+	}
+
+	// Rebuild the table, dropping tombstones and growing it if needed.
+	private void rehash() {
+		int newCap = keys.length;
+
+		// Leave plenty of room, so we aren't rehashing again right away
+		while (size * 4 >= newCap) newCap *= 2;
+
+		Object[] oldKeys   = keys;
+		int[]    oldValues = values;
+
+		keys   = new Object[newCap];
+		values = new int[newCap];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object key = oldKeys[i];
+
+			if (key == null || key == TOMBSTONE) continue;
+
+			int idx = slotFor(key, newCap);
+			while (keys[idx] != null) idx = (idx + 1) & (newCap - 1);
+
+			keys[idx]   = key;
+			values[idx] = oldValues[i];
+		}
+
+		tombstones = 0;
+	}
+}
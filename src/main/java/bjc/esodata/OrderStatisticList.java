@@ -0,0 +1,402 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+/**
+ * A list that keeps track of the order statistics of its elements.
+ *
+ * Along with the minimum &amp; maximum tracked by {@link MinMaxList}, this can
+ * find the k-th smallest element, the rank of a value, percentiles, and the
+ * largest few elements, all in O(log n) time without sorting a copy of the
+ * list.
+ *
+ * The elements are kept in a plain list for positional access, and also in a
+ * treap ordered by the comparator, where every node knows the size of its
+ * subtree. Adding or removing an element takes O(log n) time on top of the
+ * cost of updating the list.
+ *
+ * @author Ben Culkin
+ *
+ * @param <ValueType> The type of element stored in the list.
+ */
+public class OrderStatisticList<ValueType> extends AbstractList<ValueType> {
+	private static final class Node<ValueType> {
+		ValueType value;
+
+		// Breaks ties between elements which compare equal
+		final long serial;
+		final int  priority;
+
+		int size = 1;
+
+		Node<ValueType> left;
+		Node<ValueType> right;
+
+		Node(ValueType value, long serial, int priority) {
+			this.value    = value;
+			this.serial   = serial;
+			this.priority = priority;
+		}
+	}
+
+	private final List<Node<ValueType>> backing;
+	private final Comparator<ValueType> picker;
+
+	private Node<ValueType> root;
+
+	private long nextSerial;
+	private int  seed = 0x2545F491;
+
+	// Create constructors
+
+	/**
+	 * Create a new order-statistic list using the given comparator.
+	 *
+	 * @param picker The comparator to use to order elements.
+	 */
+	public OrderStatisticList(Comparator<ValueType> picker) {
+		this.backing = new ArrayList<>();
+		this.picker  = picker;
+	}
+
+	/**
+	 * Create a new order-statistic list using the given comparator.
+	 *
+	 * @param picker The comparator to use to order elements.
+	 * @param values The values to fill the list from.
+	 */
+	@SafeVarargs
+	public OrderStatisticList(Comparator<ValueType> picker, ValueType... values) {
+		this(picker);
+
+		for (ValueType value : values) {
+			add(value);
+		}
+	}
+
+	/**
+	 * Create a new order-statistic list using the given comparator.
+	 *
+	 * @param picker The comparator to use to order elements.
+	 * @param values The collection to use values from.
+	 */
+	public OrderStatisticList(Comparator<ValueType> picker, Collection<ValueType> values) {
+		this(picker);
+
+		for (ValueType value : values) {
+			add(value);
+		}
+	}
+
+	@Override
+	public ValueType get(int index) {
+		return backing.get(index).value;
+	}
+
+	@Override
+	public ValueType set(int index, ValueType element) {
+		Node<ValueType> node = newNode(element);
+		Node<ValueType> old  = backing.set(index, node);
+
+		root = delete(root, old);
+		root = insert(root, node);
+
+		return old.value;
+	}
+
+	@Override
+	public void add(int index, ValueType element) {
+		Node<ValueType> node = newNode(element);
+
+		backing.add(index, node);
+
+		root = insert(root, node);
+
+		modCount += 1;
+	}
+
+	@Override
+	public ValueType remove(int index) {
+		Node<ValueType> old = backing.remove(index);
+
+		root = delete(root, old);
+
+		modCount += 1;
+
+		return old.value;
+	}
+
+	@Override
+	public void clear() {
+		backing.clear();
+
+		root = null;
+
+		modCount += 1;
+	}
+
+	@Override
+	public int size() {
+		return backing.size();
+	}
+
+	/**
+	 * Get the minimum element currently stored in this list.
+	 *
+	 * @return The minimum element stored in the list, or null if it is empty.
+	 */
+	public ValueType minimum() {
+		return root == null ? null : kth(0);
+	}
+
+	/**
+	 * Get the maximum element currently stored in this list.
+	 *
+	 * @return The maximum element stored in the list, or null if it is empty.
+	 */
+	public ValueType maximum() {
+		return root == null ? null : kth(root.size - 1);
+	}
+
+	/**
+	 * Get the k-th smallest element in this list.
+	 *
+	 * @param k The zero-based rank of the element to get.
+	 *
+	 * @return The element which would be at index k if the list was sorted.
+	 *
+	 * @throws IndexOutOfBoundsException If k isn't a valid index into the list.
+	 */
+	public ValueType kth(int k) {
+		if (k < 0 || k >= size()) {
+			throw new IndexOutOfBoundsException("Rank " + k + " is out of bounds for size " + size());
+		}
+
+		Node<ValueType> node = root;
+
+		while (true) {
+			int leftSize = sizeOf(node.left);
+
+			if (k < leftSize) {
+				node = node.left;
+			} else if (k == leftSize) {
+				return node.value;
+			} else {
+				k   -= leftSize + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * Get the rank of a value in this list.
+	 *
+	 * The value doesn't need to be in the list.
+	 *
+	 * @param value The value to get the rank of.
+	 *
+	 * @return The number of elements in the list which are less than the value.
+	 */
+	public int rank(ValueType value) {
+		Node<ValueType> node = root;
+
+		int rank = 0;
+
+		while (node != null) {
+			if (picker.compare(node.value, value) < 0) {
+				rank += sizeOf(node.left) + 1;
+				node  = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Get a percentile of the elements in this list.
+	 *
+	 * This uses the nearest-rank method, so the result is always an element of
+	 * the list.
+	 *
+	 * @param percent The percentile to get, from 0 to 100.
+	 *
+	 * @return The smallest element which is at least that percent of the
+	 *         elements, or null if the list is empty.
+	 *
+	 * @throws IllegalArgumentException If the percentile isn't between 0 and 100.
+	 */
+	public ValueType percentile(double percent) {
+		if (!(percent >= 0 && percent <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percent);
+		}
+
+		if (root == null) return null;
+
+		int k = (int) Math.ceil(percent / 100 * root.size) - 1;
+
+		return kth(Math.max(0, Math.min(k, root.size - 1)));
+	}
+
+	/**
+	 * Get the median of the elements in this list.
+	 *
+	 * For lists with an even number of elements, this is the lower median.
+	 *
+	 * @return The median element, or null if the list is empty.
+	 */
+	public ValueType median() {
+		return root == null ? null : kth((root.size - 1) / 2);
+	}
+
+	/**
+	 * Get a view of the largest few elements in this list.
+	 *
+	 * The view is live and read-only; it will reflect changes made to this list,
+	 * and always contains the largest elements in descending order.
+	 *
+	 * @param count The maximum number of elements in the view.
+	 *
+	 * @return A view of the largest elements of this list.
+	 */
+	public List<ValueType> topK(int count) {
+		if (count < 0) throw new IllegalArgumentException("Count must not be negative");
+
+		return new AbstractList<>() {
+			@Override
+			public ValueType get(int index) {
+				if (index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size());
+				}
+
+				return kth(OrderStatisticList.this.size() - 1 - index);
+			}
+
+			@Override
+			public int size() {
+				return Math.min(count, OrderStatisticList.this.size());
+			}
+		};
+	}
+
+	/* Treap maintenance. */
+
+	private Node<ValueType> newNode(ValueType value) {
+		// Xorshift, so that priorities don't need a Random per list
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+
+		return new Node<>(value, nextSerial++, seed);
+	}
+
+	private int compareNodes(Node<ValueType> lhs, Node<ValueType> rhs) {
+		int res = picker.compare(lhs.value, rhs.value);
+
+		return res != 0 ? res : Long.compare(lhs.serial, rhs.serial);
+	}
+
+	private static int sizeOf(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void resize(Node<?> node) {
+		node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+	}
+
+	private Node<ValueType> insert(Node<ValueType> node, Node<ValueType> added) {
+		if (node == null) return added;
+
+		if (compareNodes(added, node) < 0) {
+			node.left = insert(node.left, added);
+
+			if (node.left.priority > node.priority) node = rotateRight(node);
+		} else {
+			node.right = insert(node.right, added);
+
+			if (node.right.priority > node.priority) node = rotateLeft(node);
+		}
+
+		resize(node);
+
+		return node;
+	}
+
+	private Node<ValueType> delete(Node<ValueType> node, Node<ValueType> removed) {
+		if (node == removed) return merge(node.left, node.right);
+
+		if (compareNodes(removed, node) < 0) {
+			node.left = delete(node.left, removed);
+		} else {
+			node.right = delete(node.right, removed);
+		}
+
+		resize(node);
+
+		return node;
+	}
+
+	private Node<ValueType> merge(Node<ValueType> left, Node<ValueType> right) {
+		if (left == null)  return right;
+		if (right == null) return left;
+
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+
+			resize(left);
+
+			return left;
+		}
+
+		right.left = merge(left, right.left);
+
+		resize(right);
+
+		return right;
+	}
+
+	private static <ValueType> Node<ValueType> rotateRight(Node<ValueType> node) {
+		Node<ValueType> pivot = node.left;
+
+		node.left   = pivot.right;
+		pivot.right = node;
+
+		resize(node);
+
+		return pivot;
+	}
+
+	private static <ValueType> Node<ValueType> rotateLeft(Node<ValueType> node) {
+		Node<ValueType> pivot = node.right;
+
+		node.right = pivot.left;
+		pivot.left = node;
+
+		resize(node);
+
+		return pivot;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (min: %s) (max: %s)", super.toString(), minimum(), maximum());
+	}
+}
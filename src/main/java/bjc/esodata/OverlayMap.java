@@ -0,0 +1,479 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import bjc.funcdata.*;
+
+/**
+ * A shared map that many threads can read from and layer private changes on
+ * top of.
+ *
+ * The shared contents are an immutable snapshot, so reading them never takes a
+ * lock. Each task that wants to make changes gets its own
+ * {@link OverlayMap.Layer}, which records those changes in a private
+ * {@link PushdownMap} over the snapshot that was current when the layer was
+ * created. A layer can later be committed, which atomically publishes a new
+ * snapshot with its changes applied.
+ *
+ * Since every commit copies the shared contents, this works best when reads
+ * and private changes are much more common than commits.
+ *
+ * @author Ben Culkin
+ *
+ * @param <KeyType>   The type of keys in the map.
+ * @param <ValueType> The type of values in the map.
+ */
+public class OverlayMap<KeyType, ValueType> {
+	/* An immutable version of the shared contents. */
+	private static final class Snapshot<KeyType, ValueType> {
+		final Map<KeyType, ValueType> contents;
+		final long                    version;
+
+		Snapshot(Map<KeyType, ValueType> contents, long version) {
+			this.contents = contents;
+			this.version  = version;
+		}
+	}
+
+	// Marks a key from the snapshot as removed in a layer
+	private static final Object REMOVED = new Object();
+
+	private final AtomicReference<Snapshot<KeyType, ValueType>> base;
+
+	private final ThreadLocal<Layer<KeyType, ValueType>> threadLayers
+		= ThreadLocal.withInitial(this::overlay);
+
+	/**
+	 * Create a new empty overlay map.
+	 */
+	public OverlayMap() {
+		this(Collections.emptyMap());
+	}
+
+	/**
+	 * Create a new overlay map with some initial contents.
+	 *
+	 * @param contents The initial contents of the map.
+	 */
+	public OverlayMap(Map<KeyType, ValueType> contents) {
+		base = new AtomicReference<>(new Snapshot<>(new HashMap<>(contents), 0));
+	}
+
+	/**
+	 * Get the version of the shared contents, which goes up by one with every
+	 * commit.
+	 *
+	 * @return The current version of the shared contents.
+	 */
+	public long version() {
+		return base.get().version;
+	}
+
+	/**
+	 * Get a value from the shared contents.
+	 *
+	 * @param key The key to look up.
+	 *
+	 * @return The value bound to the key, or null if it isn't bound.
+	 */
+	public ValueType lookup(KeyType key) {
+		return base.get().contents.get(key);
+	}
+
+	/**
+	 * Check if the shared contents contain a key.
+	 *
+	 * @param key The key to look for.
+	 *
+	 * @return Whether or not the key is bound.
+	 */
+	public boolean containsKey(KeyType key) {
+		return base.get().contents.containsKey(key);
+	}
+
+	/**
+	 * Get the number of keys in the shared contents.
+	 *
+	 * @return The number of keys in the shared contents.
+	 */
+	public int size() {
+		return base.get().contents.size();
+	}
+
+	/**
+	 * Get a read-only view of the current shared contents.
+	 *
+	 * The view won't change, even if a new version is committed.
+	 *
+	 * @return A view of the current shared contents.
+	 */
+	public Map<KeyType, ValueType> snapshot() {
+		return Collections.unmodifiableMap(base.get().contents);
+	}
+
+	/**
+	 * Create a new layer over the current shared contents.
+	 *
+	 * @return A new layer, with no changes of its own.
+	 */
+	public Layer<KeyType, ValueType> overlay() {
+		return new Layer<>(this);
+	}
+
+	/**
+	 * Get the layer for the current thread, creating it if needed.
+	 *
+	 * @return The layer belonging to the current thread.
+	 */
+	public Layer<KeyType, ValueType> threadLayer() {
+		return threadLayers.get();
+	}
+
+	/**
+	 * Stop tracking the layer for the current thread.
+	 *
+	 * Any changes in the layer which haven't been committed are lost.
+	 */
+	public void removeThreadLayer() {
+		threadLayers.remove();
+	}
+
+	/**
+	 * A private set of changes on top of the shared contents of an
+	 * {@link OverlayMap}.
+	 *
+	 * Layers aren't thread-safe; each one should only be used by one task at a
+	 * time.
+	 *
+	 * Like a {@link PushdownMap}, putting a key that is already bound shadows the
+	 * existing value, and changes can be grouped into scopes with
+	 * {@link Layer#enterScope()} and {@link Layer#exitScope()}.
+	 *
+	 * @author Ben Culkin
+	 *
+	 * @param <KeyType>   The type of keys in the map.
+	 * @param <ValueType> The type of values in the map.
+	 */
+	public static class Layer<KeyType, ValueType> implements MapEx<KeyType, ValueType> {
+		private final OverlayMap<KeyType, ValueType> owner;
+
+		private Snapshot<KeyType, ValueType> snapshot;
+
+		// Values are either ValueTypes or REMOVED
+		private final PushdownMap<KeyType, Object> delta = new PushdownMap<>();
+
+		private boolean isFrozen    = false;
+		private boolean thawEnabled = true;
+
+		private Layer(OverlayMap<KeyType, ValueType> owner) {
+			this.owner    = owner;
+			this.snapshot = owner.base.get();
+		}
+
+		/**
+		 * Get the version of the shared contents this layer is on top of.
+		 *
+		 * @return The version of the shared contents this layer sees.
+		 */
+		public long baseVersion() {
+			return snapshot.version;
+		}
+
+		/**
+		 * Check if this layer has any changes of its own.
+		 *
+		 * @return Whether or not this layer has any changes.
+		 */
+		public boolean hasChanges() {
+			return delta.size() != 0;
+		}
+
+		/**
+		 * Enter a new scope in this layer.
+		 *
+		 * @see PushdownMap#enterScope()
+		 */
+		public void enterScope() {
+			if (isFrozen) throw new ObjectFrozen("Can't enter scope of frozen map");
+
+			delta.enterScope();
+		}
+
+		/**
+		 * Exit the current scope of this layer, undoing the changes made in it.
+		 *
+		 * @see PushdownMap#exitScope()
+		 */
+		public void exitScope() {
+			if (isFrozen) throw new ObjectFrozen("Can't exit scope of frozen map");
+
+			delta.exitScope();
+		}
+
+		/**
+		 * Get the value currently bound to a key, without wrapping it in an
+		 * {@link Optional}.
+		 *
+		 * @param key The key to look up.
+		 *
+		 * @return The value bound to the key, or null if the key isn't bound.
+		 */
+		@SuppressWarnings("unchecked")
+		public ValueType lookup(KeyType key) {
+			Object local = delta.lookup(key);
+
+			if (local == REMOVED) return null;
+			if (local != null)    return (ValueType) local;
+
+			// The layer might have bound the key to null
+			if (delta.containsKey(key)) return null;
+
+			return snapshot.contents.get(key);
+		}
+
+		/**
+		 * Publish the changes in this layer as a new version of the shared
+		 * contents.
+		 *
+		 * The changes are applied on top of whatever the latest version is, so
+		 * they will win out over changes to the same keys committed by other
+		 * layers since this one was created. Afterwards, this layer has no
+		 * changes of its own, and sits on top of the new version.
+		 *
+		 * Since committed changes can't be undone by exiting a scope, every scope
+		 * has to be exited before committing.
+		 *
+		 * @return The new version of the shared contents.
+		 *
+		 * @throws IllegalStateException If there is a scope open in this layer.
+		 */
+		public long commit() {
+			if (isFrozen) throw new ObjectFrozen("Can't commit frozen map");
+
+			checkNoScope("commit");
+
+			while (true) {
+				Snapshot<KeyType, ValueType> latest = owner.base.get();
+
+				if (tryPublish(latest)) return snapshot.version;
+			}
+		}
+
+		/**
+		 * Publish the changes in this layer as a new version of the shared
+		 * contents, if nobody else has published one since this layer was
+		 * created.
+		 *
+		 * Like {@link #commit()}, every scope has to be exited first.
+		 *
+		 * @return Whether or not the changes were published. If they weren't,
+		 *         this layer is left as it was.
+		 *
+		 * @throws IllegalStateException If there is a scope open in this layer.
+		 */
+		public boolean tryCommit() {
+			if (isFrozen) throw new ObjectFrozen("Can't commit frozen map");
+
+			checkNoScope("commit");
+
+			return tryPublish(snapshot);
+		}
+
+		/**
+		 * Throw away the changes in this layer, and move it on top of the latest
+		 * version of the shared contents.
+		 *
+		 * Every scope has to be exited first; use {@link #exitScope()} to throw
+		 * away just the changes in a scope.
+		 *
+		 * @throws IllegalStateException If there is a scope open in this layer.
+		 */
+		public void reset() {
+			if (isFrozen) throw new ObjectFrozen("Can't reset frozen map");
+
+			checkNoScope("reset");
+
+			delta.clear();
+
+			snapshot = owner.base.get();
+		}
+
+		private void checkNoScope(String action) {
+			if (delta.scopeDepth() != 0) {
+				throw new IllegalStateException(String.format("Can't %s layer with %d open scope(s)",
+						action, delta.scopeDepth()));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean tryPublish(Snapshot<KeyType, ValueType> expected) {
+			Map<KeyType, ValueType> contents = new HashMap<>(expected.contents);
+
+			delta.forEach((key, val) -> {
+				if (val == REMOVED) contents.remove(key);
+				else                contents.put(key, (ValueType) val);
+			});
+
+			Snapshot<KeyType, ValueType> published = new Snapshot<>(contents, expected.version + 1);
+
+			if (!owner.base.compareAndSet(expected, published)) return false;
+
+			delta.clear();
+			snapshot = published;
+
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void forEach(BiConsumer<KeyType, ValueType> action) {
+			snapshot.contents.forEach((key, val) -> {
+				if (!delta.containsKey(key)) action.accept(key, val);
+			});
+
+			delta.forEach((key, val) -> {
+				if (val != REMOVED) action.accept(key, (ValueType) val);
+			});
+		}
+
+		@Override
+		public boolean containsKey(KeyType key) {
+			if (delta.containsKey(key)) return delta.lookup(key) != REMOVED;
+
+			return snapshot.contents.containsKey(key);
+		}
+
+		@Override
+		public Optional<ValueType> get(KeyType key) {
+			return Optional.ofNullable(lookup(key));
+		}
+
+		@Override
+		public ValueType put(KeyType key, ValueType val) {
+			if (isFrozen) throw new ObjectFrozen("Can't insert key " + key + " into frozen map");
+
+			ValueType old = lookup(key);
+
+			delta.put(key, val);
+
+			return old;
+		}
+
+		@Override
+		public ValueType remove(KeyType key) {
+			if (isFrozen) throw new ObjectFrozen("Can't remove key " + key + " from frozen map");
+
+			if (!containsKey(key)) return null;
+
+			ValueType old = lookup(key);
+
+			// Like a pushdown map, removing our own value uncovers whatever it
+			// shadowed; removing a shared value hides it.
+			if (delta.containsKey(key)) delta.remove(key);
+			else                        delta.put(key, REMOVED);
+
+			return old;
+		}
+
+		@Override
+		public void clear() {
+			if (isFrozen) throw new ObjectFrozen("Can't clear frozen map");
+
+			if (delta.scopeDepth() == 0) {
+				delta.clear();
+			} else {
+				// Hide our own bindings in the current scope, so exiting it brings them back
+				for (KeyType key : delta.keyList()) delta.put(key, REMOVED);
+			}
+
+			for (KeyType key : snapshot.contents.keySet()) delta.put(key, REMOVED);
+		}
+
+		@Override
+		public int size() {
+			int size = snapshot.contents.size();
+
+			for (KeyType key : delta.keyList()) {
+				boolean shared = snapshot.contents.containsKey(key);
+				boolean local  = delta.lookup(key) != REMOVED;
+
+				if (shared && !local)      size -= 1;
+				else if (!shared && local) size += 1;
+			}
+
+			return size;
+		}
+
+		@Override
+		public ListEx<KeyType> keyList() {
+			List<KeyType> keys = new ArrayList<>();
+
+			forEach((key, val) -> keys.add(key));
+
+			return new FunctionalList<>(keys);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Layer [version=%d, delta=%s]", snapshot.version, delta);
+		}
+
+		@Override
+		public boolean freeze() {
+			isFrozen = true;
+
+			return true;
+		}
+
+		@Override
+		public boolean thaw() {
+			if (thawEnabled) {
+				isFrozen = false;
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public boolean deepFreeze() {
+			thawEnabled = false;
+
+			return freeze();
+		}
+
+		@Override
+		public boolean canFreeze() {
+			return true;
+		}
+
+		@Override
+		public boolean canThaw() {
+			return thawEnabled;
+		}
+
+		@Override
+		public boolean isFrozen() {
+			return isFrozen;
+		}
+	}
+}
@@ -25,8 +25,13 @@ import bjc.data.Pair;
  * Represents a map keyed by pairs, where you can look up all the items that
  * have a particular left or right key value.
  * 
- * NOTE: Using the keySet/values/entrySet views to modify the map will break the
- * tracking invariants.
+ * Values are stored in a map from left keys to maps from right keys to values,
+ * along with an index of which left keys go with each right key. The bi-
+ * methods work on the two keys directly, without having to create a pair; and
+ * the {@link PairMap#row(Object)} and {@link PairMap#column(Object)} views give
+ * all of the values for a left or right key without any copying.
+ * 
+ * The keySet/values/entrySet views can be used to modify the map.
  * 
  * @author bjcul
  *
@@ -34,42 +39,237 @@ import bjc.data.Pair;
  * @param <Right>
  * @param <Value>
  */
-public class PairMap<Left, Right, Value> implements Map<Pair<Left, Right>, Value> {
-	private Map<Pair<Left, Right>, Value> backing;
+public class PairMap<Left, Right, Value> extends AbstractMap<Pair<Left, Right>, Value> {
+	private final Map<Left, Map<Right, Value>> rows;
+	private final Map<Right, Set<Left>>        columns;
 
-	private Multimap<Left, Pair<Left, Right>> leftTracker;
-	private Multimap<Right, Pair<Left, Right>> rightTracker;
+	private int size;
 
 	/**
 	 * Create a new pair map.
 	 */
 	public PairMap() {
-		this.backing = new HashMap<>();
-		
-		this.leftTracker = new TSetMultimap<>();
-		this.rightTracker = new TSetMultimap<>();
+		this.rows    = new HashMap<>();
+		this.columns = new HashMap<>();
 	}
 	
 	/**
 	 * Get all of the key-pairs which contain the given left value.
 	 * 
+	 * The returned set is a live, read-only view.
+	 * 
 	 * @param val The value to search for.
 	 * 
 	 * @return All of the key-pairs containing the given value.
 	 */
 	public Set<Pair<Left, Right>> getLeft(Left val) {
-		return leftTracker.get(val);
+		Set<Right> rights = row(val).keySet();
+
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Pair<Left, Right>> iterator() {
+				Iterator<Right> itr = rights.iterator();
+
+				return new Iterator<>() {
+					@Override
+					public boolean hasNext() {
+						return itr.hasNext();
+					}
+
+					@Override
+					public Pair<Left, Right> next() {
+						return Pair.pair(val, itr.next());
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object obj) {
+				if (!(obj instanceof Pair<?, ?>)) return false;
+
+				Pair<?, ?> pair = (Pair<?, ?>) obj;
+
+				return Objects.equals(val, pair.getLeft()) && rights.contains(pair.getRight());
+			}
+
+			@Override
+			public int size() {
+				return rights.size();
+			}
+		};
 	}
 	
 	/**
 	 * Get all of the key-pairs which contain the given right value.
 	 * 
+	 * The returned set is a live, read-only view.
+	 * 
 	 * @param val The value to search for.
 	 * 
 	 * @return All of the key-pairs containing the given value.
 	 */
 	public Set<Pair<Left, Right>> getRight(Right val) {
-		return rightTracker.get(val);
+		Set<Left> lefts = column(val).keySet();
+
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Pair<Left, Right>> iterator() {
+				Iterator<Left> itr = lefts.iterator();
+
+				return new Iterator<>() {
+					@Override
+					public boolean hasNext() {
+						return itr.hasNext();
+					}
+
+					@Override
+					public Pair<Left, Right> next() {
+						return Pair.pair(itr.next(), val);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object obj) {
+				if (!(obj instanceof Pair<?, ?>)) return false;
+
+				Pair<?, ?> pair = (Pair<?, ?>) obj;
+
+				return Objects.equals(val, pair.getRight()) && lefts.contains(pair.getLeft());
+			}
+
+			@Override
+			public int size() {
+				return lefts.size();
+			}
+		};
+	}
+	
+	/**
+	 * Get all of the values with a given left key, keyed by their right key.
+	 * 
+	 * The returned map is a live, read-only view.
+	 * 
+	 * @param lft The left key to look for.
+	 * 
+	 * @return A view of the values with that left key.
+	 */
+	public Map<Right, Value> row(Left lft) {
+		return new AbstractMap<>() {
+			private Map<Right, Value> current() {
+				Map<Right, Value> row = rows.get(lft);
+
+				return row == null ? Collections.emptyMap() : row;
+			}
+
+			@Override
+			public Value get(Object key) {
+				return current().get(key);
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return current().containsKey(key);
+			}
+
+			@Override
+			public int size() {
+				return current().size();
+			}
+
+			@Override
+			public Set<Entry<Right, Value>> entrySet() {
+				return new AbstractSet<>() {
+					@Override
+					public Iterator<Entry<Right, Value>> iterator() {
+						Iterator<Entry<Right, Value>> itr = current().entrySet().iterator();
+
+						return new Iterator<>() {
+							@Override
+							public boolean hasNext() {
+								return itr.hasNext();
+							}
+
+							@Override
+							public Entry<Right, Value> next() {
+								Entry<Right, Value> entry = itr.next();
+
+								return new SimpleImmutableEntry<>(entry);
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return current().size();
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Get all of the values with a given right key, keyed by their left key.
+	 * 
+	 * The returned map is a live, read-only view.
+	 * 
+	 * @param rght The right key to look for.
+	 * 
+	 * @return A view of the values with that right key.
+	 */
+	public Map<Left, Value> column(Right rght) {
+		return new AbstractMap<>() {
+			private Set<Left> current() {
+				Set<Left> column = columns.get(rght);
+
+				return column == null ? Collections.emptySet() : column;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Value get(Object key) {
+				return biget((Left) key, rght);
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return current().contains(key);
+			}
+
+			@Override
+			public int size() {
+				return current().size();
+			}
+
+			@Override
+			public Set<Entry<Left, Value>> entrySet() {
+				return new AbstractSet<>() {
+					@Override
+					public Iterator<Entry<Left, Value>> iterator() {
+						Iterator<Left> itr = current().iterator();
+
+						return new Iterator<>() {
+							@Override
+							public boolean hasNext() {
+								return itr.hasNext();
+							}
+
+							@Override
+							public Entry<Left, Value> next() {
+								Left lft = itr.next();
+
+								return new SimpleImmutableEntry<>(lft, biget(lft, rght));
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						return current().size();
+					}
+				};
+			}
+		};
 	}
 	
 	/**
@@ -81,82 +281,232 @@ public class PairMap<Left, Right, Value> implements Map<Pair<Left, Right>, Value
 	 * @return The value corresponding to the given key-pair, if one exists
 	 */
 	public Value biget(Left lft, Right rght) {
-		return backing.get(Pair.pair(lft, rght));
+		Map<Right, Value> row = rows.get(lft);
+
+		return row == null ? null : row.get(rght);
+	}
+	
+	/**
+	 * Check for a key-pair without having to construct a pair callee-side.
+	 * 
+	 * @param lft The left value
+	 * @param rght The right value.
+	 * 
+	 * @return Whether or not there is a value for the given key-pair.
+	 */
+	public boolean bicontains(Left lft, Right rght) {
+		Map<Right, Value> row = rows.get(lft);
+
+		return row != null && row.containsKey(rght);
+	}
+	
+	/**
+	 * Put a value without having to construct a pair callee-side.
+	 * 
+	 * @param lft The left value
+	 * @param rght The right value.
+	 * @param value The value to put.
+	 * 
+	 * @return The previous value for the given key-pair, if one existed.
+	 */
+	public Value biput(Left lft, Right rght, Value value) {
+		Map<Right, Value> row = rows.computeIfAbsent(lft, (key) -> new HashMap<>());
+
+		int oldSize = row.size();
+
+		Value ret = row.put(rght, value);
+
+		if (row.size() != oldSize) {
+			columns.computeIfAbsent(rght, (key) -> new HashSet<>()).add(lft);
+
+			size += 1;
+		}
+
+		return ret;
+	}
+	
+	/**
+	 * Remove a value without having to construct a pair callee-side.
+	 * 
+	 * @param lft The left value
+	 * @param rght The right value.
+	 * 
+	 * @return The value for the given key-pair, if one existed.
+	 */
+	public Value biremove(Left lft, Right rght) {
+		Map<Right, Value> row = rows.get(lft);
+
+		if (row == null || !row.containsKey(rght)) return null;
+
+		Value ret = row.remove(rght);
+
+		if (row.isEmpty()) rows.remove(lft);
+
+		Set<Left> column = columns.get(rght);
+
+		column.remove(lft);
+
+		if (column.isEmpty()) columns.remove(rght);
+
+		size -= 1;
+
+		return ret;
 	}
 	
 	@Override
 	public int size() {
-		return backing.size();
+		return size;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return backing.isEmpty();
+		return size == 0;
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public boolean containsKey(Object key) {
-		return backing.containsKey(key);
+		if (!(key instanceof Pair<?, ?>)) return false;
+
+		Pair<Left, Right> pair = (Pair<Left, Right>) key;
+
+		return bicontains(pair.getLeft(), pair.getRight());
 	}
 
 	@Override
 	public boolean containsValue(Object value) {
-		return backing.containsKey(value);
+		for (Map<Right, Value> row : rows.values()) {
+			if (row.containsValue(value)) return true;
+		}
+
+		return false;
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public Value get(Object key) {
-		return backing.get(key);
+		if (!(key instanceof Pair<?, ?>)) return null;
+
+		Pair<Left, Right> pair = (Pair<Left, Right>) key;
+
+		return biget(pair.getLeft(), pair.getRight());
 	}
 
 	@Override
 	public Value put(Pair<Left, Right> key, Value value) {
-		Value ret = backing.put(key, value);
-		leftTracker.add(key.getLeft(), key);
-		rightTracker.add(key.getRight(), key);
-		return ret;
+		return biput(key.getLeft(), key.getRight(), value);
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public Value remove(Object key) {
-		@SuppressWarnings("unchecked")
-		Pair<Left, Right> actKey = (Pair<Left, Right>) key;
+		if (!(key instanceof Pair<?, ?>)) return null;
 
-		leftTracker.remove(actKey.getLeft(), actKey);
-		rightTracker.remove(actKey.getRight(), actKey);
-
-		return backing.remove(key);
-	}
+		Pair<Left, Right> pair = (Pair<Left, Right>) key;
 
-	@Override
-	public void putAll(Map<? extends Pair<Left, Right>, ? extends Value> m) {
-		for (Entry<? extends Pair<Left, Right>, ? extends Value> entry : m.entrySet()) {
-			put(entry.getKey(), entry.getValue());
-		}
+		return biremove(pair.getLeft(), pair.getRight());
 	}
 
 	@Override
 	public void clear() {
-		backing.clear();
+		rows.clear();
+		columns.clear();
 
-		leftTracker = new TSetMultimap<>();
-		rightTracker = new TSetMultimap<>();
+		size = 0;
 	}
 
-	// TODO: Update these to not break the tracking invariants
 	@Override
-	public Set<Pair<Left, Right>> keySet() {
-		return backing.keySet();
-	}
+	public Set<Entry<Pair<Left, Right>, Value>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<Pair<Left, Right>, Value>> iterator() {
+				return new EntryIterator();
+			}
 
-	@Override
-	public Collection<Value> values() {
-		return backing.values();
-	}
+			@Override
+			public boolean contains(Object obj) {
+				if (!(obj instanceof Entry<?, ?>)) return false;
 
-	@Override
-	public Set<Entry<Pair<Left, Right>, Value>> entrySet() {
-		return backing.entrySet();
+				Entry<?, ?> entry = (Entry<?, ?>) obj;
+
+				return containsKey(entry.getKey())
+						&& Objects.equals(get(entry.getKey()), entry.getValue());
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				PairMap.this.clear();
+			}
+		};
 	}
 
+	/* Iterates over every entry, row by row. */
+	private final class EntryIterator implements Iterator<Entry<Pair<Left, Right>, Value>> {
+		private final Iterator<Entry<Left, Map<Right, Value>>> rowItr = rows.entrySet().iterator();
+
+		private Left                          currentLeft;
+		private Map<Right, Value>             currentRow;
+		private Iterator<Entry<Right, Value>> colItr = Collections.emptyIterator();
+
+		private Left  lastLeft;
+		private Right lastRight;
+		private boolean canRemove;
+
+		@Override
+		public boolean hasNext() {
+			return colItr.hasNext() || rowItr.hasNext();
+		}
+
+		@Override
+		public Entry<Pair<Left, Right>, Value> next() {
+			while (!colItr.hasNext()) {
+				Entry<Left, Map<Right, Value>> row = rowItr.next();
+
+				currentLeft = row.getKey();
+				currentRow  = row.getValue();
+				colItr      = currentRow.entrySet().iterator();
+			}
+
+			Entry<Right, Value> entry = colItr.next();
+
+			lastLeft  = currentLeft;
+			lastRight = entry.getKey();
+			canRemove = true;
+
+			return new SimpleEntry<>(Pair.pair(lastLeft, lastRight), entry.getValue()) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Value setValue(Value value) {
+					super.setValue(value);
+
+					return entry.setValue(value);
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (!canRemove) throw new IllegalStateException();
+
+			colItr.remove();
+
+			if (currentRow.isEmpty()) rowItr.remove();
+
+			Set<Left> column = columns.get(lastRight);
+
+			column.remove(lastLeft);
+
+			if (column.isEmpty()) columns.remove(lastRight);
+
+			size -= 1;
+
+			canRemove = false;
+		}
+	}
 }
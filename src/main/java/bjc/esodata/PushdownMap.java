@@ -20,7 +20,6 @@ package bjc.esodata;
 import java.util.*;
 import java.util.function.*;
 
-import bjc.data.*;
 import bjc.funcdata.*;
 
 /**
@@ -29,6 +28,15 @@ import bjc.funcdata.*;
  *
  * This could be useful for things like variable scopes.
  *
+ * Along with shadowing individual keys, the map can be put into a new scope
+ * with {@link PushdownMap#enterScope()}; {@link PushdownMap#exitScope()} will
+ * then undo every change made to the map since the scope was entered.
+ *
+ * The current binding of every key is kept in a single hash table, with each
+ * binding linked to the one it shadows, so lookups don't have to go through a
+ * stack. While a scope is open, changes are recorded in an undo log, so exiting
+ * a scope only costs as much as the changes made in it.
+ *
  * @author EVE
  *
  * @param <KeyType>
@@ -38,85 +46,177 @@ import bjc.funcdata.*;
  *                    The values in the map.
  */
 public class PushdownMap<KeyType, ValueType> implements MapEx<KeyType, ValueType> {
-	/* Our backing storage. */
-	private final MapEx<KeyType, Stack<ValueType>> backing;
+	/* A value bound to a key, and the binding it shadows. */
+	private static final class Binding<KeyType, ValueType> {
+		final KeyType   key;
+		final ValueType value;
+
+		final Binding<KeyType, ValueType> shadowed;
+
+		Binding(KeyType key, ValueType value, Binding<KeyType, ValueType> shadowed) {
+			this.key      = key;
+			this.value    = value;
+			this.shadowed = shadowed;
+		}
+	}
+
+	/* The current binding for each key. */
+	private final Map<KeyType, Binding<KeyType, ValueType>> current;
+
+	/*
+	 * The bindings added or removed while a scope is open, oldest first. Whether
+	 * an entry was added or removed can be told by whether it is the current
+	 * binding for its key when it is undone.
+	 */
+	private final List<Binding<KeyType, ValueType>> undoLog;
+
+	/* The size of the undo log when each open scope was entered. */
+	private int[] scopeStarts = new int[8];
+	private int   scopeDepth;
 
 	private boolean isFrozen    = false;
 	private boolean thawEnabled = true;
 	
 	/** Create a new empty stack-based map. */
 	public PushdownMap() {
-		backing = new FunctionalMap<>();
+		current = new HashMap<>();
+		undoLog = new ArrayList<>();
+	}
+
+	/**
+	 * Enter a new scope.
+	 *
+	 * All of the changes made to the map until the matching call to
+	 * {@link PushdownMap#exitScope()} will be undone by that call.
+	 */
+	public void enterScope() {
+		if (isFrozen) throw new ObjectFrozen("Can't enter scope of frozen map");
+
+		if (scopeDepth == scopeStarts.length) {
+			scopeStarts = Arrays.copyOf(scopeStarts, scopeDepth * 2);
+		}
+
+		scopeStarts[scopeDepth++] = undoLog.size();
+	}
+
+	/**
+	 * Exit the current scope, undoing every change made to the map since it was
+	 * entered.
+	 *
+	 * @throws IllegalStateException If there is no scope to exit.
+	 */
+	public void exitScope() {
+		if (isFrozen)        throw new ObjectFrozen("Can't exit scope of frozen map");
+		if (scopeDepth == 0) throw new IllegalStateException("No scope to exit");
+
+		int start = scopeStarts[--scopeDepth];
+
+		for (int idx = undoLog.size() - 1; idx >= start; idx--) {
+			Binding<KeyType, ValueType> binding = undoLog.remove(idx);
+
+			if (current.get(binding.key) == binding) {
+				// Undo a put
+				bind(binding.key, binding.shadowed);
+			} else {
+				// Undo a remove
+				current.put(binding.key, binding);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of scopes that are currently open.
+	 *
+	 * @return The number of scopes that are currently open.
+	 */
+	public int scopeDepth() {
+		return scopeDepth;
+	}
+
+	/**
+	 * Get the value currently bound to a key, without wrapping it in an
+	 * {@link Optional}.
+	 *
+	 * @param key The key to look up.
+	 *
+	 * @return The value bound to the key, or null if the key isn't bound.
+	 */
+	public ValueType lookup(final KeyType key) {
+		Binding<KeyType, ValueType> binding = current.get(key);
+
+		return binding == null ? null : binding.value;
 	}
 
 	@Override
 	public void clear() {
 		if (isFrozen) throw new ObjectFrozen("Can't clear frozen map");
 		
-		backing.clear();
+		current.clear();
+		undoLog.clear();
+
+		scopeDepth = 0;
 	}
 
 	@Override
 	public boolean containsKey(final KeyType key) {
-		return backing.containsKey(key);
+		return current.containsKey(key);
 	}
 	
 	@Override
 	public void forEach(final BiConsumer<KeyType, ValueType> action) {
-		backing.forEach((key, stk) -> action.accept(key, stk.top()));
+		current.forEach((key, binding) -> action.accept(key, binding.value));
 	}
 
 	@Override
 	public Optional<ValueType> get(final KeyType key) {
-		return backing.get(key).map((stack) -> stack.top());
+		Binding<KeyType, ValueType> binding = current.get(key);
+
+		return binding == null ? Optional.empty() : Optional.ofNullable(binding.value);
 	}
 
 	@Override
 	public int size() {
-		return backing.size();
+		return current.size();
 	}
 
 	@Override
 	public ListEx<KeyType> keyList() {
-		return backing.keyList();
+		return new FunctionalList<>(new ArrayList<>(current.keySet()));
 	}
 
 	@Override
 	public ValueType put(final KeyType key, final ValueType val) {
 		if (isFrozen) throw new ObjectFrozen("Can't insert key " + key + " into frozen map");
 		
-		if (backing.containsKey(key)) {
-			final Stack<ValueType> stk = backing.get(key).get();
-
-			final ValueType vl = stk.top();
-
-			stk.push(val);
-
-			return vl;
-		}
+		Binding<KeyType, ValueType> shadowed = current.get(key);
+		Binding<KeyType, ValueType> binding  = new Binding<>(key, val, shadowed);
 
-		final Stack<ValueType> stk = new SimpleStack<>();
+		current.put(key, binding);
 
-		stk.push(val);
+		if (scopeDepth > 0) undoLog.add(binding);
 
-		return null;
+		return shadowed == null ? null : shadowed.value;
 	}
 
 	@Override
 	public ValueType remove(final KeyType key) {
 		if (isFrozen) throw new ObjectFrozen("Can't remove key " + key + " from frozen map");
 
-		Holder<ValueType> result = Holder.of(null);
-		
-		backing.get(key).ifPresent((stk) -> {
-			if (stk.size() > 1) {
-				result.replace(stk.pop());
-			} else {
-				result.replace(backing.remove(key).top());
-			}
-		});
+		Binding<KeyType, ValueType> binding = current.get(key);
+
+		if (binding == null) return null;
+
+		bind(key, binding.shadowed);
+
+		if (scopeDepth > 0) undoLog.add(binding);
+
+		return binding.value;
+	}
 
-		return result.getValue();
+	/* Make a binding current, or unbind the key if there isn't one. */
+	private void bind(KeyType key, Binding<KeyType, ValueType> binding) {
+		if (binding == null) current.remove(key);
+		else                 current.put(key, binding);
 	}
 
 	@Override
@@ -124,7 +224,17 @@ public class PushdownMap<KeyType, ValueType> implements MapEx<KeyType, ValueType
 		final int prime = 31;
 
 		int result = 1;
-		result = prime * result + (backing == null ? 0 : backing.hashCode());
+
+		for (Binding<KeyType, ValueType> binding : current.values()) {
+			int chain = Objects.hashCode(binding.key);
+
+			for (Binding<KeyType, ValueType> link = binding; link != null; link = link.shadowed) {
+				chain = prime * chain + Objects.hashCode(link.value);
+			}
+
+			// Order-independent, like the hash code of a map
+			result += chain;
+		}
 
 		return result;
 	}
@@ -137,10 +247,24 @@ public class PushdownMap<KeyType, ValueType> implements MapEx<KeyType, ValueType
 
 		final PushdownMap<?, ?> other = (PushdownMap<?, ?>) obj;
 
-		if (backing == null) {
-			if (other.backing != null) return false;
-		} else if (!backing.equals(other.backing)) {
-			return false;
+		if (current.size() != other.current.size()) return false;
+
+		for (Binding<KeyType, ValueType> binding : current.values()) {
+			Binding<?, ?> otherBinding = other.current.get(binding.key);
+
+			if (otherBinding == null) return false;
+
+			// Compare the whole stack of shadowed values
+			Binding<?, ?> link = binding;
+
+			while (link != null && otherBinding != null) {
+				if (!Objects.equals(link.value, otherBinding.value)) return false;
+
+				link         = link.shadowed;
+				otherBinding = otherBinding.shadowed;
+			}
+
+			if (link != otherBinding) return false;
 		}
 
 		return true;
@@ -148,7 +272,27 @@ public class PushdownMap<KeyType, ValueType> implements MapEx<KeyType, ValueType
 
 	@Override
 	public String toString() {
-		return String.format("PushdownMap [backing=%s]", backing);
+		StringBuilder sb = new StringBuilder("PushdownMap [backing={");
+
+		boolean first = true;
+
+		for (Binding<KeyType, ValueType> binding : current.values()) {
+			if (!first) sb.append(", ");
+
+			sb.append(binding.key).append("=[");
+
+			for (Binding<KeyType, ValueType> link = binding; link != null; link = link.shadowed) {
+				sb.append(link.value);
+
+				if (link.shadowed != null) sb.append(", ");
+			}
+
+			sb.append(']');
+
+			first = false;
+		}
+
+		return sb.append("}]").toString();
 	}
 
 	@Override
@@ -170,7 +314,7 @@ public class PushdownMap<KeyType, ValueType> implements MapEx<KeyType, ValueType
 
 	@Override
 	public boolean deepFreeze() {
-		thawEnabled = true;
+		thawEnabled = false;
 		
 		return freeze();
 	}
@@ -0,0 +1,321 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+/**
+ * A list that tracks the minimum &amp; maximum element of a list, using a
+ * segment tree.
+ *
+ * Unlike {@link MinMaxList}, removing or replacing the current minimum or
+ * maximum doesn't require rescanning the whole list; each node of the tree
+ * tracks the minimum and maximum of the elements under it, so only the path
+ * from the changed element to the root needs updating. This also means that the
+ * minimum and maximum of any range of the list can be found in O(log n) time.
+ *
+ * Setting an element, or adding/removing one at the end of the list, takes
+ * O(log n) time. Adding or removing an element elsewhere has to shift the
+ * elements after it, like in an {@link ArrayList}, and updates the tree for
+ * all of them.
+ *
+ * When several elements tie for the minimum or maximum, the one with the lowest
+ * index is picked.
+ *
+ * @author Ben Culkin
+ *
+ * @param <ValueType> The type of element stored in the list.
+ */
+public class SegmentMinMaxList<ValueType> extends AbstractList<ValueType> {
+	private final Comparator<ValueType> picker;
+
+	// The elements of the list
+	private Object[] values;
+	private int      size;
+
+	/*
+	 * The segment tree. Node 1 is the root, the children of node i are 2i and
+	 * 2i + 1, and the leaves start at index 'capacity'. Each node stores the index
+	 * of the minimum/maximum element under it, or -1 if it is empty.
+	 */
+	private int[] minAt;
+	private int[] maxAt;
+	private int   capacity;
+
+	/**
+	 * Create a new min/max list using the given comparator.
+	 *
+	 * @param picker The comparator to use to determine min/max elements.
+	 */
+	public SegmentMinMaxList(Comparator<ValueType> picker) {
+		this.picker = picker;
+
+		allocate(8);
+	}
+
+	/**
+	 * Create a new min/max list using the given comparator.
+	 *
+	 * @param picker The comparator to use to determine min/max elements.
+	 * @param values The values to fill the list from.
+	 */
+	@SafeVarargs
+	public SegmentMinMaxList(Comparator<ValueType> picker, ValueType... values) {
+		this.picker = picker;
+
+		allocate(Math.max(8, values.length));
+
+		for (ValueType value : values) this.values[size++] = value;
+
+		rebuild(0, size);
+	}
+
+	/**
+	 * Create a new min/max list using the given comparator.
+	 *
+	 * @param picker  The comparator to use to determine min/max elements.
+	 * @param backing The collection to use values from.
+	 */
+	public SegmentMinMaxList(Comparator<ValueType> picker, Collection<ValueType> backing) {
+		this.picker = picker;
+
+		allocate(Math.max(8, backing.size()));
+
+		for (ValueType value : backing) values[size++] = value;
+
+		rebuild(0, size);
+	}
+
+	private void allocate(int minCapacity) {
+		capacity = Integer.highestOneBit(minCapacity);
+		if (capacity < minCapacity) capacity *= 2;
+
+		values = Arrays.copyOf(values == null ? new Object[0] : values, capacity);
+
+		minAt = new int[2 * capacity];
+		maxAt = new int[2 * capacity];
+
+		Arrays.fill(minAt, -1);
+		Arrays.fill(maxAt, -1);
+	}
+
+	@SuppressWarnings("unchecked")
+	private ValueType valueAt(int idx) {
+		return (ValueType) values[idx];
+	}
+
+	// Pick the smaller of two element indices, preferring the left one on ties.
+	private int smaller(int left, int right) {
+		if (left  < 0) return right;
+		if (right < 0) return left;
+
+		return picker.compare(valueAt(right), valueAt(left)) < 0 ? right : left;
+	}
+
+	// Pick the larger of two element indices, preferring the left one on ties.
+	private int larger(int left, int right) {
+		if (left  < 0) return right;
+		if (right < 0) return left;
+
+		return picker.compare(valueAt(right), valueAt(left)) > 0 ? right : left;
+	}
+
+	private void pull(int node) {
+		minAt[node] = smaller(minAt[2 * node], minAt[(2 * node) + 1]);
+		maxAt[node] = larger(maxAt[2 * node], maxAt[(2 * node) + 1]);
+	}
+
+	// Update the tree for the leaves in [from, to)
+	private void rebuild(int from, int to) {
+		if (from >= to) return;
+
+		for (int i = from; i < to; i++) {
+			int leaf = capacity + i;
+			int idx  = i < size ? i : -1;
+
+			minAt[leaf] = idx;
+			maxAt[leaf] = idx;
+		}
+
+		int lo = (capacity + from) / 2;
+		int hi = (capacity + to - 1) / 2;
+
+		while (lo >= 1) {
+			for (int node = lo; node <= hi; node++) pull(node);
+
+			lo /= 2;
+			hi /= 2;
+		}
+	}
+
+	@Override
+	public ValueType get(int index) {
+		Objects.checkIndex(index, size);
+
+		return valueAt(index);
+	}
+
+	@Override
+	public ValueType set(int index, ValueType element) {
+		Objects.checkIndex(index, size);
+
+		ValueType oldElement = valueAt(index);
+
+		values[index] = element;
+
+		for (int node = (capacity + index) / 2; node >= 1; node /= 2) pull(node);
+
+		return oldElement;
+	}
+
+	@Override
+	public void add(int index, ValueType element) {
+		Objects.checkIndex(index, size + 1);
+
+		if (size == capacity) {
+			allocate(capacity * 2);
+
+			rebuild(0, size);
+		}
+
+		System.arraycopy(values, index, values, index + 1, size - index);
+
+		values[index] = element;
+		size += 1;
+
+		modCount += 1;
+
+		rebuild(index, size);
+	}
+
+	@Override
+	public ValueType remove(int index) {
+		Objects.checkIndex(index, size);
+
+		ValueType oldElement = valueAt(index);
+
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+
+		size -= 1;
+		values[size] = null;
+
+		modCount += 1;
+
+		rebuild(index, size + 1);
+
+		return oldElement;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the minimum element currently stored in this list.
+	 *
+	 * @return The minimum element stored in the list, or null if it is empty.
+	 */
+	public ValueType minimum() {
+		return minAt[1] < 0 ? null : valueAt(minAt[1]);
+	}
+
+	/**
+	 * Get the maximum element currently stored in this list.
+	 *
+	 * @return The maximum element stored in the list, or null if it is empty.
+	 */
+	public ValueType maximum() {
+		return maxAt[1] < 0 ? null : valueAt(maxAt[1]);
+	}
+
+	/**
+	 * Get the minimum element in a range of this list.
+	 *
+	 * @param from The start of the range, inclusive.
+	 * @param to   The end of the range, exclusive.
+	 *
+	 * @return The minimum element in the range, or null if it is empty.
+	 */
+	public ValueType minimum(int from, int to) {
+		int idx = query(from, to, true);
+
+		return idx < 0 ? null : valueAt(idx);
+	}
+
+	/**
+	 * Get the maximum element in a range of this list.
+	 *
+	 * @param from The start of the range, inclusive.
+	 * @param to   The end of the range, exclusive.
+	 *
+	 * @return The maximum element in the range, or null if it is empty.
+	 */
+	public ValueType maximum(int from, int to) {
+		int idx = query(from, to, false);
+
+		return idx < 0 ? null : valueAt(idx);
+	}
+
+	private int query(int from, int to, boolean wantMin) {
+		Objects.checkFromToIndex(from, to, size);
+
+		int[] tree = wantMin ? minAt : maxAt;
+
+		// Results from the left and right edges, kept apart to preserve order
+		int leftRes  = -1;
+		int rightRes = -1;
+
+		int lo = capacity + from;
+		int hi = capacity + to;
+
+		while (lo < hi) {
+			if ((lo & 1) == 1) {
+				leftRes = wantMin ? smaller(leftRes, tree[lo]) : larger(leftRes, tree[lo]);
+				lo += 1;
+			}
+
+			if ((hi & 1) == 1) {
+				hi -= 1;
+				rightRes = wantMin ? smaller(tree[hi], rightRes) : larger(tree[hi], rightRes);
+			}
+
+			lo /= 2;
+			hi /= 2;
+		}
+
+		return wantMin ? smaller(leftRes, rightRes) : larger(leftRes, rightRes);
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, 0, size, null);
+
+		int oldSize = size;
+
+		size = 0;
+		modCount += 1;
+
+		rebuild(0, oldSize);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (min: %s) (max: %s)", super.toString(), minimum(), maximum());
+	}
+}
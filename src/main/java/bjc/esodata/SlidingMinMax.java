@@ -0,0 +1,636 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+/**
+ * Tracks the minimum &amp; maximum of the most recent elements of a stream.
+ *
+ * The window can either be the last N elements added, or the elements added
+ * within some span of time. Timestamps can be in whatever unit you like, as
+ * long as they never decrease.
+ *
+ * Internally, there are two monotonic deques: one holding the elements that
+ * could still become the minimum, in increasing order, and one for the
+ * maximum. Adding an element discards anything it beats from the back of each
+ * deque, and elements leaving the window are discarded from the front, so each
+ * element is only handled a constant number of times.
+ *
+ * There are also versions specialized for long and double values, in
+ * {@link SlidingMinMax.OfLong} and {@link SlidingMinMax.OfDouble}.
+ *
+ * @author Ben Culkin
+ *
+ * @param <ValueType> The type of element being tracked.
+ */
+public class SlidingMinMax<ValueType> {
+	/*
+	 * A double-ended queue of stamped entries, stored in a ring buffer. The stamps
+	 * are either sequence numbers or timestamps, and are always increasing from
+	 * front to back.
+	 */
+	private static class StampRing {
+		long[] stamps = new long[8];
+
+		int head;
+		int count;
+
+		int mask() {
+			return stamps.length - 1;
+		}
+
+		int slot(int offset) {
+			return (head + offset) & mask();
+		}
+
+		int backSlot() {
+			return slot(count - 1);
+		}
+
+		// Make room for one more entry; returns the slot to put it in.
+		int pushSlot() {
+			if (count == stamps.length) grow();
+
+			count += 1;
+
+			return backSlot();
+		}
+
+		void grow() {
+			long[] newStamps = new long[stamps.length * 2];
+
+			for (int i = 0; i < count; i++) newStamps[i] = stamps[slot(i)];
+
+			// The values move the same way as the stamps
+			moveValues(newStamps.length);
+
+			stamps = newStamps;
+			head   = 0;
+		}
+
+		void moveValues(int newLength) {
+			// No values to move by default
+		}
+
+		// Drop all the entries at the front with a stamp at or before the cutoff.
+		void expire(long cutoff) {
+			while (count > 0 && stamps[head] <= cutoff) {
+				clearSlot(head);
+
+				head   = (head + 1) & mask();
+				count -= 1;
+			}
+		}
+
+		void clearSlot(int idx) {
+			// Nothing to clear by default
+		}
+	}
+
+	// A ring of stamped object values.
+	private static final class ObjectRing extends StampRing {
+		Object[] values = new Object[8];
+
+		@Override
+		void moveValues(int newLength) {
+			Object[] newValues = new Object[newLength];
+
+			for (int i = 0; i < count; i++) newValues[i] = values[slot(i)];
+
+			values = newValues;
+		}
+
+		@Override
+		void clearSlot(int idx) {
+			values[idx] = null;
+		}
+	}
+
+	private final Comparator<ValueType> picker;
+
+	private final boolean timed;
+	private final long    span;
+
+	// The number of elements added; used as stamps for count-based windows
+	private long sequence;
+
+	// The stamp of the most recent element or time
+	private long latest = Long.MIN_VALUE;
+
+	private final ObjectRing minRing = new ObjectRing();
+	private final ObjectRing maxRing = new ObjectRing();
+
+	/**
+	 * Create a new sliding min/max over the last few elements added.
+	 *
+	 * @param picker The comparator to use to determine min/max elements.
+	 * @param count  The number of elements in the window.
+	 *
+	 * @throws IllegalArgumentException If the window size isn't positive.
+	 */
+	public SlidingMinMax(Comparator<ValueType> picker, int count) {
+		this(picker, count, false);
+	}
+
+	private SlidingMinMax(Comparator<ValueType> picker, long span, boolean timed) {
+		if (span <= 0) throw new IllegalArgumentException("Window size must be positive");
+
+		this.picker = picker;
+		this.span   = span;
+		this.timed  = timed;
+	}
+
+	/**
+	 * Create a new sliding min/max over the elements added in a span of time.
+	 *
+	 * @param <ValueType> The type of element being tracked.
+	 *
+	 * @param picker   The comparator to use to determine min/max elements.
+	 * @param duration The length of the window, in the same units as the
+	 *                 timestamps passed to {@link SlidingMinMax#add(Object, long)}.
+	 *
+	 * @return A sliding min/max using a time-based window.
+	 *
+	 * @throws IllegalArgumentException If the duration isn't positive.
+	 */
+	public static <ValueType> SlidingMinMax<ValueType> timed(Comparator<ValueType> picker,
+			long duration) {
+		return new SlidingMinMax<>(picker, duration, true);
+	}
+
+	/**
+	 * Add an element to a count-based window.
+	 *
+	 * @param value The element to add.
+	 *
+	 * @throws IllegalStateException If this uses a time-based window.
+	 */
+	public void add(ValueType value) {
+		if (timed) throw new IllegalStateException("Time-based windows need a timestamp");
+
+		sequence += 1;
+
+		push(value, sequence);
+
+		expire(sequence - span);
+	}
+
+	/**
+	 * Add an element to a time-based window.
+	 *
+	 * @param value     The element to add.
+	 * @param timestamp The time the element was added.
+	 *
+	 * @throws IllegalStateException    If this uses a count-based window.
+	 * @throws IllegalArgumentException If the timestamp is before the last one.
+	 */
+	public void add(ValueType value, long timestamp) {
+		if (!timed) throw new IllegalStateException("Count-based windows don't use timestamps");
+
+		advanceTo(timestamp);
+
+		push(value, timestamp);
+	}
+
+	/**
+	 * Move a time-based window forward, expiring any elements which have fallen
+	 * out of it.
+	 *
+	 * @param timestamp The current time.
+	 *
+	 * @throws IllegalStateException    If this uses a count-based window.
+	 * @throws IllegalArgumentException If the timestamp is before the last one.
+	 */
+	public void advanceTo(long timestamp) {
+		if (!timed)             throw new IllegalStateException("Count-based windows don't use timestamps");
+		if (timestamp < latest) throw new IllegalArgumentException("Timestamps must not decrease");
+
+		latest = timestamp;
+
+		expire(timestamp - span);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void push(ValueType value, long stamp) {
+		// Drop anything which can never be the minimum/maximum again
+		while (minRing.count > 0
+				&& picker.compare((ValueType) minRing.values[minRing.backSlot()], value) >= 0) {
+			minRing.clearSlot(minRing.backSlot());
+			minRing.count -= 1;
+		}
+
+		while (maxRing.count > 0
+				&& picker.compare((ValueType) maxRing.values[maxRing.backSlot()], value) <= 0) {
+			maxRing.clearSlot(maxRing.backSlot());
+			maxRing.count -= 1;
+		}
+
+		int minSlot = minRing.pushSlot();
+		minRing.values[minSlot] = value;
+		minRing.stamps[minSlot] = stamp;
+
+		int maxSlot = maxRing.pushSlot();
+		maxRing.values[maxSlot] = value;
+		maxRing.stamps[maxSlot] = stamp;
+	}
+
+	private void expire(long cutoff) {
+		minRing.expire(cutoff);
+		maxRing.expire(cutoff);
+	}
+
+	/**
+	 * Check if the window is empty.
+	 *
+	 * @return Whether or not the window has any elements in it.
+	 */
+	public boolean isEmpty() {
+		return minRing.count == 0;
+	}
+
+	/**
+	 * Get the minimum element in the window.
+	 *
+	 * @return The minimum element in the window, or null if it is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public ValueType minimum() {
+		return minRing.count == 0 ? null : (ValueType) minRing.values[minRing.head];
+	}
+
+	/**
+	 * Get the maximum element in the window.
+	 *
+	 * @return The maximum element in the window, or null if it is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public ValueType maximum() {
+		return maxRing.count == 0 ? null : (ValueType) maxRing.values[maxRing.head];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SlidingMinMax (min: %s) (max: %s)", minimum(), maximum());
+	}
+
+	// A ring of stamped long values.
+	private static final class LongRing extends StampRing {
+		long[] values = new long[8];
+
+		@Override
+		void moveValues(int newLength) {
+			long[] newValues = new long[newLength];
+
+			for (int i = 0; i < count; i++) newValues[i] = values[slot(i)];
+
+			values = newValues;
+		}
+	}
+
+	/**
+	 * A sliding min/max specialized for long values.
+	 *
+	 * @author Ben Culkin
+	 */
+	public static class OfLong {
+		private final boolean timed;
+		private final long    span;
+
+		private long sequence;
+		private long latest = Long.MIN_VALUE;
+
+		private final LongRing minRing = new LongRing();
+		private final LongRing maxRing = new LongRing();
+
+		/**
+		 * Create a new sliding min/max over the last few values added.
+		 *
+		 * @param count The number of values in the window.
+		 *
+		 * @throws IllegalArgumentException If the window size isn't positive.
+		 */
+		public OfLong(int count) {
+			this(count, false);
+		}
+
+		private OfLong(long span, boolean timed) {
+			if (span <= 0) throw new IllegalArgumentException("Window size must be positive");
+
+			this.span  = span;
+			this.timed = timed;
+		}
+
+		/**
+		 * Create a new sliding min/max over the values added in a span of time.
+		 *
+		 * @param duration The length of the window.
+		 *
+		 * @return A sliding min/max using a time-based window.
+		 *
+		 * @throws IllegalArgumentException If the duration isn't positive.
+		 */
+		public static OfLong timed(long duration) {
+			return new OfLong(duration, true);
+		}
+
+		/**
+		 * Add a value to a count-based window.
+		 *
+		 * @param value The value to add.
+		 *
+		 * @throws IllegalStateException If this uses a time-based window.
+		 */
+		public void add(long value) {
+			if (timed) throw new IllegalStateException("Time-based windows need a timestamp");
+
+			sequence += 1;
+
+			push(value, sequence);
+
+			minRing.expire(sequence - span);
+			maxRing.expire(sequence - span);
+		}
+
+		/**
+		 * Add a value to a time-based window.
+		 *
+		 * @param value     The value to add.
+		 * @param timestamp The time the value was added.
+		 *
+		 * @throws IllegalStateException    If this uses a count-based window.
+		 * @throws IllegalArgumentException If the timestamp is before the last
+		 *                                  one.
+		 */
+		public void add(long value, long timestamp) {
+			if (!timed) throw new IllegalStateException("Count-based windows don't use timestamps");
+
+			advanceTo(timestamp);
+
+			push(value, timestamp);
+		}
+
+		/**
+		 * Move a time-based window forward, expiring any values which have fallen
+		 * out of it.
+		 *
+		 * @param timestamp The current time.
+		 *
+		 * @throws IllegalStateException    If this uses a count-based window.
+		 * @throws IllegalArgumentException If the timestamp is before the last
+		 *                                  one.
+		 */
+		public void advanceTo(long timestamp) {
+			if (!timed)             throw new IllegalStateException("Count-based windows don't use timestamps");
+			if (timestamp < latest) throw new IllegalArgumentException("Timestamps must not decrease");
+
+			latest = timestamp;
+
+			minRing.expire(timestamp - span);
+			maxRing.expire(timestamp - span);
+		}
+
+		private void push(long value, long stamp) {
+			while (minRing.count > 0 && minRing.values[minRing.backSlot()] >= value) {
+				minRing.count -= 1;
+			}
+
+			while (maxRing.count > 0 && maxRing.values[maxRing.backSlot()] <= value) {
+				maxRing.count -= 1;
+			}
+
+			int minSlot = minRing.pushSlot();
+			minRing.values[minSlot] = value;
+			minRing.stamps[minSlot] = stamp;
+
+			int maxSlot = maxRing.pushSlot();
+			maxRing.values[maxSlot] = value;
+			maxRing.stamps[maxSlot] = stamp;
+		}
+
+		/**
+		 * Check if the window is empty.
+		 *
+		 * @return Whether or not the window has any values in it.
+		 */
+		public boolean isEmpty() {
+			return minRing.count == 0;
+		}
+
+		/**
+		 * Get the minimum value in the window.
+		 *
+		 * @return The minimum value in the window.
+		 *
+		 * @throws NoSuchElementException If the window is empty.
+		 */
+		public long minimum() {
+			if (minRing.count == 0) throw new NoSuchElementException("Window is empty");
+
+			return minRing.values[minRing.head];
+		}
+
+		/**
+		 * Get the maximum value in the window.
+		 *
+		 * @return The maximum value in the window.
+		 *
+		 * @throws NoSuchElementException If the window is empty.
+		 */
+		public long maximum() {
+			if (maxRing.count == 0) throw new NoSuchElementException("Window is empty");
+
+			return maxRing.values[maxRing.head];
+		}
+	}
+
+	// A ring of stamped double values.
+	private static final class DoubleRing extends StampRing {
+		double[] values = new double[8];
+
+		@Override
+		void moveValues(int newLength) {
+			double[] newValues = new double[newLength];
+
+			for (int i = 0; i < count; i++) newValues[i] = values[slot(i)];
+
+			values = newValues;
+		}
+	}
+
+	/**
+	 * A sliding min/max specialized for double values.
+	 *
+	 * Values are compared using {@link Double#compare(double, double)}, so NaN
+	 * is treated as larger than any other value.
+	 *
+	 * @author Ben Culkin
+	 */
+	public static class OfDouble {
+		private final boolean timed;
+		private final long    span;
+
+		private long sequence;
+		private long latest = Long.MIN_VALUE;
+
+		private final DoubleRing minRing = new DoubleRing();
+		private final DoubleRing maxRing = new DoubleRing();
+
+		/**
+		 * Create a new sliding min/max over the last few values added.
+		 *
+		 * @param count The number of values in the window.
+		 *
+		 * @throws IllegalArgumentException If the window size isn't positive.
+		 */
+		public OfDouble(int count) {
+			this(count, false);
+		}
+
+		private OfDouble(long span, boolean timed) {
+			if (span <= 0) throw new IllegalArgumentException("Window size must be positive");
+
+			this.span  = span;
+			this.timed = timed;
+		}
+
+		/**
+		 * Create a new sliding min/max over the values added in a span of time.
+		 *
+		 * @param duration The length of the window.
+		 *
+		 * @return A sliding min/max using a time-based window.
+		 *
+		 * @throws IllegalArgumentException If the duration isn't positive.
+		 */
+		public static OfDouble timed(long duration) {
+			return new OfDouble(duration, true);
+		}
+
+		/**
+		 * Add a value to a count-based window.
+		 *
+		 * @param value The value to add.
+		 *
+		 * @throws IllegalStateException If this uses a time-based window.
+		 */
+		public void add(double value) {
+			if (timed) throw new IllegalStateException("Time-based windows need a timestamp");
+
+			sequence += 1;
+
+			push(value, sequence);
+
+			minRing.expire(sequence - span);
+			maxRing.expire(sequence - span);
+		}
+
+		/**
+		 * Add a value to a time-based window.
+		 *
+		 * @param value     The value to add.
+		 * @param timestamp The time the value was added.
+		 *
+		 * @throws IllegalStateException    If this uses a count-based window.
+		 * @throws IllegalArgumentException If the timestamp is before the last
+		 *                                  one.
+		 */
+		public void add(double value, long timestamp) {
+			if (!timed) throw new IllegalStateException("Count-based windows don't use timestamps");
+
+			advanceTo(timestamp);
+
+			push(value, timestamp);
+		}
+
+		/**
+		 * Move a time-based window forward, expiring any values which have fallen
+		 * out of it.
+		 *
+		 * @param timestamp The current time.
+		 *
+		 * @throws IllegalStateException    If this uses a count-based window.
+		 * @throws IllegalArgumentException If the timestamp is before the last
+		 *                                  one.
+		 */
+		public void advanceTo(long timestamp) {
+			if (!timed)             throw new IllegalStateException("Count-based windows don't use timestamps");
+			if (timestamp < latest) throw new IllegalArgumentException("Timestamps must not decrease");
+
+			latest = timestamp;
+
+			minRing.expire(timestamp - span);
+			maxRing.expire(timestamp - span);
+		}
+
+		private void push(double value, long stamp) {
+			while (minRing.count > 0
+					&& Double.compare(minRing.values[minRing.backSlot()], value) >= 0) {
+				minRing.count -= 1;
+			}
+
+			while (maxRing.count > 0
+					&& Double.compare(maxRing.values[maxRing.backSlot()], value) <= 0) {
+				maxRing.count -= 1;
+			}
+
+			int minSlot = minRing.pushSlot();
+			minRing.values[minSlot] = value;
+			minRing.stamps[minSlot] = stamp;
+
+			int maxSlot = maxRing.pushSlot();
+			maxRing.values[maxSlot] = value;
+			maxRing.stamps[maxSlot] = stamp;
+		}
+
+		/**
+		 * Check if the window is empty.
+		 *
+		 * @return Whether or not the window has any values in it.
+		 */
+		public boolean isEmpty() {
+			return minRing.count == 0;
+		}
+
+		/**
+		 * Get the minimum value in the window.
+		 *
+		 * @return The minimum value in the window.
+		 *
+		 * @throws NoSuchElementException If the window is empty.
+		 */
+		public double minimum() {
+			if (minRing.count == 0) throw new NoSuchElementException("Window is empty");
+
+			return minRing.values[minRing.head];
+		}
+
+		/**
+		 * Get the maximum value in the window.
+		 *
+		 * @return The maximum value in the window.
+		 *
+		 * @throws NoSuchElementException If the window is empty.
+		 */
+		public double maximum() {
+			if (maxRing.count == 0) throw new NoSuchElementException("Window is empty");
+
+			return maxRing.values[maxRing.head];
+		}
+	}
+}
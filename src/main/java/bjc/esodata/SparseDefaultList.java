@@ -0,0 +1,325 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+
+/**
+ * A list that has a default value, where only the values that aren't the
+ * default take up any space.
+ *
+ * Like {@link DefaultList}, out-of-bounds accesses return the default value.
+ * Unlike it, setting a value past the end of the list just extends it, without
+ * having to store every index in between; values are kept in fixed-size chunks,
+ * and chunks are only allocated once something other than the default is
+ * stored in them. A chunk which goes back to holding only defaults is freed.
+ *
+ * Indexes which haven't been set to anything else always hold the current
+ * default, so changing the default changes them too. Since this list is meant
+ * for tables indexed by position, adding and removing only work at the end.
+ *
+ * @author Ben Culkin
+ *
+ * @param <ValueType> The type of the values contained in the list.
+ */
+public class SparseDefaultList<ValueType> extends AbstractList<ValueType> {
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Marks a slot that holds the default; lets null be stored as a real value
+	private static final Object UNSET = new Object();
+
+	private ValueType defVal;
+
+	// Chunks of values, or null for chunks of only defaults
+	private Object[][] chunks = new Object[16][];
+	// The number of non-default values in each chunk
+	private int[]      counts = new int[16];
+
+	private int size;
+	private int nonDefault;
+
+	/**
+	 * Create a new empty sparse list, with a default value of null.
+	 */
+	public SparseDefaultList() {
+		this(null);
+	}
+
+	/**
+	 * Create a new empty sparse list, with a set default value.
+	 *
+	 * @param defVal The default value for the list.
+	 */
+	public SparseDefaultList(ValueType defVal) {
+		this.defVal = defVal;
+	}
+
+	/**
+	 * Get the default value.
+	 *
+	 * @return The default value.
+	 */
+	public ValueType getDefault() {
+		return defVal;
+	}
+
+	/**
+	 * Set the default value.
+	 *
+	 * This also changes the value of every index that hasn't been set to
+	 * something else.
+	 *
+	 * @param defVal The default value.
+	 */
+	public void setDefault(ValueType defVal) {
+		this.defVal = defVal;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public ValueType get(int idx) {
+		if (idx < 0 || idx >= size) return defVal;
+
+		Object[] chunk = chunkFor(idx);
+
+		if (chunk == null) return defVal;
+
+		Object val = chunk[idx & CHUNK_MASK];
+
+		return val == UNSET ? defVal : (ValueType) val;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Change the size of this list.
+	 *
+	 * Growing the list fills it with defaults, and shrinking it throws away any
+	 * values past the new end; neither has to touch the indexes in between.
+	 *
+	 * @param newSize The new size of the list.
+	 */
+	public void setSize(int newSize) {
+		if (newSize < 0) throw new IllegalArgumentException("Size must not be negative");
+
+		if (newSize < size) {
+			int firstChunk = newSize >>> CHUNK_BITS;
+
+			// Clear the tail of the chunk the list now ends in
+			if ((newSize & CHUNK_MASK) != 0) {
+				if (firstChunk < chunks.length) {
+					int end = Math.min(CHUNK_SIZE, size - (firstChunk << CHUNK_BITS));
+
+					for (int i = newSize & CHUNK_MASK; i < end; i++) clear(firstChunk, i);
+				}
+
+				firstChunk += 1;
+			}
+
+			for (int i = firstChunk; i < chunks.length; i++) {
+				nonDefault -= counts[i];
+
+				chunks[i] = null;
+				counts[i] = 0;
+			}
+
+			modCount += 1;
+		}
+
+		size = newSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Setting an index past the end of the list extends the list to hold it.
+	 */
+	@Override
+	public ValueType set(int idx, ValueType val) {
+		if (idx < 0) throw new IndexOutOfBoundsException("Index " + idx + " is negative");
+
+		ValueType old = get(idx);
+
+		if (idx >= size) setSize(idx + 1);
+
+		int chunkIdx = idx >>> CHUNK_BITS;
+		int slot     = idx & CHUNK_MASK;
+
+		if (Objects.equals(val, defVal)) {
+			if (chunkIdx < chunks.length) clear(chunkIdx, slot);
+
+			return old;
+		}
+
+		Object[] chunk = allocate(chunkIdx);
+
+		if (chunk[slot] == UNSET) {
+			counts[chunkIdx] += 1;
+			nonDefault       += 1;
+		}
+
+		chunk[slot] = val;
+
+		return old;
+	}
+
+	@Override
+	public void add(int idx, ValueType val) {
+		if (idx != size) {
+			throw new UnsupportedOperationException("Can only add to the end of a sparse list");
+		}
+
+		set(idx, val);
+
+		modCount += 1;
+	}
+
+	@Override
+	public ValueType remove(int idx) {
+		if (idx != size - 1) {
+			throw new UnsupportedOperationException("Can only remove from the end of a sparse list");
+		}
+
+		ValueType old = get(idx);
+
+		setSize(idx);
+
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		chunks = new Object[16][];
+		counts = new int[16];
+
+		size       = 0;
+		nonDefault = 0;
+
+		modCount += 1;
+	}
+
+	/**
+	 * Get the number of indexes which have been set to something other than
+	 * the default.
+	 *
+	 * @return The number of non-default values in this list.
+	 */
+	public int nonDefaultCount() {
+		return nonDefault;
+	}
+
+	/**
+	 * Get an iterator over the indexes which have been set to something other
+	 * than the default, in increasing order.
+	 *
+	 * Chunks holding only defaults are skipped without being looked at.
+	 *
+	 * @return An iterator over the non-default indexes of this list.
+	 */
+	public PrimitiveIterator.OfInt nonDefaultIndexes() {
+		return new PrimitiveIterator.OfInt() {
+			private int next = advance(0);
+
+			private int advance(int from) {
+				int idx = from;
+
+				while (idx < size) {
+					Object[] chunk = chunkFor(idx);
+
+					if (chunk == null) {
+						// Skip to the start of the next chunk
+						idx = ((idx >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+
+						if (idx <= 0) return size;
+
+						continue;
+					}
+
+					if (chunk[idx & CHUNK_MASK] != UNSET) return idx;
+
+					idx += 1;
+				}
+
+				return size;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public int nextInt() {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				int ret = next;
+
+				next = advance(next + 1);
+
+				return ret;
+			}
+		};
+	}
+
+	private Object[] chunkFor(int idx) {
+		int chunkIdx = idx >>> CHUNK_BITS;
+
+		return chunkIdx < chunks.length ? chunks[chunkIdx] : null;
+	}
+
+	private Object[] allocate(int chunkIdx) {
+		if (chunkIdx >= chunks.length) {
+			int newLength = Math.max(chunks.length * 2, chunkIdx + 1);
+
+			chunks = Arrays.copyOf(chunks, newLength);
+			counts = Arrays.copyOf(counts, newLength);
+		}
+
+		Object[] chunk = chunks[chunkIdx];
+
+		if (chunk == null) {
+			chunk = new Object[CHUNK_SIZE];
+
+			Arrays.fill(chunk, UNSET);
+
+			chunks[chunkIdx] = chunk;
+		}
+
+		return chunk;
+	}
+
+	// Reset a slot to the default, freeing its chunk if it is now empty.
+	private void clear(int chunkIdx, int slot) {
+		Object[] chunk = chunks[chunkIdx];
+
+		// The chunk may already have been freed, or never allocated
+		if (chunk == null || chunk[slot] == UNSET) return;
+
+		chunk[slot] = UNSET;
+
+		nonDefault       -= 1;
+		counts[chunkIdx] -= 1;
+
+		if (counts[chunkIdx] == 0) chunks[chunkIdx] = null;
+	}
+}
@@ -0,0 +1,517 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import bjc.data.Pair;
+
+/**
+ * A frozen, numeric form of a {@link PairMap} keyed by row &amp; column
+ * indexes.
+ *
+ * The entries are stored twice: once in compressed sparse row (CSR) form, and
+ * once in compressed sparse column (CSC) form. Each form is three primitive
+ * arrays: one giving where each row/column starts, one giving the index of
+ * each entry in the other dimension, and one giving the value of each entry.
+ * This means iterating over either a row or a column just walks an array, and
+ * taking the transpose doesn't copy anything.
+ *
+ * The multiplication methods can optionally split their work across threads,
+ * by dividing the rows into blocks with roughly the same number of entries.
+ *
+ * @author Ben Culkin
+ */
+public class SparseMatrix {
+	/**
+	 * Consumer for the entries of a sparse matrix.
+	 *
+	 * @author Ben Culkin
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		/**
+		 * Handle an entry of the matrix.
+		 *
+		 * @param row   The row of the entry.
+		 * @param col   The column of the entry.
+		 * @param value The value of the entry.
+		 */
+		void accept(int row, int col, double value);
+	}
+
+	/* One compressed form of the entries; either by row, or by column. */
+	private static final class Compressed {
+		// Where each row (column) starts in the other arrays; has a trailing entry
+		final int[]    starts;
+		// The column (row) of each entry
+		final int[]    indexes;
+		final double[] values;
+
+		Compressed(int[] starts, int[] indexes, double[] values) {
+			this.starts  = starts;
+			this.indexes = indexes;
+			this.values  = values;
+		}
+
+		// Re-compress these entries along the other dimension.
+		Compressed flip(int otherCount) {
+			int[]    otherStarts  = new int[otherCount + 1];
+			int[]    otherIndexes = new int[indexes.length];
+			double[] otherValues  = new double[values.length];
+
+			for (int idx : indexes) otherStarts[idx + 1] += 1;
+			for (int i = 0; i < otherCount; i++) otherStarts[i + 1] += otherStarts[i];
+
+			int[] fill = Arrays.copyOf(otherStarts, otherCount);
+
+			// Since we go in order, each line of the result ends up sorted
+			for (int line = 0; line < starts.length - 1; line++) {
+				for (int entry = starts[line]; entry < starts[line + 1]; entry++) {
+					int pos = fill[indexes[entry]]++;
+
+					otherIndexes[pos] = line;
+					otherValues[pos]  = values[entry];
+				}
+			}
+
+			return new Compressed(otherStarts, otherIndexes, otherValues);
+		}
+	}
+
+	private final int rowCount;
+	private final int colCount;
+
+	private final Compressed byRow;
+	private final Compressed byCol;
+
+	private SparseMatrix(int rowCount, int colCount, Compressed byRow, Compressed byCol) {
+		this.rowCount = rowCount;
+		this.colCount = colCount;
+		this.byRow    = byRow;
+		this.byCol    = byCol;
+	}
+
+	private SparseMatrix(int rowCount, int colCount, Compressed byRow) {
+		this(rowCount, colCount, byRow, byRow.flip(colCount));
+	}
+
+	/**
+	 * Compile a pair map into a sparse matrix, just big enough to hold all of its
+	 * entries.
+	 *
+	 * @param map The map to compile. The left key is the row, and the right key
+	 *            is the column.
+	 *
+	 * @return A sparse matrix with the same entries as the map.
+	 *
+	 * @throws IllegalArgumentException If any of the indexes are negative.
+	 */
+	public static SparseMatrix of(PairMap<Integer, Integer, ? extends Number> map) {
+		int rows = 0;
+		int cols = 0;
+
+		for (Pair<Integer, Integer> key : map.keySet()) {
+			rows = Math.max(rows, key.getLeft() + 1);
+			cols = Math.max(cols, key.getRight() + 1);
+		}
+
+		return of(map, rows, cols);
+	}
+
+	/**
+	 * Compile a pair map into a sparse matrix.
+	 *
+	 * @param map  The map to compile. The left key is the row, and the right key
+	 *             is the column.
+	 * @param rows The number of rows in the matrix.
+	 * @param cols The number of columns in the matrix.
+	 *
+	 * @return A sparse matrix with the same entries as the map.
+	 *
+	 * @throws IllegalArgumentException If any of the indexes are outside of the
+	 *                                  matrix.
+	 */
+	public static SparseMatrix of(PairMap<Integer, Integer, ? extends Number> map, int rows,
+			int cols) {
+		if (rows < 0 || cols < 0) throw new IllegalArgumentException("Matrix size must not be negative");
+
+		int[] colStarts = new int[cols + 1];
+
+		for (Pair<Integer, Integer> key : map.keySet()) {
+			int row = key.getLeft();
+			int col = key.getRight();
+
+			if (row < 0 || row >= rows || col < 0 || col >= cols) {
+				throw new IllegalArgumentException(String.format(
+						"Entry (%d, %d) is outside of a %dx%d matrix", row, col, rows, cols));
+			}
+
+			colStarts[col + 1] += 1;
+		}
+
+		for (int i = 0; i < cols; i++) colStarts[i + 1] += colStarts[i];
+
+		// Bucket the entries by column, in no particular order within columns
+		int[]    fill    = Arrays.copyOf(colStarts, cols);
+		int[]    rowIdxs = new int[map.size()];
+		double[] vals    = new double[map.size()];
+
+		map.forEach((key, value) -> {
+			int pos = fill[key.getRight()]++;
+
+			rowIdxs[pos] = key.getLeft();
+			vals[pos]    = value.doubleValue();
+		});
+
+		// Flipping twice gives both forms, each sorted
+		Compressed byRow = new Compressed(colStarts, rowIdxs, vals).flip(rows);
+
+		return new SparseMatrix(rows, cols, byRow);
+	}
+
+	/**
+	 * Get the number of rows in this matrix.
+	 *
+	 * @return The number of rows in this matrix.
+	 */
+	public int rows() {
+		return rowCount;
+	}
+
+	/**
+	 * Get the number of columns in this matrix.
+	 *
+	 * @return The number of columns in this matrix.
+	 */
+	public int columns() {
+		return colCount;
+	}
+
+	/**
+	 * Get the number of entries stored in this matrix.
+	 *
+	 * @return The number of entries stored in this matrix.
+	 */
+	public int nonZeros() {
+		return byRow.values.length;
+	}
+
+	/**
+	 * Get an entry of this matrix.
+	 *
+	 * @param row The row of the entry.
+	 * @param col The column of the entry.
+	 *
+	 * @return The value of the entry, or zero if it isn't stored.
+	 */
+	public double get(int row, int col) {
+		Objects.checkIndex(row, rowCount);
+		Objects.checkIndex(col, colCount);
+
+		int pos = Arrays.binarySearch(byRow.indexes, byRow.starts[row], byRow.starts[row + 1], col);
+
+		return pos < 0 ? 0 : byRow.values[pos];
+	}
+
+	/**
+	 * Perform an action for each stored entry in a row, in column order.
+	 *
+	 * @param row    The row to iterate over.
+	 * @param action The action to perform.
+	 */
+	public void forEachInRow(int row, EntryConsumer action) {
+		Objects.checkIndex(row, rowCount);
+
+		for (int entry = byRow.starts[row]; entry < byRow.starts[row + 1]; entry++) {
+			action.accept(row, byRow.indexes[entry], byRow.values[entry]);
+		}
+	}
+
+	/**
+	 * Perform an action for each stored entry in a column, in row order.
+	 *
+	 * @param col    The column to iterate over.
+	 * @param action The action to perform.
+	 */
+	public void forEachInColumn(int col, EntryConsumer action) {
+		Objects.checkIndex(col, colCount);
+
+		for (int entry = byCol.starts[col]; entry < byCol.starts[col + 1]; entry++) {
+			action.accept(byCol.indexes[entry], col, byCol.values[entry]);
+		}
+	}
+
+	/**
+	 * Perform an action for each stored entry, in row order.
+	 *
+	 * @param action The action to perform.
+	 */
+	public void forEach(EntryConsumer action) {
+		for (int row = 0; row < rowCount; row++) {
+			for (int entry = byRow.starts[row]; entry < byRow.starts[row + 1]; entry++) {
+				action.accept(row, byRow.indexes[entry], byRow.values[entry]);
+			}
+		}
+	}
+
+	/**
+	 * Get the transpose of this matrix.
+	 *
+	 * This shares its storage with this matrix, so it takes constant time.
+	 *
+	 * @return The transpose of this matrix.
+	 */
+	public SparseMatrix transpose() {
+		return new SparseMatrix(colCount, rowCount, byCol, byRow);
+	}
+
+	/**
+	 * Multiply this matrix by a dense vector.
+	 *
+	 * @param vector The vector to multiply by.
+	 *
+	 * @return The product of this matrix and the vector.
+	 */
+	public double[] multiply(double[] vector) {
+		return multiply(vector, false);
+	}
+
+	/**
+	 * Multiply this matrix by a dense vector.
+	 *
+	 * @param vector   The vector to multiply by.
+	 * @param parallel Whether to split the rows across multiple threads.
+	 *
+	 * @return The product of this matrix and the vector.
+	 *
+	 * @throws IllegalArgumentException If the vector is the wrong length.
+	 */
+	public double[] multiply(double[] vector, boolean parallel) {
+		if (vector.length != colCount) {
+			throw new IllegalArgumentException(String.format(
+					"Can't multiply %dx%d matrix by vector of length %d", rowCount, colCount, vector.length));
+		}
+
+		double[] result = new double[rowCount];
+
+		int[] blocks = rowBlocks(parallel);
+
+		IntStream blockStream = IntStream.range(0, blocks.length - 1);
+		if (parallel) blockStream = blockStream.parallel();
+
+		blockStream.forEach((block) -> {
+			for (int row = blocks[block]; row < blocks[block + 1]; row++) {
+				double sum = 0;
+
+				for (int entry = byRow.starts[row]; entry < byRow.starts[row + 1]; entry++) {
+					sum += byRow.values[entry] * vector[byRow.indexes[entry]];
+				}
+
+				result[row] = sum;
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Multiply this matrix by another sparse matrix.
+	 *
+	 * @param other The matrix to multiply by.
+	 *
+	 * @return The product of the two matrices.
+	 */
+	public SparseMatrix multiply(SparseMatrix other) {
+		return multiply(other, false);
+	}
+
+	/**
+	 * Multiply this matrix by another sparse matrix.
+	 *
+	 * @param other    The matrix to multiply by.
+	 * @param parallel Whether to split the rows across multiple threads.
+	 *
+	 * @return The product of the two matrices.
+	 *
+	 * @throws IllegalArgumentException If the matrices are the wrong sizes.
+	 */
+	public SparseMatrix multiply(SparseMatrix other, boolean parallel) {
+		if (colCount != other.rowCount) {
+			throw new IllegalArgumentException(String.format("Can't multiply %dx%d matrix by %dx%d matrix",
+					rowCount, colCount, other.rowCount, other.colCount));
+		}
+
+		int[] blocks = rowBlocks(parallel);
+
+		IntStream blockStream = IntStream.range(0, blocks.length - 1);
+		if (parallel) blockStream = blockStream.parallel();
+
+		// Each block of rows is multiplied on its own, then they are stitched
+		Compressed[] parts = blockStream
+				.mapToObj((block) -> multiplyRows(other, blocks[block], blocks[block + 1]))
+				.toArray(Compressed[]::new);
+
+		int total = 0;
+		for (Compressed part : parts) total += part.indexes.length;
+
+		int[]    starts  = new int[rowCount + 1];
+		int[]    indexes = new int[total];
+		double[] values  = new double[total];
+
+		int offset = 0;
+		for (int block = 0; block < parts.length; block++) {
+			Compressed part = parts[block];
+
+			for (int row = blocks[block]; row < blocks[block + 1]; row++) {
+				starts[row + 1] = offset + part.starts[row - blocks[block] + 1];
+			}
+
+			System.arraycopy(part.indexes, 0, indexes, offset, part.indexes.length);
+			System.arraycopy(part.values, 0, values, offset, part.values.length);
+
+			offset += part.indexes.length;
+		}
+
+		return new SparseMatrix(rowCount, other.colCount, new Compressed(starts, indexes, values));
+	}
+
+	// Multiply a block of rows by another matrix, using a dense accumulator.
+	private Compressed multiplyRows(SparseMatrix other, int fromRow, int toRow) {
+		double[] accum   = new double[other.colCount];
+		// The last row each column was touched in, plus one
+		int[]    marks   = new int[other.colCount];
+		int[]    touched = new int[other.colCount];
+
+		int[]    starts  = new int[toRow - fromRow + 1];
+		int[]    indexes = new int[16];
+		double[] values  = new double[16];
+
+		int count = 0;
+
+		for (int row = fromRow; row < toRow; row++) {
+			int touchCount = 0;
+
+			for (int entry = byRow.starts[row]; entry < byRow.starts[row + 1]; entry++) {
+				int    mid = byRow.indexes[entry];
+				double lhs = byRow.values[entry];
+
+				for (int otherEntry = other.byRow.starts[mid]; otherEntry < other.byRow.starts[mid + 1];
+						otherEntry++) {
+					int col = other.byRow.indexes[otherEntry];
+
+					if (marks[col] != row + 1) {
+						marks[col]            = row + 1;
+						accum[col]            = 0;
+						touched[touchCount++] = col;
+					}
+
+					accum[col] += lhs * other.byRow.values[otherEntry];
+				}
+			}
+
+			Arrays.sort(touched, 0, touchCount);
+
+			if (count + touchCount > indexes.length) {
+				int newLength = Math.max(indexes.length * 2, count + touchCount);
+
+				indexes = Arrays.copyOf(indexes, newLength);
+				values  = Arrays.copyOf(values, newLength);
+			}
+
+			for (int i = 0; i < touchCount; i++) {
+				indexes[count] = touched[i];
+				values[count]  = accum[touched[i]];
+
+				count += 1;
+			}
+
+			starts[row - fromRow + 1] = count;
+		}
+
+		return new Compressed(starts, Arrays.copyOf(indexes, count), Arrays.copyOf(values, count));
+	}
+
+	// Split the rows into blocks with about the same number of entries each.
+	private int[] rowBlocks(boolean parallel) {
+		int blockCount = parallel ? Math.max(1, Math.min(rowCount,
+				ForkJoinPool.getCommonPoolParallelism() * 4)) : 1;
+
+		int[] blocks = new int[blockCount + 1];
+
+		int entries = nonZeros();
+
+		for (int block = 1; block < blockCount; block++) {
+			int target = (int) ((long) entries * block / blockCount);
+
+			int pos = Arrays.binarySearch(byRow.starts, 0, rowCount + 1, target);
+			if (pos < 0) pos = -pos - 1;
+
+			blocks[block] = Math.max(blocks[block - 1], Math.min(pos, rowCount));
+		}
+
+		blocks[blockCount] = rowCount;
+
+		return blocks;
+	}
+
+	/**
+	 * Convert this matrix back into a pair map.
+	 *
+	 * @return A pair map with the same entries as this matrix.
+	 */
+	public PairMap<Integer, Integer, Double> toPairMap() {
+		PairMap<Integer, Integer, Double> map = new PairMap<>();
+
+		forEach((row, col, value) -> map.biput(row, col, value));
+
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SparseMatrix [%dx%d, %d entries]", rowCount, colCount, nonZeros());
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 31 * rowCount + colCount;
+
+		result = 31 * result + Arrays.hashCode(byRow.starts);
+		result = 31 * result + Arrays.hashCode(byRow.indexes);
+		result = 31 * result + Arrays.hashCode(byRow.values);
+
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)                  return true;
+		if (obj == null)                  return false;
+		if (getClass() != obj.getClass()) return false;
+
+		SparseMatrix other = (SparseMatrix) obj;
+
+		return rowCount == other.rowCount && colCount == other.colCount
+				&& Arrays.equals(byRow.starts, other.byRow.starts)
+				&& Arrays.equals(byRow.indexes, other.byRow.indexes)
+				&& Arrays.equals(byRow.values, other.byRow.values);
+	}
+}
@@ -48,7 +48,7 @@ public class TSetMultimap<KeyType, ValueType> implements Iterable<Pair<KeyType,
 				Entry<KeyType,ThresholdSet<ValueType>> entry = mapIter.next();
 				
 				currKey = entry.getKey();
-				setIter = entry.getValue().setView().iterator();
+				setIter = entry.getValue().valueView().iterator();
 			}
 			
 			return setIter.hasNext();
@@ -61,6 +61,38 @@ public class TSetMultimap<KeyType, ValueType> implements Iterable<Pair<KeyType,
 		}
 	}
 
+	// Live, read-only view of the values for a key
+	private final class ValueView extends AbstractSet<ValueType> {
+		private final KeyType key;
+
+		ValueView(KeyType key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			ThresholdSet<ValueType> values = backing.get(key);
+
+			return values != null && values.valueView().contains(o);
+		}
+
+		@Override
+		public int size() {
+			ThresholdSet<ValueType> values = backing.get(key);
+
+			return values == null ? 0 : values.size();
+		}
+
+		@Override
+		public Iterator<ValueType> iterator() {
+			ThresholdSet<ValueType> values = backing.get(key);
+
+			if (values == null) return Collections.emptyIterator();
+
+			return values.valueView().iterator();
+		}
+	}
+
 	private Map<KeyType, ThresholdSet<ValueType>> backing;
 
 	/**
@@ -80,10 +112,14 @@ public class TSetMultimap<KeyType, ValueType> implements Iterable<Pair<KeyType,
 
 	@Override
 	public void remove(KeyType key, ValueType value) {
+		ThresholdSet<ValueType> values = backing.get(key);
+
 		// We have no values for that key; bail.
-		if (!backing.containsKey(key)) return;
-		
-		backing.get(key).remove(value);
+		if (values == null) return;
+
+		values.remove(value);
+
+		if (values.size() == 0) backing.remove(key);
 	}
 
 	@Override
@@ -91,18 +127,28 @@ public class TSetMultimap<KeyType, ValueType> implements Iterable<Pair<KeyType,
 		backing.remove(key);
 	}
 
+	/**
+	 * Get a set containing all of the values that are recorded for that key.
+	 *
+	 * The returned set is a read-only view, and will reflect any changes made to
+	 * the values for that key.
+	 *
+	 * @param key The key to look up values for.
+	 *
+	 * @return A view of all of the values that have been mapped to that key.
+	 */
 	@Override
 	public Set<ValueType> get(KeyType key) {
-		if (!backing.containsKey(key)) return new HashSet<>();
-		else                           return backing.get(key).values();
+		return new ValueView(key);
 	}
 
 	@Override
 	public Optional<ValueType> getSingle(KeyType key) {
-		Set<ValueType> set = get(key);
-		
-		if (set.size() == 1) return Optional.of(set.iterator().next());
-		return Optional.empty();
+		ThresholdSet<ValueType> values = backing.get(key);
+
+		if (values == null || values.size() != 1) return Optional.empty();
+
+		return Optional.of(values.valueView().iterator().next());
 	}
 
 	@Override
@@ -112,9 +158,20 @@ public class TSetMultimap<KeyType, ValueType> implements Iterable<Pair<KeyType,
 
 	@Override
 	public boolean contains(KeyType key, ValueType value) {
-		if (!backing.containsKey(key)) return false;
+		ThresholdSet<ValueType> values = backing.get(key);
 
-		return backing.get(key).contains(value) > 0;
+		if (values == null) return false;
+
+		return values.contains(value) > 0;
+	}
+
+	/**
+	 * Compile this multimap into a compact, read-only form.
+	 *
+	 * @return A frozen multimap containing the same mappings as this one.
+	 */
+	public FrozenSetMultimap<KeyType, ValueType> compile() {
+		return new FrozenSetMultimap<>(backing);
 	}
 	
 	@Override
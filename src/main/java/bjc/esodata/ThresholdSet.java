@@ -21,7 +21,6 @@ import java.util.*;
 
 import bjc.data.Pair;
 import bjc.data.SimplePair;
-import bjc.data.TransformIterator;
 
 /**
  * Represents a counted set, that overflows to a map.
@@ -36,7 +35,12 @@ import bjc.data.TransformIterator;
  * readded to the set.
  *
  * The iterator that this type gives by default is an iterator over all of the
- * values in the set, not including any of those in the map.
+ * values in the map, not including any of those in the set.
+ *
+ * Internally, both the set and the map are stored as a single open-addressed
+ * table of keys, with a parallel array of counts; the set is just the keys with
+ * a count of one. This means that each operation only needs to find the key
+ * once, and that the counts don't need to be boxed.
  *
  * @param <KeyType> The value being counted.
  *
@@ -104,21 +108,184 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 		}
 	}
 
-	// Set of uniquely stored keys
-	private Set<KeyType> keySet;
+	// Read-only view of every key in this collection, regardless of count
+	private class ValueView extends AbstractSet<KeyType> {
+		@Override
+		public boolean contains(Object o) {
+			return find(maskNull(o)) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<KeyType> iterator() {
+			return new TableIterator<KeyType>(1, Integer.MAX_VALUE) {
+				@Override
+				KeyType make(int idx) {
+					return keyAt(idx);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("Value view is read-only");
+				}
+			};
+		}
+	}
+
+	// Iterator over the entries in the table with a given range of counts.
+	private abstract class TableIterator<T> implements Iterator<T> {
+		private final int minCount;
+		private final int maxCount;
+
+		private int next = -1;
+		private int last = -1;
+
+		TableIterator(int minCount, int maxCount) {
+			this.minCount = minCount;
+			this.maxCount = maxCount;
+
+			advance();
+		}
+
+		private void advance() {
+			do {
+				next += 1;
+			} while (next < keys.length && !matches(next));
+		}
+
+		private boolean matches(int idx) {
+			Object key = keys[idx];
+
+			if (key == null || key == TOMBSTONE) return false;
+
+			return counts[idx] >= minCount && counts[idx] <= maxCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		@Override
+		public T next() {
+			if (next >= keys.length) throw new NoSuchElementException();
+
+			last = next;
+			advance();
+
+			return make(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0 || keys[last] == TOMBSTONE) throw new IllegalStateException();
+
+			// Removing only leaves a tombstone, so the layout doesn't shift under us.
+			removeAt(last);
+		}
+
+		abstract T make(int idx);
+	}
+
+	// Markers for null keys, and for slots whose key was removed.
+	private static final Object NULL_KEY  = new Object();
+	private static final Object TOMBSTONE = new Object();
+
+	private static final int INITIAL_CAPACITY = 16;
 
-	// @TODO :CountMap Ben Culkin 6/19/2019
-	// Replace this with a CountSet or some equivalent concept, whenever that gets
-	// written, if that
-	// gets written
-	private Map<KeyType, Integer> keyMap;
+	/*
+	 * The keys and their counts, stored in an open-addressed table using linear
+	 * probing. Every key in the table has a count of at least 1.
+	 */
+	private Object[] keys;
+	private int[]    counts;
+
+	// The number of keys in the table, and the number of removed slots
+	private int size;
+	private int tombstones;
+
+	// The number of keys with a count of exactly 1
+	private int singles;
 
 	/**
 	 * Create a new empty threshold set.
 	 */
 	public ThresholdSet() {
-		keySet = new HashSet<>();
-		keyMap = new HashMap<>();
+		keys   = new Object[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+	}
+
+	private static Object maskNull(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private KeyType keyAt(int idx) {
+		Object key = keys[idx];
+
+		return key == NULL_KEY ? null : (KeyType) key;
+	}
+
+	private static int slotFor(Object key, int length) {
+		int hash = key.hashCode();
+
+		return (hash ^ (hash >>> 16)) & (length - 1);
+	}
+
+	// Find the slot a key is stored in, or -1 if it isn't stored.
+	private int find(Object key) {
+		int idx = slotFor(key, keys.length);
+
+		while (true) {
+			Object cur = keys[idx];
+
+			if (cur == null)                         return -1;
+			if (cur != TOMBSTONE && cur.equals(key)) return idx;
+
+			idx = (idx + 1) & (keys.length - 1);
+		}
+	}
+
+	private void removeAt(int idx) {
+		if (counts[idx] == 1) singles -= 1;
+
+		keys[idx]   = TOMBSTONE;
+		counts[idx] = 0;
+
+		size       -= 1;
+		tombstones += 1;
+	}
+
+	// Rebuild the table, dropping tombstones and growing it if needed.
+	private void rehash() {
+		int newCap = keys.length;
+
+		// Leave plenty of room, so we aren't rehashing again right away
+		while (size * 4 >= newCap) newCap *= 2;
+
+		Object[] oldKeys   = keys;
+		int[]    oldCounts = counts;
+
+		keys   = new Object[newCap];
+		counts = new int[newCap];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object key = oldKeys[i];
+
+			if (key == null || key == TOMBSTONE) continue;
+
+			int idx = slotFor(key, newCap);
+			while (keys[idx] != null) idx = (idx + 1) & (newCap - 1);
+
+			keys[idx]   = key;
+			counts[idx] = oldCounts[i];
+		}
+
+		tombstones = 0;
 	}
 
 	/**
@@ -146,26 +313,46 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	 *         always be &gt; 0.
 	 */
 	public int add(KeyType key) {
-		if (keySet.contains(key)) {
-			// Promote to counted item
-			keySet.remove(key);
+		Object masked = maskNull(key);
 
-			keyMap.put(key, 2);
+		int idx  = slotFor(masked, keys.length);
+		int free = -1;
 
-			return 2;
-		} else if (keyMap.containsKey(key)) {
-			// Increment count
-			int cnt = keyMap.get(key) + 1;
+		while (true) {
+			Object cur = keys[idx];
 
-			keyMap.put(key, cnt);
+			if (cur == null) break;
 
-			return cnt;
-		} else {
-			// New key
-			keySet.add(key);
+			if (cur == TOMBSTONE) {
+				if (free < 0) free = idx;
+			} else if (cur.equals(masked)) {
+				// Increment count
+				int cnt = ++counts[idx];
+
+				if (cnt == 2) singles -= 1;
+
+				return cnt;
+			}
 
-			return 1;
+			idx = (idx + 1) & (keys.length - 1);
 		}
+
+		// New key
+		if (free >= 0) {
+			idx = free;
+
+			tombstones -= 1;
+		}
+
+		keys[idx]   = masked;
+		counts[idx] = 1;
+
+		size    += 1;
+		singles += 1;
+
+		if ((size + tombstones) * 2 > keys.length) rehash();
+
+		return 1;
 	}
 
 	/**
@@ -193,31 +380,24 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	 *         if that key wasn't in the collection beforehand.
 	 */
 	public int remove(KeyType key) {
-		if (keySet.contains(key)) {
-			// No more occurrences
-			keySet.remove(key);
+		int idx = find(maskNull(key));
 
-			return 0;
-		} else if (keyMap.containsKey(key)) {
-			// Decrement count
-			int cnt = keyMap.get(key) - 1;
+		// We don't know about that key
+		if (idx < 0) return -1;
 
-			if (cnt == 1) {
-				// Move key to set
-				keyMap.remove(key);
+		if (counts[idx] == 1) {
+			// No more occurrences
+			removeAt(idx);
 
-				keySet.add(key);
+			return 0;
+		}
 
-				return 1;
-			}
+		// Decrement count
+		int cnt = --counts[idx];
 
-			keyMap.put(key, cnt);
+		if (cnt == 1) singles += 1;
 
-			return cnt;
-		} else {
-			// We don't know about that key
-			return -1;
-		}
+		return cnt;
 	}
 
 	/**
@@ -244,12 +424,11 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	 * @return The number of times the key occurs; -1 if it doesn't occur.
 	 */
 	public int contains(KeyType key) {
-		if (keySet.contains(key))
-			return 1;
-		if (!keyMap.containsKey(key))
-			return -1;
+		int idx = find(maskNull(key));
+
+		if (idx < 0) return -1;
 
-		return keyMap.get(key);
+		return counts[idx];
 	}
 
 	/**
@@ -260,12 +439,35 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	public Set<KeyType> values() {
 		Set<KeyType> retSet = new HashSet<>();
 
-		retSet.addAll(keySet);
-		retSet.addAll(keyMap.keySet());
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null && keys[i] != TOMBSTONE) retSet.add(keyAt(i));
+		}
 
 		return retSet;
 	}
 
+	/**
+	 * Get a read-only view of all of the values that are in this set at least
+	 * once.
+	 *
+	 * Unlike {@link ThresholdSet#values()}, this doesn't copy anything, and will
+	 * reflect any changes made to this set.
+	 *
+	 * @return A view of every value that occurs at least once in this set.
+	 */
+	public Set<KeyType> valueView() {
+		return new ValueView();
+	}
+
+	/**
+	 * Get the number of distinct values in this set.
+	 *
+	 * @return The number of values that occur at least once in this set.
+	 */
+	public int size() {
+		return size;
+	}
+
 	/**
 	 * Get a view of this collection as a java.util.Set.
 	 *
@@ -277,8 +479,12 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 
 	@Override
 	public Iterator<Pair<KeyType, Integer>> iterator() {
-		return new TransformIterator<>(keyMap.entrySet().iterator(),
-				(entry) -> new SimplePair<>(entry.getKey(), entry.getValue()));
+		return new TableIterator<Pair<KeyType, Integer>>(2, Integer.MAX_VALUE) {
+			@Override
+			Pair<KeyType, Integer> make(int idx) {
+				return new SimplePair<>(keyAt(idx), counts[idx]);
+			}
+		};
 	}
 
 	/**
@@ -302,10 +508,20 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 
+		StringJoiner setPart = new StringJoiner(", ", "[", "]");
+		StringJoiner mapPart = new StringJoiner(", ", "{", "}");
+
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null || keys[i] == TOMBSTONE) continue;
+
+			if (counts[i] == 1) setPart.add(String.valueOf(keyAt(i)));
+			else                mapPart.add(keyAt(i) + "=" + counts[i]);
+		}
+
 		sb.append("Set: ");
-		sb.append(keySet);
+		sb.append(setPart);
 		sb.append("\nMap: ");
-		sb.append(keyMap);
+		sb.append(mapPart);
 
 		return sb.toString();
 	}
@@ -313,10 +529,15 @@ public class ThresholdSet<KeyType> implements Iterable<Pair<KeyType, Integer>> {
 	// Implementation methods for setView
 
 	int setSize() {
-		return keySet.size();
+		return singles;
 	}
 
 	Iterator<KeyType> setIterator() {
-		return keySet.iterator();
+		return new TableIterator<KeyType>(1, 1) {
+			@Override
+			KeyType make(int idx) {
+				return keyAt(idx);
+			}
+		};
 	}
 }
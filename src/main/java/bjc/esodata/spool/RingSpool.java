@@ -0,0 +1,345 @@
+/* 
+ * esodata - data structures and other things, of varying utility
+ * Copyright 2022, Ben Culkin
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *   
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package bjc.esodata.spool;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.*;
+
+/**
+ * A bounded spool, which doesn't lock.
+ *
+ * Items are stored in a ring of slots, each of which has a sequence number
+ * saying which lap around the ring it is ready for. Producers and consumers
+ * claim runs of slots by moving the tail and head along with a compare and
+ * swap, then fill or empty them and bump their sequence numbers to hand them
+ * over; a batch of items only takes one compare and swap.
+ *
+ * Blocking operations spin through the ring, then park until the other side
+ * makes progress. Closing the spool marks the tail, so that no producer can
+ * sneak an item in after it has been closed.
+ *
+ * @author Ben Culkin
+ *
+ * @param <Contained> The type of item in the spool.
+ */
+public class RingSpool<Contained> implements Spool<Contained> {
+	// Set in the tail once the spool has been closed
+	private static final long CLOSED = Long.MIN_VALUE;
+
+	private final Object[]        items;
+	private final AtomicLongArray sequences;
+	private final int             mask;
+
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	// Threads waiting for items, and threads waiting for room
+	private final Queue<Thread> notEmpty = new ConcurrentLinkedQueue<>();
+	private final Queue<Thread> notFull  = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Create a new spool.
+	 *
+	 * @param capacity The number of items the spool can hold; this is rounded up
+	 *                 to a power of two, and to at least two.
+	 */
+	public RingSpool(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30, was " + capacity);
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+
+		// With one slot, 'filled' and 'free for the next lap' would be the same sequence
+		size = Math.max(size, 2);
+
+		items     = new Object[size];
+		sequences = new AtomicLongArray(size);
+		mask      = size - 1;
+
+		for (int i = 0; i < size; i++) sequences.set(i, i);
+	}
+
+	@Override
+	public boolean offer(Contained item) {
+		Objects.requireNonNull(item, "Spools can't contain null");
+
+		while (true) {
+			long pos = tail.get();
+
+			if (pos < 0) throw new IllegalStateException("Spool has been closed");
+
+			int  idx = (int) pos & mask;
+			long seq = sequences.get(idx);
+
+			if (seq == pos) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					items[idx] = item;
+					sequences.set(idx, pos + 1);
+
+					signal(notEmpty);
+
+					return true;
+				}
+			} else if (seq < pos) {
+				// The slot is still holding an item from the last lap
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public int offerAll(List<? extends Contained> batch) {
+		for (Contained item : batch) Objects.requireNonNull(item, "Spools can't contain null");
+
+		return offerFrom(batch, 0);
+	}
+
+	private int offerFrom(List<? extends Contained> batch, int from) {
+		int wanted = Math.min(batch.size() - from, items.length);
+
+		if (wanted == 0) return 0;
+
+		while (true) {
+			long pos = tail.get();
+
+			if (pos < 0) throw new IllegalStateException("Spool has been closed");
+
+			int count = 0;
+			while (count < wanted && sequences.get((int) (pos + count) & mask) == pos + count) {
+				count += 1;
+			}
+
+			if (count == 0) {
+				if (sequences.get((int) pos & mask) < pos) return 0;
+
+				continue;
+			}
+
+			// Every slot we checked is free, and only whoever claims it can change that
+			if (tail.compareAndSet(pos, pos + count)) {
+				for (int i = 0; i < count; i++) {
+					int idx = (int) (pos + i) & mask;
+
+					items[idx] = batch.get(from + i);
+					sequences.set(idx, pos + i + 1);
+				}
+
+				signal(notEmpty);
+
+				return count;
+			}
+		}
+	}
+
+	@Override
+	public void put(Contained item) throws InterruptedException {
+		while (!offer(item)) await(notFull, this::writable);
+	}
+
+	@Override
+	public void putAll(List<? extends Contained> batch) throws InterruptedException {
+		for (Contained item : batch) Objects.requireNonNull(item, "Spools can't contain null");
+
+		int done = 0;
+
+		while (done < batch.size()) {
+			int count = offerFrom(batch, done);
+
+			if (count == 0) await(notFull, this::writable);
+			else            done += count;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Contained poll() {
+		while (true) {
+			long pos = head.get();
+			int  idx = (int) pos & mask;
+			long seq = sequences.get(idx);
+
+			if (seq == pos + 1) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					Object item = items[idx];
+
+					items[idx] = null;
+					sequences.set(idx, pos + items.length);
+
+					signal(notFull);
+
+					return (Contained) item;
+				}
+			} else if (seq < pos + 1) {
+				// Nothing has been put in the slot yet
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public Contained take() throws InterruptedException {
+		while (true) {
+			Contained item = poll();
+
+			if (item != null)  return item;
+			if (isComplete())  return null;
+
+			await(notEmpty, this::readable);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public int drain(Consumer<? super Contained> sink, int max) {
+		int wanted = Math.min(max, items.length);
+
+		if (wanted <= 0) return 0;
+
+		while (true) {
+			long pos = head.get();
+
+			int count = 0;
+			while (count < wanted && sequences.get((int) (pos + count) & mask) == pos + count + 1) {
+				count += 1;
+			}
+
+			if (count == 0) {
+				if (sequences.get((int) pos & mask) < pos + 1) return 0;
+
+				continue;
+			}
+
+			if (head.compareAndSet(pos, pos + count)) {
+				// Hand the slots back before calling the sink, so it can't hold them up
+				Object[] taken = new Object[count];
+
+				for (int i = 0; i < count; i++) {
+					int idx = (int) (pos + i) & mask;
+
+					taken[i]   = items[idx];
+					items[idx] = null;
+					sequences.set(idx, pos + i + items.length);
+				}
+
+				signal(notFull);
+
+				for (Object item : taken) sink.accept((Contained) item);
+
+				return count;
+			}
+		}
+	}
+
+	@Override
+	public int awaitDrain(Consumer<? super Contained> sink, int max) throws InterruptedException {
+		if (max <= 0) return 0;
+
+		while (true) {
+			int count = drain(sink, max);
+
+			if (count > 0)    return count;
+			if (isComplete()) return 0;
+
+			await(notEmpty, this::readable);
+		}
+	}
+
+	@Override
+	public void close() {
+		long pos = tail.get();
+
+		while (pos >= 0 && !tail.compareAndSet(pos, pos | CLOSED)) pos = tail.get();
+
+		// Wake everyone up, so producers can fail and consumers can finish
+		signal(notEmpty);
+		signal(notFull);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return tail.get() < 0;
+	}
+
+	@Override
+	public boolean isComplete() {
+		long pos = tail.get();
+
+		return pos < 0 && head.get() == (pos & ~CLOSED);
+	}
+
+	@Override
+	public int size() {
+		long start = head.get();
+		long end   = tail.get() & ~CLOSED;
+
+		return (int) Math.max(0, Math.min(end - start, items.length));
+	}
+
+	@Override
+	public int capacity() {
+		return items.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RingSpool [size=%d, capacity=%d, closed=%s]", size(), capacity(), isClosed());
+	}
+
+	private boolean readable() {
+		long pos = head.get();
+
+		return isComplete() || sequences.get((int) pos & mask) == pos + 1;
+	}
+
+	private boolean writable() {
+		long pos = tail.get();
+
+		return pos < 0 || sequences.get((int) pos & mask) == pos;
+	}
+
+	/*
+	 * Park until the other side makes progress. Waiters enqueue themselves
+	 * before checking, and the other side checks for waiters after publishing,
+	 * so one of them always sees the other.
+	 */
+	private void await(Queue<Thread> waiters, BooleanSupplier ready) throws InterruptedException {
+		Thread current = Thread.currentThread();
+
+		waiters.add(current);
+
+		try {
+			if (!ready.getAsBoolean()) LockSupport.park(this);
+		} finally {
+			waiters.remove(current);
+		}
+
+		if (Thread.interrupted()) throw new InterruptedException();
+	}
+
+	private static void signal(Queue<Thread> waiters) {
+		if (waiters.isEmpty()) return;
+
+		Thread waiter;
+		while ((waiter = waiters.poll()) != null) LockSupport.unpark(waiter);
+	}
+}
@@ -17,6 +17,145 @@
  */
 package bjc.esodata.spool;
 
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A bounded channel which hands items off from a set of producers to a set of
+ * consumers.
+ *
+ * Every operation comes in a non-blocking form, which gives up when the spool
+ * is full or empty, and a blocking one, which waits. Items can also be handed
+ * off in batches, which is cheaper than one at a time.
+ *
+ * Once the producers are done, they {@link #close()} the spool. After that,
+ * nothing more can be offered, but the consumers can still take whatever is
+ * left; once that is gone, the spool is complete, and blocking takes stop
+ * waiting. Null items aren't allowed, since null is what a take returns once
+ * the spool is complete.
+ *
+ * @author Ben Culkin
+ *
+ * @param <Contained> The type of item in the spool.
+ */
 public interface Spool<Contained> {
+	/**
+	 * Offer an item to the spool, without waiting.
+	 *
+	 * @param item The item to offer.
+	 *
+	 * @return Whether the item was accepted, or if the spool was full.
+	 *
+	 * @throws IllegalStateException If the spool has been closed.
+	 */
+	public boolean offer(Contained item);
+
+	/**
+	 * Offer as many items from a list as will fit, without waiting.
+	 *
+	 * @param items The items to offer.
+	 *
+	 * @return The number of items from the front of the list which were
+	 *         accepted.
+	 *
+	 * @throws IllegalStateException If the spool has been closed.
+	 */
+	public int offerAll(List<? extends Contained> items);
+
+	/**
+	 * Add an item to the spool, waiting for room if it is full.
+	 *
+	 * @param item The item to add.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 * @throws IllegalStateException If the spool has been closed.
+	 */
+	public void put(Contained item) throws InterruptedException;
+
+	/**
+	 * Add every item from a list to the spool, waiting for room as needed.
+	 *
+	 * @param items The items to add.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 * @throws IllegalStateException If the spool has been closed.
+	 */
+	public void putAll(List<? extends Contained> items) throws InterruptedException;
+
+	/**
+	 * Take an item from the spool, without waiting.
+	 *
+	 * @return The next item, or null if the spool is empty.
+	 */
+	public Contained poll();
+
+	/**
+	 * Take an item from the spool, waiting for one if it is empty.
+	 *
+	 * @return The next item, or null if the spool is complete.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Contained take() throws InterruptedException;
+
+	/**
+	 * Take as many items from the spool as are ready, without waiting.
+	 *
+	 * @param sink The place to send the items to.
+	 * @param max The most items to take.
+	 *
+	 * @return The number of items taken.
+	 */
+	public int drain(Consumer<? super Contained> sink, int max);
+
+	/**
+	 * Take as many items from the spool as are ready, waiting for at least one
+	 * if it is empty.
+	 *
+	 * @param sink The place to send the items to.
+	 * @param max The most items to take.
+	 *
+	 * @return The number of items taken, which is only zero if the spool is
+	 *         complete.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public int awaitDrain(Consumer<? super Contained> sink, int max) throws InterruptedException;
+
+	/**
+	 * Close the spool, so that nothing more can be added to it.
+	 *
+	 * Closing a spool more than once does nothing.
+	 */
+	public void close();
+
+	/**
+	 * Check if the spool has been closed.
+	 *
+	 * @return Whether the spool has been closed.
+	 */
+	public boolean isClosed();
+
+	/**
+	 * Check if the spool is complete; that is, closed with nothing left in it.
+	 *
+	 * @return Whether the spool is complete.
+	 */
+	public boolean isComplete();
+
+	/**
+	 * Get the number of items in the spool.
+	 *
+	 * While the spool is in use, this is only an estimate.
+	 *
+	 * @return The number of items in the spool.
+	 */
+	public int size();
 
+	/**
+	 * Get the most items the spool can hold.
+	 *
+	 * @return The capacity of the spool.
+	 */
+	public int capacity();
 }
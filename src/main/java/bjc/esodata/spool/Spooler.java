@@ -17,6 +17,37 @@
  */
 package bjc.esodata.spool;
 
+/**
+ * Something which creates spools.
+ *
+ * @author Ben Culkin
+ */
 public interface Spooler {
+	/**
+	 * Create a new spool.
+	 *
+	 * @param <E> The type of item in the spool.
+	 *
+	 * @return A new, empty spool.
+	 */
 	public <E> Spool<E> getSpool();
+
+	/**
+	 * Create a spooler which hands out bounded spools.
+	 *
+	 * @param capacity The number of items each spool can hold; this is rounded
+	 *                 up to a power of two, and to at least two.
+	 *
+	 * @return A spooler which creates {@link RingSpool}s.
+	 */
+	public static Spooler bounded(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+
+		return new Spooler() {
+			@Override
+			public <E> Spool<E> getSpool() {
+				return new RingSpool<>(capacity);
+			}
+		};
+	}
 }
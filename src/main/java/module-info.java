@@ -24,6 +24,7 @@
 module esodata {
 	exports bjc.data;
 	exports bjc.esodata;
+	exports bjc.esodata.spool;
 	exports bjc.functypes;
 	exports bjc.funcdata.bst;
 	exports bjc.funcdata.theory;
@@ -0,0 +1,93 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import bjc.esodata.AbbrevMap2;
+
+@SuppressWarnings("javadoc")
+public class AbbrevMap2Test {
+	@Test
+	public void testDeabbrev() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("abc", "abd", "xyz");
+
+		assertEquals("xyz", map.deabbrev("x"));
+		assertEquals("xyz", map.deabbrev("xyz"));
+		assertEquals("abc", map.deabbrev("abc"));
+
+		assertNull(map.deabbrev("ab"));
+		assertNull(map.deabbrev("abe"));
+		assertNull(map.deabbrev("xyzw"));
+		assertNull(map.deabbrev(""));
+	}
+
+	@Test
+	public void testDeabbrevAll() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("abc", "abd", "ab", "xyz");
+
+		assertIteratorSet(false, map.deabbrevAll("a").iterator(), "ab", "abc", "abd");
+		assertIteratorSet(false, map.deabbrevAll("ab").iterator(), "ab", "abc", "abd");
+		assertIteratorSet(false, map.deabbrevAll("abd").iterator(), "abd");
+
+		assertEquals(0, map.deabbrevAll("q").size());
+		assertEquals(0, map.deabbrevAll("").size());
+	}
+
+	@Test
+	public void testRemove() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("abc", "abd", "abd");
+
+		map.removeWords("abd");
+		assertNull(map.deabbrev("a"));
+
+		map.removeWords("abd");
+		assertEquals("abc", map.deabbrev("a"));
+
+		map.removeWords("abc", "nothere");
+		assertNull(map.deabbrev("a"));
+		assertEquals(0, map.deabbrevAll("a").size());
+
+		map.add("abd");
+		assertEquals("abd", map.deabbrev("a"));
+	}
+
+	@Test
+	public void testBatch() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("abc", "abd", "xyz");
+
+		String[] words = { "x", "ab", "abc", "q" };
+		String[] out   = new String[words.length];
+
+		assertEquals(2, map.deabbrevAll(words, out));
+		assertArrayEquals(new String[] { "xyz", null, "abc", null }, out);
+
+		String[] parOut = new String[words.length];
+		map.parallelDeabbrevAll(words, parOut);
+		assertArrayEquals(out, parOut);
+
+		assertArrayEquals(out, map.deabbrevAll(Arrays.stream(words)).toArray());
+	}
+
+	@Test
+	public void testFuzzy() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("commit", "compile", "checkout", "status");
+
+		assertListEquals(map.fuzzyDeabbrev("comit", 1, 5), "commit");
+		assertListEquals(map.fuzzyDeabbrev("stauts", 2, 5), "status");
+		assertListEquals(map.fuzzyDeabbrev("cmo", 1, 5), "commit", "compile");
+		assertListEquals(map.fuzzyDeabbrev("cmo", 1, 1), "commit");
+		assertEquals(0, map.fuzzyDeabbrev("xyz", 1, 5).size());
+
+		assertListEquals(map.subsequenceDeabbrev("cmt", 5), "commit");
+		assertListEquals(map.subsequenceDeabbrev("co", 5), "commit", "compile", "checkout");
+	}
+}
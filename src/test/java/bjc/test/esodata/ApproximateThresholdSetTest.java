@@ -0,0 +1,63 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import bjc.data.Pair;
+import bjc.esodata.ApproximateThresholdSet;
+
+@SuppressWarnings("javadoc")
+public class ApproximateThresholdSetTest {
+	@Test
+	public void testCountsNeverUnderestimate() {
+		ApproximateThresholdSet<Integer> thst = new ApproximateThresholdSet<>(0.01, 0.01, 5);
+
+		Map<Integer, Integer> actual = new HashMap<>();
+		Random rand = new Random(1);
+
+		for (int i = 0; i < 10000; i++) {
+			int key = rand.nextInt(500);
+
+			thst.add(key);
+			actual.merge(key, 1, Integer::sum);
+		}
+
+		assertEquals(10000, thst.total());
+
+		actual.forEach((key, count) -> {
+			int estimate = thst.contains(key);
+
+			assertTrue("estimate too low", estimate >= count);
+			assertTrue("estimate too high", estimate <= count + (0.01 * 10000));
+		});
+	}
+
+	@Test
+	public void testHeavyHitters() {
+		ApproximateThresholdSet<String> thst = new ApproximateThresholdSet<>(0.01, 0.01, 10);
+
+		for (int i = 0; i < 1000; i++) {
+			thst.add("common");
+			if (i % 2 == 0) thst.add("frequent");
+
+			thst.add("rare" + i);
+		}
+
+		List<Pair<String, Long>> hitters = thst.heavyHitters();
+
+		assertEquals("common",   hitters.get(0).getLeft());
+		assertEquals("frequent", hitters.get(1).getLeft());
+		assertTrue(hitters.get(0).getRight() >= 1000);
+
+		// Unseen keys may collide with others, but only within the error bound
+		assertTrue(thst.count("never") <= 0.01 * thst.total());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testRejectsHugeSketch() {
+		new ApproximateThresholdSet<Integer>(1e-12, 0.01, 5);
+	}
+}
@@ -0,0 +1,61 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+import bjc.esodata.ConcurrentThresholdSet;
+
+@SuppressWarnings("javadoc")
+public class ConcurrentThresholdSetTest {
+	@Test
+	public void testCounts() {
+		ConcurrentThresholdSet<String> thst = new ConcurrentThresholdSet<>();
+
+		assertArrayEquals(new int[] { 1, 1, 2 }, thst.addKeys("a", "b", "a"));
+		assertIteratorSet(false, thst.setView().iterator(), "b");
+		assertEquals(1, thst.setView().size());
+
+		assertArrayEquals(new int[] { 2, 1, -1 }, thst.containsKeys("a", "b", "c"));
+
+		assertArrayEquals(new int[] { 1, 0, -1 }, thst.removeKeys("a", "b", "c"));
+		assertIteratorSet(false, thst.setView().iterator(), "a");
+	}
+
+	@Test
+	public void testConcurrentCounting() throws Exception {
+		ConcurrentThresholdSet<Integer> thst = new ConcurrentThresholdSet<>();
+
+		int threads = 4;
+		int rounds  = 10000;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				tasks.add(pool.submit(() -> {
+					for (int j = 0; j < rounds; j++) {
+						thst.add(j % 10);
+						thst.add(j % 10);
+						thst.remove(j % 10);
+					}
+				}));
+			}
+
+			for (Future<?> task : tasks) task.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(threads * rounds / 10, thst.contains(i));
+		}
+
+		assertEquals(0, thst.setView().size());
+	}
+}
@@ -0,0 +1,85 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.FlatNestList;
+import bjc.esodata.NestList;
+
+@SuppressWarnings("javadoc")
+public class FlatNestListTest {
+	private static NestList<String> sample() {
+		NestList<String> inner = new NestList<>();
+		inner.addItems("c", "d");
+		inner.addItem(new NestList<>());
+
+		NestList<String> middle = new NestList<>();
+		middle.addItem("b");
+		middle.addItem(inner);
+
+		NestList<String> outer = new NestList<>();
+		outer.addItem("a");
+		outer.addItem(middle);
+		outer.addSublist("e");
+		outer.addItem("f");
+
+		return outer;
+	}
+
+	@Test
+	public void flatListMatchesNestList() {
+		NestList<String> nest = sample();
+		FlatNestList<String> flat = FlatNestList.from(nest);
+
+		assertEquals(4, flat.size());
+		assertEquals(nest.deepSize(), flat.deepSize());
+		assertEquals(nest.deepFlatten(), flat.deepFlatten());
+
+		assertEquals("a", flat.element(0));
+		assertTrue(flat.isSublist(1));
+		assertEquals("f", flat.element(3));
+
+		FlatNestList<String> middle = flat.sublist(1);
+		assertEquals(2, middle.size());
+		assertEquals(3, middle.deepSize());
+		assertEquals(Arrays.asList("b", "c", "d"), middle.deepFlatten());
+
+		assertEquals("[a, [b, [c, d, []]], [e], f]", flat.toString());
+	}
+
+	@Test
+	public void flatListRoundTrips() {
+		NestList<String> nest = sample();
+
+		assertEquals(nest, FlatNestList.from(nest).toNestList());
+		assertEquals(FlatNestList.from(nest), FlatNestList.from(nest.deepMap((s) -> s)));
+	}
+
+	@Test
+	public void cursorWalksStructure() {
+		FlatNestList<String> flat = FlatNestList.from(sample());
+		FlatNestList<String>.Cursor cursor = flat.cursor();
+
+		StringBuilder sb = new StringBuilder();
+		int maxDepth = 0;
+
+		for (int event = cursor.next(); event != FlatNestList.DONE; event = cursor.next()) {
+			if (event == FlatNestList.START) sb.append('(');
+			else if (event == FlatNestList.END) sb.append(')');
+			else sb.append(cursor.element());
+
+			maxDepth = Math.max(maxDepth, cursor.depth());
+		}
+
+		assertEquals("a(b(cd()))(e)f", sb.toString());
+		assertEquals(3, maxDepth);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void elementRejectsSublists() {
+		FlatNestList.from(sample()).element(1);
+	}
+}
@@ -0,0 +1,63 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+import org.junit.Test;
+
+import bjc.esodata.AbbrevMap2;
+import bjc.esodata.FrozenAbbrevMap;
+
+@SuppressWarnings("javadoc")
+public class FrozenAbbrevMapTest {
+	@Test
+	public void testDeabbrev() {
+		FrozenAbbrevMap map = FrozenAbbrevMap.compile("abc", "abd", "ab", "xyz", "tab", "tabd");
+
+		assertEquals(6, map.size());
+
+		assertEquals("xyz", map.deabbrev("x"));
+		assertEquals("abc", map.deabbrev("abc"));
+		assertEquals("tabd", map.deabbrev("tabd"));
+
+		assertNull(map.deabbrev("ab"));
+		assertNull(map.deabbrev("q"));
+		assertNull(map.deabbrev(""));
+
+		assertIteratorSet(false, map.deabbrevAll("a").iterator(), "ab", "abc", "abd");
+		assertIteratorSet(false, map.deabbrevAll("ta").iterator(), "tab", "tabd");
+		assertEquals(0, map.deabbrevAll("abcd").size());
+	}
+
+	@Test
+	public void testCompileFromMap() {
+		AbbrevMap2 map = new AbbrevMap2();
+		map.add("command", "commit", "compile");
+
+		FrozenAbbrevMap frozen = map.compile();
+
+		assertEquals(map.deabbrevAll("com"), frozen.deabbrevAll("com"));
+		assertEquals("compile", frozen.deabbrev("comp"));
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		FrozenAbbrevMap map = FrozenAbbrevMap.compile("alpha", "beta", "betamax");
+
+		Path file = Files.createTempFile("abbrev", ".dawg");
+		try {
+			map.save(file);
+
+			FrozenAbbrevMap loaded = FrozenAbbrevMap.load(file);
+
+			assertEquals(3, loaded.size());
+			assertEquals("alpha", loaded.deabbrev("a"));
+			assertIteratorSet(false, loaded.deabbrevAll("bet").iterator(), "beta", "betamax");
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import org.junit.Test;
+
+import bjc.esodata.IndexedAbbrevTree;
+
+@SuppressWarnings("javadoc")
+public class IndexedAbbrevTreeTest {
+	@Test
+	public void testGet() {
+		IndexedAbbrevTree<String, String> root = new IndexedAbbrevTree<>("root", "a");
+
+		var leaf1 = root.add("leaf", "b1");
+		var node1 = root.add("node1", "b2");
+
+		var node2 = node1.add("node2", "c1");
+		var leaf2 = node1.add("leaf", "c2");
+
+		var list1 = root.nodes("node2");
+		assertEquals(1, list1.size());
+		assertIteratorSet(false, list1.iterator(), node2);
+
+		var list2 = root.nodes("leaf");
+		assertEquals(2, list2.size());
+		assertIteratorSet(false, list2.iterator(), leaf1, leaf2);
+
+		var list3 = root.nodes("leaf", "node1");
+		assertEquals(1, list3.size());
+		assertIteratorSet(false, list3.iterator(), leaf2);
+
+		assertEquals(2, root.count("leaf"));
+		assertEquals(1, node1.count("leaf"));
+	}
+
+	@Test
+	public void testNestedDisambiguators() {
+		IndexedAbbrevTree<String, String> root = new IndexedAbbrevTree<>("root", "r");
+
+		var outer = root.add("grp", "g1");
+		var inner = outer.add("grp", "g2");
+		var item  = inner.add("item", "i");
+
+		// The item is under both groups, but should only be found once.
+		assertListEquals(root.nodes("item", "grp"), item);
+		assertListEquals(root.values("item", "grp", "root"), "i");
+	}
+
+	@Test
+	public void testModify() {
+		IndexedAbbrevTree<String, String> root = new IndexedAbbrevTree<>("root", "r");
+
+		var node = root.add("node", "n");
+		node.add("leaf", "l1");
+
+		assertEquals(1, root.count("leaf"));
+
+		var leaf = root.add("leaf", "l2");
+		assertEquals(2, root.count("leaf"));
+
+		root.removeChild("node");
+		assertListEquals(root.nodes("leaf"), leaf);
+		assertEquals(1, node.count("leaf"));
+
+		assertEquals(leaf, root.path("leaf").get());
+		assertFalse(root.path("node", "leaf").isPresent());
+	}
+}
@@ -0,0 +1,69 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import bjc.esodata.InvertedIndex;
+
+@SuppressWarnings("javadoc")
+public class InvertedIndexTest {
+	private static InvertedIndex<String> sample() {
+		InvertedIndex<String> index = new InvertedIndex<>();
+
+		for (int i = 0; i < 1000; i++) {
+			if (i % 2 == 0) index.add("even", i);
+			if (i % 3 == 0) index.add("three", i);
+			if (i % 5 == 0) index.add("five", i);
+		}
+
+		return index;
+	}
+
+	@Test
+	public void testPostings() {
+		InvertedIndex<String> index = new InvertedIndex<>();
+
+		index.add("a", 5);
+		index.add("a", 1);
+		index.add("a", 3);
+		index.add("a", 3);
+
+		assertArrayEquals(new int[] { 1, 3, 5 }, index.postings("a"));
+		assertIteratorEquals(false, index.get("a").iterator(), 1, 3, 5);
+
+		index.remove("a", 3);
+		assertArrayEquals(new int[] { 1, 5 }, index.postings("a"));
+		assertFalse(index.contains("a", 3));
+		assertEquals(Optional.empty(), index.getSingle("a"));
+	}
+
+	@Test
+	public void testAnd() {
+		InvertedIndex<String> index = sample();
+
+		int[] result = index.and("even", "three", "five");
+
+		assertEquals(34, result.length);
+		for (int val : result) assertEquals(0, val % 30);
+
+		assertEquals(0, index.and("even", "missing").length);
+	}
+
+	@Test
+	public void testOrAndNot() {
+		InvertedIndex<String> index = sample();
+
+		assertArrayEquals(new int[] { 3, 9, 21, 27 },
+				Arrays.copyOf(index.andNot(List.of("three"), List.of("even", "five")), 4));
+
+		int[] union = index.or("three", "five");
+		assertEquals(0, union[0]);
+		assertEquals(3, union[1]);
+		assertEquals(5, union[2]);
+		assertEquals(467, union.length);
+	}
+}
@@ -0,0 +1,151 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.KeyedList;
+
+@SuppressWarnings("javadoc")
+public class KeyedListTest {
+	private static List<String> contents(Iterator<String> itr) {
+		List<String> ret = new ArrayList<>();
+
+		itr.forEachRemaining(ret::add);
+
+		return ret;
+	}
+
+	@Test
+	public void removeSkipsItems() {
+		KeyedList<String, String> list = new KeyedList<>();
+
+		list.add("a", "A");
+		list.add("b", "B");
+		list.add("c", "C");
+
+		assertFalse(list.add("a", "X"));
+		assertEquals("B", list.remove("b"));
+		assertNull(list.remove("b"));
+		assertNull(list.get("b"));
+
+		assertEquals(2, list.size());
+		assertEquals(Arrays.asList("A", "C"), contents(list.iterator()));
+		assertEquals(Arrays.asList("a", "c"), new ArrayList<>(list.keys()));
+
+		ListIterator<String> itr = list.iteratorFrom("c");
+		assertTrue(itr.hasPrevious());
+		assertEquals("A", itr.previous());
+		assertNull(list.iteratorFrom("b"));
+	}
+
+	@Test
+	public void iteratorsSurviveCompaction() {
+		KeyedList<Integer, Integer> list = new KeyedList<>();
+
+		for (int i = 0; i < 200; i++) list.add(i, i);
+
+		Iterator<Integer> itr = list.iterator();
+		for (int i = 0; i < 150; i++) itr.next();
+
+		// Removing this many forces a compaction
+		for (int i = 0; i < 120; i++) list.remove(i);
+
+		List<Integer> rest = new ArrayList<>();
+		itr.forEachRemaining(rest::add);
+
+		assertEquals(50, rest.size());
+		assertEquals(150, (int)rest.get(0));
+
+		assertEquals(80, list.size());
+		assertEquals(120, (int)list.iteratorFrom(120).next());
+	}
+
+	@Test
+	public void listMatchesLinkedHashMap() {
+		Random rng = new Random(47);
+
+		KeyedList<Integer, Integer>  list  = new KeyedList<>();
+		Map<Integer, Integer>        model = new LinkedHashMap<>();
+
+		for (int i = 0; i < 20000; i++) {
+			int key = rng.nextInt(500);
+
+			switch (rng.nextInt(3)) {
+			case 0:
+				assertEquals(model.remove(key), list.remove(key));
+				break;
+			case 1:
+				assertEquals(model.putIfAbsent(key, i) == null, list.add(key, i));
+				break;
+			default:
+				Integer old = model.containsKey(key) ? model.put(key, i) : null;
+				if (old == null) model.put(key, i);
+
+				assertEquals(old, list.set(key, i));
+			}
+		}
+
+		assertEquals(model.size(), list.size());
+		assertEquals(new ArrayList<>(model.keySet()), new ArrayList<>(list.keys()));
+
+		List<Integer> vals = new ArrayList<>();
+		list.forEach(vals::add);
+		assertEquals(new ArrayList<>(model.values()), vals);
+	}
+
+	@Test
+	public void iteratorRemoves() {
+		KeyedList<String, String> list = new KeyedList<>();
+
+		list.add("a", "A");
+		list.add("b", "B");
+
+		Iterator<String> itr = list.iterator();
+		itr.next();
+		itr.remove();
+
+		assertFalse(list.containsKey("a"));
+		assertEquals(Arrays.asList("B"), contents(list.iterator()));
+	}
+
+	@Test
+	public void iteratorRemoveSurvivesCompaction() {
+		KeyedList<Integer, Integer> list = new KeyedList<>();
+
+		for (int i = 0; i < 200; i++) list.add(i, i);
+
+		// Remove the even items through the iterator, compacting along the way
+		Iterator<Integer> itr = list.iterator();
+		List<Integer> seen = new ArrayList<>();
+
+		while (itr.hasNext()) {
+			int val = itr.next();
+
+			seen.add(val);
+
+			if (val % 2 == 0) itr.remove();
+
+			// Right after removing through the iterator, force a compaction
+			if (val == 100) for (int i = 150; i < 200; i++) list.remove(i);
+		}
+
+		assertEquals(75, list.size());
+		assertEquals(150, seen.size());
+		assertEquals(Integer.valueOf(149), seen.get(seen.size() - 1));
+
+		// Walking backwards too
+		ListIterator<Integer> back = list.iteratorFrom(149);
+		back.next();
+
+		while (back.hasPrevious()) {
+			back.previous();
+			back.remove();
+		}
+
+		assertEquals(0, list.size());
+		assertFalse(back.hasNext());
+	}
+}
@@ -0,0 +1,174 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import bjc.esodata.KeyedLog;
+
+@SuppressWarnings("javadoc")
+public class KeyedLogTest {
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("keyedlog");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+		}
+
+		Files.delete(dir);
+	}
+
+	private KeyedLog<String, String> open() throws IOException {
+		return KeyedLog.open(dir, 256, KeyedLog.UTF8, KeyedLog.UTF8);
+	}
+
+	private static List<String> contents(Iterator<String> itr) {
+		List<String> ret = new ArrayList<>();
+
+		itr.forEachRemaining(ret::add);
+
+		return ret;
+	}
+
+	@Test
+	public void logSurvivesReopening() throws IOException {
+		List<String> expected = new ArrayList<>();
+
+		try (KeyedLog<String, String> log = open()) {
+			for (int i = 0; i < 100; i++) {
+				assertTrue(log.add("key" + i, "value" + i));
+
+				expected.add("value" + i);
+			}
+
+			assertFalse(log.add("key5", "other"));
+			assertEquals("value42", log.get("key42"));
+			assertEquals(expected, contents(log.iterator()));
+		}
+
+		assertTrue("Small segments force several files", Files.list(dir).count() > 1);
+
+		try (KeyedLog<String, String> log = open()) {
+			assertEquals(100, log.size());
+			assertEquals("value42", log.get("key42"));
+			assertNull(log.get("missing"));
+
+			assertEquals(expected.subList(90, 100), contents(log.iteratorFrom("key90")));
+			assertNull(log.iteratorFrom("missing"));
+
+			log.add("key100", "value100");
+		}
+
+		try (KeyedLog<String, String> log = open()) {
+			assertEquals(101, log.size());
+			assertEquals("value100", log.get("key100"));
+		}
+	}
+
+	@Test
+	public void reopensAfterCrashWhileRolling() throws IOException {
+		try (KeyedLog<String, String> log = open()) {
+			for (int i = 0; i < 30; i++) log.add("key" + i, "value" + i);
+		}
+
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(dir)) {
+			files = listing.sorted().collect(Collectors.toList());
+		}
+
+		assertTrue(files.size() > 1);
+
+		// Pretend we crashed after sealing a segment, but before opening the next
+		Files.delete(files.get(files.size() - 1));
+
+		try (KeyedLog<String, String> log = open()) {
+			int kept = log.size();
+
+			assertTrue(kept < 30);
+			assertTrue(log.add("new", "value"));
+			assertEquals("value", log.get("new"));
+			assertEquals(kept + 1, log.size());
+		}
+
+		try (KeyedLog<String, String> log = open()) {
+			assertEquals("value", log.get("new"));
+		}
+	}
+
+	@Test
+	public void tornRecordsAreDropped() throws IOException {
+		try (KeyedLog<String, String> log = open()) {
+			log.add("a", "A");
+			log.add("b", "B");
+		}
+
+		// Corrupt the value of the last record
+		Path segment = dir.resolve("segment-00000000.log");
+
+		try (FileChannel chan = FileChannel.open(segment, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = chan.map(FileChannel.MapMode.READ_WRITE, 0, chan.size());
+
+			int second = 12 + 1 + 1;
+
+			buffer.put(second + 12 + 1, (byte) 'X');
+			buffer.force();
+		}
+
+		try (KeyedLog<String, String> log = open()) {
+			assertEquals(1, log.size());
+			assertEquals("A", log.get("a"));
+			assertFalse(log.containsKey("b"));
+
+			log.add("c", "C");
+			assertEquals(Arrays.asList("A", "C"), contents(log.iterator()));
+		}
+	}
+
+	@Test
+	public void concurrentForcesAreSafe() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+
+		try (KeyedLog<String, String> log = open()) {
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (int task = 0; task < 4; task++) {
+				int id = task;
+
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 50; i++) {
+						log.add(id + ":" + i, "v" + i);
+						log.force();
+					}
+
+					return null;
+				}));
+			}
+
+			for (Future<?> future : futures) future.get();
+
+			assertEquals(200, log.size());
+		} finally {
+			pool.shutdown();
+		}
+
+		try (KeyedLog<String, String> log = open()) {
+			assertEquals(200, log.size());
+			assertEquals("v49", log.get("3:49"));
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.MapSet;
+
+@SuppressWarnings("javadoc")
+public class MapSetTest {
+	private static void fill(MapSet<String, Integer> set) {
+		Map<String, Integer> defaults = new HashMap<>();
+		defaults.put("width", 80);
+		defaults.put("height", 24);
+
+		set.addMap("defaults", defaults);
+
+		set.setCreateMap("user");
+		set.put("width", 120);
+
+		set.setCreateMap("site");
+		set.put("height", 50);
+		set.put("color", 1);
+	}
+
+	@Test
+	public void indexedSetFindsMaps() {
+		MapSet<String, Integer> set = MapSet.indexed();
+		fill(set);
+
+		assertEquals(new HashSet<>(Arrays.asList("defaults", "user")), set.whichMaps("width"));
+		assertEquals(Collections.singleton("site"), set.whichMaps("color"));
+		assertTrue(set.whichMaps("missing").isEmpty());
+
+		List<String> order = Arrays.asList("user", "site", "defaults");
+		assertEquals(120, (int)set.getFromAny("width", order));
+		assertEquals(50, (int)set.getFromAny("height", order));
+		assertNull(set.getFromAny("missing", order));
+	}
+
+	@Test
+	public void indexTracksChanges() {
+		MapSet<String, Integer> set = MapSet.indexed();
+		fill(set);
+
+		set.getMap("user").remove("width");
+		assertEquals(Collections.singleton("defaults"), set.whichMaps("width"));
+
+		set.setMap("defaults");
+		set.entrySet().removeIf((entry) -> entry.getKey().equals("width"));
+		assertTrue(set.whichMaps("width").isEmpty());
+
+		set.getMap("site").clear();
+		assertEquals(Collections.singleton("defaults"), set.whichMaps("height"));
+
+		set.addMap("defaults", new HashMap<>());
+		assertTrue(set.whichMaps("height").isEmpty());
+	}
+
+	@Test
+	public void replacingKeepsSharedKeys() {
+		MapSet<String, Integer> set = MapSet.indexed();
+		set.addMap("m", new HashMap<>(Collections.singletonMap("k", 1)));
+
+		Map<String, Integer> replacement = new HashMap<>();
+		replacement.put("k", 2);
+		replacement.put("j", 3);
+
+		set.addMap("m", replacement);
+
+		assertEquals(Collections.singleton("m"), set.whichMaps("k"));
+		assertEquals(2, (int)set.getFromAny("k", Arrays.asList("m")));
+		assertEquals(Collections.singleton("m"), set.whichMaps("j"));
+	}
+
+	@Test
+	public void removingMapUnindexes() {
+		MapSet<String, Integer> set = MapSet.indexed();
+		fill(set);
+
+		assertNotNull(set.removeMap("site"));
+		assertNull(set.removeMap("site"));
+
+		assertTrue(set.whichMaps("color").isEmpty());
+		assertNull(set.getFromAny("color", Arrays.asList("site")));
+		assertEquals(Collections.singleton("defaults"), set.whichMaps("height"));
+	}
+
+	@Test
+	public void replacingCurrentMapKeepsItCurrent() {
+		MapSet<String, Integer> set = MapSet.indexed();
+
+		set.setCreateMap("hi");
+		set.addMap("lo", new HashMap<>(Collections.singletonMap("x", 2)));
+		set.addMap("hi", new HashMap<>());
+
+		set.put("x", 1);
+
+		assertEquals(new HashSet<>(Arrays.asList("hi", "lo")), set.whichMaps("x"));
+		assertTrue(set.getMap("hi").containsKey("x"));
+		assertEquals(1, (int)set.getFromAny("x", Arrays.asList("hi", "lo")));
+
+		set.getMap("hi").remove("x");
+		assertEquals(2, (int)set.getFromAny("x", Arrays.asList("hi", "lo")));
+	}
+
+	@Test
+	public void plainMapViewsAreLive() {
+		MapSet<String, Integer> set = new MapSet<>();
+		fill(set);
+
+		assertTrue(set.getMapKeys().remove("site"));
+		assertFalse(set.containsMap("site"));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void mapViewsAreReadOnly() {
+		MapSet<String, Integer> set = MapSet.indexed();
+		fill(set);
+
+		set.getMapKeys().remove("site");
+	}
+
+	@Test
+	public void plainSetScansMaps() {
+		MapSet<String, Integer> indexed = MapSet.indexed();
+		MapSet<String, Integer> plain   = new MapSet<>();
+
+		fill(indexed);
+		fill(plain);
+
+		List<String> order = Arrays.asList("defaults", "site", "user");
+
+		for (String key : Arrays.asList("width", "height", "color", "missing")) {
+			assertEquals(indexed.whichMaps(key), plain.whichMaps(key));
+			assertEquals(indexed.getFromAny(key, order), plain.getFromAny(key, order));
+		}
+	}
+}
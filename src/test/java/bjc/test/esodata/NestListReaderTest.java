@@ -0,0 +1,114 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.data.Either;
+import bjc.esodata.NestList;
+import bjc.esodata.NestListReader;
+
+@SuppressWarnings("javadoc")
+public class NestListReaderTest {
+	private static final String SAMPLE = "a (b (c \"d e\") ()) ; comment\n (f) g";
+
+	private static NestList<String> expected() {
+		NestList<String> inner = new NestList<>();
+		inner.addItems("c", "d e");
+
+		NestList<String> middle = new NestList<>();
+		middle.addItem("b");
+		middle.addItem(inner);
+		middle.addItem(new NestList<>());
+
+		NestList<String> outer = new NestList<>();
+		outer.addItem("a");
+		outer.addItem(middle);
+		outer.addSublist("f");
+		outer.addItem("g");
+
+		return outer;
+	}
+
+	@Test
+	public void readerReadsEverything() throws IOException {
+		try (NestListReader<String> reader = NestListReader.of(new StringReader(SAMPLE))) {
+			assertEquals(expected(), reader.readAll());
+		}
+	}
+
+	@Test
+	public void readerReadsChannels() throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(
+				new ByteArrayInputStream(SAMPLE.getBytes(StandardCharsets.UTF_8)));
+
+		try (NestListReader<String> reader = new NestListReader<>(channel,
+				StandardCharsets.UTF_8, (s) -> s)) {
+			assertEquals(expected(), reader.readAll());
+		}
+	}
+
+	@Test
+	public void readerPullsEvents() throws IOException {
+		NestListReader<String> reader = NestListReader.of(new StringReader("(x (y)) z"));
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int event = reader.next(); event != NestListReader.DONE; event = reader.next()) {
+			if (event == NestListReader.START) sb.append('(');
+			else if (event == NestListReader.END) sb.append(')');
+			else sb.append(reader.element()).append(reader.depth());
+		}
+
+		assertEquals("(x1(y2))z0", sb.toString());
+	}
+
+	@Test
+	public void readerSkipsItems() throws IOException {
+		NestListReader<Integer> reader = new NestListReader<>(
+				new StringReader("(1 (2 3)) 4 (5)"), Integer::parseInt);
+
+		assertTrue(reader.skipItem());
+
+		assertEquals(Either.left(4), reader.nextItem());
+
+		Either<Integer, NestList<Integer>> last = reader.nextItem();
+		assertEquals(Arrays.asList(5), last.forceRight().deepFlatten());
+
+		assertFalse(reader.hasNextItem());
+		assertFalse(reader.skipItem());
+	}
+
+	@Test(expected = IOException.class)
+	public void readerRejectsUnbalancedInput() throws IOException {
+		NestListReader.of(new StringReader("(a (b)")).readAll();
+	}
+
+	@Test
+	public void lazyListMatchesEagerList() throws IOException {
+		NestList<String> lazy = NestListReader.lazy(SAMPLE, (s) -> s);
+
+		assertEquals(4, lazy.size());
+		assertEquals("g", lazy.get(3).forceLeft());
+		assertEquals(expected(), lazy);
+		assertEquals(expected().deepFlatten(), lazy.deepFlatten());
+	}
+
+	@Test
+	public void readerHandlesLongInput() throws IOException {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < 5000; i++) sb.append("(item").append(i).append(" (\"nested ").append(i).append("\")) ");
+
+		NestList<String> list = NestListReader.of(new StringReader(sb.toString())).readAll();
+
+		assertEquals(5000, list.size());
+		assertEquals(10000, list.deepSize());
+		assertEquals(list, NestListReader.lazy(sb, (s) -> s));
+	}
+}
@@ -117,4 +117,42 @@ public class NestListTest
 		assertEquals("deepFlatten flattens out all sublists",
 				testList, nl3.deepFlatten());
 	}
+
+	private static NestList<Integer> randomNest(Random rng, int depth) {
+		NestList<Integer> nl = new NestList<>();
+		
+		int count = rng.nextInt(12);
+		for (int i = 0; i < count; i++) {
+			if (depth > 0 && rng.nextInt(3) == 0) {
+				nl.addItem(randomNest(rng, depth - 1));
+			} else {
+				nl.addItem(rng.nextInt(1000));
+			}
+		}
+		
+		return nl;
+	}
+
+	@Test
+	public void testParallelMatchesSequential() {
+		Random rng = new Random(40);
+		
+		for (int i = 0; i < 50; i++) {
+			NestList<Integer> nl = randomNest(rng, 5);
+			
+			for (int threshold : new int[] { 0, 3, 50, 100000 }) {
+				assertEquals("parallelDeepMap keeps structure",
+						nl.deepMap((x) -> x * 2), nl.parallelDeepMap((x) -> x * 2, threshold));
+				
+				assertEquals("parallelDeepReduce matches deepReduce",
+						nl.deepReduce(0L, (acc, x) -> acc + x),
+						nl.parallelDeepReduce(0L, (acc, x) -> acc + x, Long::sum, threshold));
+				
+				assertEquals("parallelDeepFlatten keeps order",
+						nl.deepFlatten(), nl.parallelDeepFlatten(threshold));
+			}
+			
+			assertEquals(nl.deepFlatten(), nl.parallelDeepFlatten());
+		}
+	}
 }
@@ -0,0 +1,110 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.OrderStatisticList;
+
+@SuppressWarnings("javadoc")
+public class OrderStatisticListTest {
+	private final static Comparator<Integer> intComparator = (lhs, rhs) -> lhs - rhs;
+
+	@Test
+	public void listAnswersOrderQueries() {
+		OrderStatisticList<Integer> list = new OrderStatisticList<>(intComparator,
+				3, 1, 4, 1, 5, 9, 2, 6);
+
+		assertEquals("List keeps insertion order", Arrays.asList(3, 1, 4, 1, 5, 9, 2, 6), list);
+
+		assertEquals(1, (int)list.minimum());
+		assertEquals(9, (int)list.maximum());
+		assertEquals(3, (int)list.kth(3));
+		assertEquals(3, (int)list.median());
+
+		assertEquals("Two elements are less than 2", 2, list.rank(2));
+		assertEquals("Four elements are less than 4", 4, list.rank(4));
+		assertEquals(8, list.rank(100));
+
+		assertEquals(1, (int)list.percentile(0));
+		assertEquals(5, (int)list.percentile(75));
+		assertEquals(9, (int)list.percentile(100));
+	}
+
+	@Test
+	public void topKIsLive() {
+		OrderStatisticList<Integer> list = new OrderStatisticList<>(intComparator, 5, 2, 8);
+
+		List<Integer> top = list.topK(2);
+		assertEquals(Arrays.asList(8, 5), top);
+
+		list.add(10);
+		assertEquals(Arrays.asList(10, 8), top);
+
+		list.clear();
+		assertTrue(top.isEmpty());
+		assertNull(list.percentile(50));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void kthRejectsBadRanks() {
+		new OrderStatisticList<>(intComparator, 1, 2).kth(2);
+	}
+
+	@Test
+	public void listMatchesSort() {
+		Random rng = new Random(38);
+
+		OrderStatisticList<Integer> list = new OrderStatisticList<>(intComparator);
+		List<Integer> plain = new ArrayList<>();
+
+		for (int i = 0; i < 2000; i++) {
+			int op = rng.nextInt(4);
+
+			if (op == 0 && !plain.isEmpty()) {
+				int idx = rng.nextInt(plain.size());
+
+				assertEquals(plain.remove(idx), list.remove(idx));
+			} else if (op == 1 && !plain.isEmpty()) {
+				int idx = rng.nextInt(plain.size());
+				int val = rng.nextInt(100);
+
+				assertEquals(plain.set(idx, val), list.set(idx, val));
+			} else {
+				int idx = rng.nextInt(plain.size() + 1);
+				int val = rng.nextInt(100);
+
+				plain.add(idx, val);
+				list.add(idx, val);
+			}
+
+			assertEquals(plain, list);
+
+			List<Integer> sorted = new ArrayList<>(plain);
+			Collections.sort(sorted);
+
+			if (!sorted.isEmpty()) {
+				int k = rng.nextInt(sorted.size());
+
+				assertEquals(sorted.get(k), list.kth(k));
+			}
+
+			int probe = rng.nextInt(100);
+			int rank  = 0;
+			while (rank < sorted.size() && sorted.get(rank) < probe) rank++;
+
+			assertEquals(rank, list.rank(probe));
+		}
+	}
+
+	@Test(expected=ConcurrentModificationException.class)
+	public void iteratorsAreFailFast() {
+		OrderStatisticList<Integer> list = new OrderStatisticList<>(intComparator, 1, 2, 3);
+
+		for (Integer val : list) {
+			if (val == 1) list.remove(0);
+		}
+	}
+}
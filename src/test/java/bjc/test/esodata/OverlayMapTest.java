@@ -0,0 +1,199 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import bjc.esodata.OverlayMap;
+import bjc.funcdata.ObjectFrozen;
+
+@SuppressWarnings("javadoc")
+public class OverlayMapTest {
+	private static OverlayMap<String, Integer> sample() {
+		Map<String, Integer> init = new HashMap<>();
+		init.put("x", 1);
+		init.put("y", 2);
+
+		return new OverlayMap<>(init);
+	}
+
+	@Test
+	public void layersArePrivate() {
+		OverlayMap<String, Integer> shared = sample();
+
+		OverlayMap.Layer<String, Integer> lhs = shared.overlay();
+		OverlayMap.Layer<String, Integer> rhs = shared.overlay();
+
+		lhs.put("x", 10);
+		lhs.remove("y");
+		lhs.put("z", 30);
+
+		assertEquals(10, (int)lhs.lookup("x"));
+		assertFalse(lhs.containsKey("y"));
+		assertEquals(2, lhs.size());
+
+		assertEquals(1, (int)rhs.lookup("x"));
+		assertEquals(2, (int)rhs.lookup("y"));
+		assertEquals(1, (int)shared.lookup("x"));
+
+		assertEquals(10, (int)lhs.remove("x"));
+		assertEquals("Removing the shadow uncovers the shared value", 1, (int)lhs.lookup("x"));
+	}
+
+	@Test
+	public void layerScopesUndoChanges() {
+		OverlayMap.Layer<String, Integer> layer = sample().overlay();
+
+		layer.enterScope();
+		layer.put("x", 5);
+		layer.remove("y");
+		layer.exitScope();
+
+		assertEquals(1, (int)layer.lookup("x"));
+		assertEquals(2, (int)layer.lookup("y"));
+		assertFalse(layer.hasChanges());
+	}
+
+	@Test
+	public void clearInScopeIsUndone() {
+		OverlayMap.Layer<String, Integer> layer = sample().overlay();
+
+		layer.put("z", 3);
+
+		layer.enterScope();
+		layer.clear();
+		assertEquals(0, layer.size());
+		assertNull(layer.lookup("z"));
+		layer.exitScope();
+
+		assertEquals(3, layer.size());
+		assertEquals(3, (int)layer.lookup("z"));
+		assertEquals(1, (int)layer.lookup("x"));
+	}
+
+	@Test
+	public void scopesMustBeExitedBeforeCommitOrReset() {
+		OverlayMap<String, Integer> shared = sample();
+		OverlayMap.Layer<String, Integer> layer = shared.overlay();
+
+		layer.enterScope();
+		layer.put("x", 5);
+
+		try {
+			layer.commit();
+			fail("Committed inside a scope");
+		} catch (IllegalStateException isex) {
+			// Expected
+		}
+
+		try {
+			layer.tryCommit();
+			fail("Committed inside a scope");
+		} catch (IllegalStateException isex) {
+			// Expected
+		}
+
+		try {
+			layer.reset();
+			fail("Reset inside a scope");
+		} catch (IllegalStateException isex) {
+			// Expected
+		}
+
+		// Nothing was published, and the scope is still there to exit
+		assertEquals(1, (int)shared.lookup("x"));
+		assertEquals(5, (int)layer.lookup("x"));
+
+		layer.exitScope();
+		assertEquals(1, (int)layer.lookup("x"));
+
+		layer.put("y", 7);
+		layer.commit();
+		assertEquals(7, (int)shared.lookup("y"));
+
+		layer.put("y", 8);
+		layer.reset();
+		assertEquals(7, (int)layer.lookup("y"));
+	}
+
+	@Test(expected=ObjectFrozen.class)
+	public void frozenLayerCantCommit() {
+		OverlayMap<String, Integer> shared = sample();
+		OverlayMap.Layer<String, Integer> layer = shared.overlay();
+
+		layer.put("x", 5);
+		layer.freeze();
+
+		try {
+			layer.commit();
+		} finally {
+			assertEquals(1, (int)shared.lookup("x"));
+			assertTrue(layer.hasChanges());
+		}
+	}
+
+	@Test(expected=ObjectFrozen.class)
+	public void frozenLayerCantReset() {
+		OverlayMap.Layer<String, Integer> layer = sample().overlay();
+
+		layer.freeze();
+		layer.reset();
+	}
+
+	@Test
+	public void commitPublishesNewVersion() {
+		OverlayMap<String, Integer> shared = sample();
+
+		OverlayMap.Layer<String, Integer> lhs = shared.overlay();
+		OverlayMap.Layer<String, Integer> rhs = shared.overlay();
+
+		Map<String, Integer> before = shared.snapshot();
+
+		lhs.put("x", 10);
+		lhs.remove("y");
+
+		assertTrue(lhs.tryCommit());
+		assertEquals(1, shared.version());
+		assertEquals(10, (int)shared.lookup("x"));
+		assertFalse(shared.containsKey("y"));
+		assertEquals("Snapshots don't change", 1, (int)before.get("x"));
+
+		rhs.put("z", 3);
+		assertFalse("Stale layers can't try-commit", rhs.tryCommit());
+
+		assertEquals(2, rhs.commit());
+		assertEquals(10, (int)shared.lookup("x"));
+		assertEquals(3, (int)shared.lookup("z"));
+		assertEquals(2, rhs.size());
+	}
+
+	@Test
+	public void concurrentCommitsAreAtomic() throws Exception {
+		OverlayMap<Integer, Integer> shared = new OverlayMap<>();
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+
+		for (int task = 0; task < 200; task++) {
+			int key = task;
+
+			futures.add(pool.submit(() -> {
+				OverlayMap.Layer<Integer, Integer> layer = shared.threadLayer();
+
+				layer.reset();
+				layer.put(key, key * 2);
+				layer.commit();
+			}));
+		}
+
+		for (Future<?> future : futures) future.get();
+		pool.shutdown();
+
+		assertEquals(200, shared.version());
+		assertEquals(200, shared.size());
+		assertEquals(398, (int)shared.lookup(199));
+	}
+}
@@ -0,0 +1,82 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.data.Pair;
+import bjc.esodata.PairMap;
+
+@SuppressWarnings("javadoc")
+public class PairMapTest {
+	private static PairMap<String, Integer, String> sample() {
+		PairMap<String, Integer, String> map = new PairMap<>();
+
+		map.biput("a", 1, "a1");
+		map.biput("a", 2, "a2");
+		map.put(Pair.pair("b", 1), "b1");
+
+		return map;
+	}
+
+	@Test
+	public void bimethodsMatchPairMethods() {
+		PairMap<String, Integer, String> map = sample();
+
+		assertEquals(3, map.size());
+		assertEquals("a2", map.biget("a", 2));
+		assertEquals("b1", map.get(Pair.pair("b", 1)));
+		assertTrue(map.containsKey(Pair.pair("a", 1)));
+		assertTrue(map.containsValue("b1"));
+		assertFalse(map.containsValue("b2"));
+
+		assertEquals("a1", map.biput("a", 1, "A1"));
+		assertEquals(3, map.size());
+
+		assertEquals("A1", map.remove(Pair.pair("a", 1)));
+		assertNull(map.biremove("a", 1));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void projectionsAreLive() {
+		PairMap<String, Integer, String> map = sample();
+
+		Map<Integer, String> rowA  = map.row("a");
+		Map<String, String>  col1  = map.column(1);
+		Set<Pair<String, Integer>> left = map.getLeft("c");
+
+		assertEquals(2, rowA.size());
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), col1.keySet());
+		assertTrue(left.isEmpty());
+
+		map.biput("c", 1, "c1");
+		map.biremove("a", 1);
+
+		assertEquals(Collections.singletonMap(2, "a2"), rowA);
+		assertEquals("c1", col1.get("c"));
+		assertFalse(col1.containsKey("a"));
+		assertEquals(Collections.singleton(Pair.pair("c", 1)), left);
+		assertTrue(map.getRight(1).contains(Pair.pair("b", 1)));
+	}
+
+	@Test
+	public void entryViewKeepsIndexes() {
+		PairMap<String, Integer, String> map = sample();
+
+		map.entrySet().removeIf((entry) -> entry.getKey().getRight() == 1);
+
+		assertEquals(1, map.size());
+		assertTrue(map.column(1).isEmpty());
+		assertTrue(map.row("b").isEmpty());
+
+		for (Map.Entry<Pair<String, Integer>, String> entry : map.entrySet()) entry.setValue("x");
+		assertEquals("x", map.biget("a", 2));
+
+		Map<Pair<String, Integer>, String> plain = new HashMap<>();
+		plain.put(Pair.pair("a", 2), "x");
+		assertEquals(plain, map);
+	}
+}
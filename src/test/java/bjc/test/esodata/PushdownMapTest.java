@@ -0,0 +1,94 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import bjc.esodata.PushdownMap;
+import bjc.funcdata.ObjectFrozen;
+
+@SuppressWarnings("javadoc")
+public class PushdownMapTest {
+	@Test
+	public void putShadowsAndRemoveUnshadows() {
+		PushdownMap<String, Integer> map = new PushdownMap<>();
+
+		assertNull(map.put("x", 1));
+		assertEquals(1, (int)map.put("x", 2));
+
+		assertEquals(1, map.size());
+		assertEquals(2, (int)map.get("x").get());
+
+		assertEquals(2, (int)map.remove("x"));
+		assertEquals(1, (int)map.lookup("x"));
+
+		assertEquals(1, (int)map.remove("x"));
+		assertFalse(map.containsKey("x"));
+		assertNull(map.lookup("x"));
+	}
+
+	@Test
+	public void exitScopeUndoesChanges() {
+		PushdownMap<String, Integer> map = new PushdownMap<>();
+
+		map.put("x", 1);
+		map.put("y", 2);
+
+		map.enterScope();
+		map.put("x", 10);
+		map.put("z", 30);
+		map.remove("y");
+
+		map.enterScope();
+		map.put("x", 100);
+		map.remove("x");
+		map.remove("x");
+		assertEquals(1, (int)map.lookup("x"));
+		map.exitScope();
+
+		assertEquals(10, (int)map.lookup("x"));
+		assertEquals(30, (int)map.lookup("z"));
+		assertFalse(map.containsKey("y"));
+
+		map.exitScope();
+
+		assertEquals(0, map.scopeDepth());
+		assertEquals(1, (int)map.lookup("x"));
+		assertEquals(2, (int)map.lookup("y"));
+		assertFalse(map.containsKey("z"));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void mapsWithSameShadowsAreEqual() {
+		PushdownMap<String, Integer> lhs = new PushdownMap<>();
+		PushdownMap<String, Integer> rhs = new PushdownMap<>();
+
+		lhs.put("x", 1);
+		lhs.put("x", 2);
+
+		rhs.put("x", 2);
+		assertNotEquals(lhs, rhs);
+
+		rhs.remove("x");
+		rhs.put("x", 1);
+		rhs.put("x", 2);
+		assertEquals(lhs, rhs);
+		assertEquals(lhs.hashCode(), rhs.hashCode());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void exitScopeNeedsScope() {
+		new PushdownMap<String, Integer>().exitScope();
+	}
+
+	@Test(expected = ObjectFrozen.class)
+	public void frozenMapRejectsScopes() {
+		PushdownMap<String, Integer> map = new PushdownMap<>();
+
+		assertTrue(map.deepFreeze());
+		assertFalse(map.thaw());
+
+		map.enterScope();
+	}
+}
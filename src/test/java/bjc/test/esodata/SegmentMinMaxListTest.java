@@ -0,0 +1,97 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.SegmentMinMaxList;
+
+@SuppressWarnings("javadoc")
+public class SegmentMinMaxListTest {
+	private final static Comparator<Integer> intComparator = (lhs, rhs) -> lhs - rhs;
+
+	@Test
+	public void listInitializesMinMax() {
+		SegmentMinMaxList<Integer> list = new SegmentMinMaxList<>(intComparator,
+				3, 1, 4, 1, 5, 9, 2, 6);
+
+		assertEquals("List contains 8 elements", 8, list.size());
+
+		assertEquals("Minimum is 1", 1, (int)list.minimum());
+		assertEquals("Maximum is 9", 9, (int)list.maximum());
+	}
+
+	@Test
+	public void listRemoveUpdatesMinMax() {
+		SegmentMinMaxList<Integer> list = new SegmentMinMaxList<>(intComparator,
+				1, 2, 3, 4, 5);
+
+		list.remove((Integer)1);
+		list.remove((Integer)5);
+
+		assertEquals("Minimum is 2", 2, (int)list.minimum());
+		assertEquals("Maximum is 4", 4, (int)list.maximum());
+
+		list.set(1, 10);
+		assertEquals("Maximum is 10", 10, (int)list.maximum());
+
+		list.clear();
+		assertNull(list.minimum());
+	}
+
+	@Test
+	public void listRangeQueries() {
+		SegmentMinMaxList<Integer> list = new SegmentMinMaxList<>(intComparator,
+				3, 1, 4, 1, 5, 9, 2, 6);
+
+		assertEquals(4, (int)list.minimum(2, 3));
+		assertEquals(1, (int)list.minimum(2, 5));
+		assertEquals(9, (int)list.maximum(0, 8));
+		assertEquals(5, (int)list.maximum(0, 5));
+		assertNull(list.minimum(3, 3));
+	}
+
+	@Test
+	public void listMatchesScan() {
+		SegmentMinMaxList<Integer> list = new SegmentMinMaxList<>(intComparator);
+		List<Integer> plain = new ArrayList<>();
+
+		Random rand = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			int op = rand.nextInt(3);
+
+			if (op == 0 || plain.isEmpty()) {
+				int idx = rand.nextInt(plain.size() + 1);
+				int val = rand.nextInt(1000);
+
+				list.add(idx, val);
+				plain.add(idx, val);
+			} else if (op == 1) {
+				int idx = rand.nextInt(plain.size());
+
+				assertEquals(plain.remove(idx), list.remove(idx));
+			} else {
+				int idx = rand.nextInt(plain.size());
+				int val = rand.nextInt(1000);
+
+				list.set(idx, val);
+				plain.set(idx, val);
+			}
+
+			assertEquals(plain, list);
+
+			if (!plain.isEmpty()) {
+				int from = rand.nextInt(plain.size());
+				int to   = from + 1 + rand.nextInt(plain.size() - from);
+
+				List<Integer> range = plain.subList(from, to);
+
+				assertEquals(Collections.min(range), list.minimum(from, to));
+				assertEquals(Collections.max(range), list.maximum(from, to));
+				assertEquals(Collections.min(plain), list.minimum());
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.SlidingMinMax;
+
+@SuppressWarnings("javadoc")
+public class SlidingMinMaxTest {
+	private final static Comparator<Integer> intComparator = (lhs, rhs) -> lhs - rhs;
+
+	@Test
+	public void countWindowExpiresOldElements() {
+		SlidingMinMax<Integer> window = new SlidingMinMax<>(intComparator, 3);
+
+		assertTrue(window.isEmpty());
+		assertNull(window.minimum());
+
+		window.add(5);
+		window.add(1);
+		window.add(4);
+
+		assertEquals("Minimum is 1", 1, (int)window.minimum());
+		assertEquals("Maximum is 5", 5, (int)window.maximum());
+
+		window.add(3);
+		assertEquals("Maximum is 4 once 5 leaves", 4, (int)window.maximum());
+
+		window.add(3);
+		window.add(3);
+		assertEquals("Minimum is 3 once 1 leaves", 3, (int)window.minimum());
+	}
+
+	@Test
+	public void timedWindowExpiresOldElements() {
+		SlidingMinMax<Integer> window = SlidingMinMax.timed(intComparator, 10);
+
+		window.add(7, 0);
+		window.add(2, 5);
+		window.add(9, 8);
+
+		assertEquals(2, (int)window.minimum());
+		assertEquals(9, (int)window.maximum());
+
+		window.advanceTo(15);
+		assertEquals("Only 9 is left", 9, (int)window.minimum());
+
+		window.advanceTo(18);
+		assertTrue(window.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timedWindowRejectsOldTimestamps() {
+		SlidingMinMax<Integer> window = SlidingMinMax.timed(intComparator, 10);
+
+		window.add(1, 18);
+		window.add(1, 17);
+	}
+
+	@Test
+	public void windowsMatchScan() {
+		Random rng = new Random(37);
+
+		for (int size = 1; size < 20; size++) {
+			SlidingMinMax<Integer>  window  = new SlidingMinMax<>(intComparator, size);
+			SlidingMinMax.OfLong    longs   = new SlidingMinMax.OfLong(size);
+			SlidingMinMax.OfDouble  doubles = new SlidingMinMax.OfDouble(size);
+
+			List<Integer> plain = new ArrayList<>();
+
+			for (int i = 0; i < 200; i++) {
+				int val = rng.nextInt(50);
+
+				window.add(val);
+				longs.add(val);
+				doubles.add(val);
+				plain.add(val);
+
+				List<Integer> last = plain.subList(Math.max(0, plain.size() - size), plain.size());
+
+				int min = Collections.min(last);
+				int max = Collections.max(last);
+
+				assertEquals(min, (int)window.minimum());
+				assertEquals(max, (int)window.maximum());
+				assertEquals(min, longs.minimum());
+				assertEquals(max, longs.maximum());
+				assertEquals(min, doubles.minimum(), 0.0);
+				assertEquals(max, doubles.maximum(), 0.0);
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.SparseDefaultList;
+
+@SuppressWarnings("javadoc")
+public class SparseDefaultListTest {
+	private static List<Integer> indexes(SparseDefaultList<?> list) {
+		List<Integer> ret = new ArrayList<>();
+
+		list.nonDefaultIndexes().forEachRemaining((int idx) -> ret.add(idx));
+
+		return ret;
+	}
+
+	@Test
+	public void setExtendsSparsely() {
+		SparseDefaultList<String> list = new SparseDefaultList<>("-");
+
+		assertEquals("-", list.set(10_000_000, "a"));
+		list.set(5, "b");
+
+		assertEquals(10_000_001, list.size());
+		assertEquals("a", list.get(10_000_000));
+		assertEquals("b", list.get(5));
+		assertEquals("-", list.get(6));
+		assertEquals("-", list.get(-1));
+		assertEquals("-", list.get(20_000_000));
+
+		assertEquals(2, list.nonDefaultCount());
+		assertEquals(Arrays.asList(5, 10_000_000), indexes(list));
+	}
+
+	@Test
+	public void settingDefaultFreesValue() {
+		SparseDefaultList<String> list = new SparseDefaultList<>("-");
+
+		list.set(3, "a");
+		assertEquals("a", list.set(3, "-"));
+
+		assertEquals(0, list.nonDefaultCount());
+		assertTrue(indexes(list).isEmpty());
+		assertEquals(4, list.size());
+
+		list.set(2, null);
+		assertNull(list.get(2));
+		assertEquals(Arrays.asList(2), indexes(list));
+	}
+
+	@Test
+	public void unsetIndexesFollowDefault() {
+		SparseDefaultList<String> list = new SparseDefaultList<>("-");
+
+		list.add("a");
+		list.add("-");
+		list.setDefault("+");
+
+		assertEquals(Arrays.asList("a", "+"), list);
+	}
+
+	@Test
+	public void shrinkingDropsValues() {
+		SparseDefaultList<Integer> list = new SparseDefaultList<>(0);
+
+		for (int i = 0; i < 5000; i += 7) list.set(i, i);
+
+		list.setSize(2000);
+
+		assertEquals(Integer.valueOf(0), list.get(2002));
+		assertEquals(Integer.valueOf(1995), list.get(1995));
+		// Index zero holds the default, so it was never stored
+		assertEquals(1995 / 7, list.nonDefaultCount());
+
+		list.setSize(5000);
+		assertEquals(Integer.valueOf(0), list.get(2002));
+		assertEquals(Integer.valueOf(0), list.remove(4999));
+		assertEquals(4999, list.size());
+	}
+
+	@Test
+	public void shrinkingIntoPartlyUsedChunk() {
+		SparseDefaultList<Integer> list = new SparseDefaultList<>(0);
+
+		list.set(1, 5);
+		list.set(3, 0);
+		list.setSize(1);
+
+		assertEquals(1, list.size());
+		assertEquals(0, list.nonDefaultCount());
+		assertEquals(Integer.valueOf(0), list.get(1));
+
+		list.set(1, 7);
+		list.set(2, 8);
+		list.set(1500, 9);
+		list.setSize(2);
+
+		assertEquals(1, list.nonDefaultCount());
+		assertEquals(Arrays.asList(1), indexes(list));
+		assertEquals(Integer.valueOf(0), list.get(1500));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void noInsertInMiddle() {
+		SparseDefaultList<String> list = new SparseDefaultList<>();
+
+		list.add("a");
+		list.add(0, "b");
+	}
+}
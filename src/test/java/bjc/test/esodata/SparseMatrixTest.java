@@ -0,0 +1,119 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import bjc.esodata.PairMap;
+import bjc.esodata.SparseMatrix;
+
+@SuppressWarnings("javadoc")
+public class SparseMatrixTest {
+	private static double[][] randomDense(Random rng, int rows, int cols) {
+		double[][] dense = new double[rows][cols];
+
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (rng.nextInt(4) == 0) dense[r][c] = rng.nextInt(9) + 1;
+			}
+		}
+
+		return dense;
+	}
+
+	private static SparseMatrix compile(double[][] dense) {
+		PairMap<Integer, Integer, Double> map = new PairMap<>();
+
+		for (int r = 0; r < dense.length; r++) {
+			for (int c = 0; c < dense[r].length; c++) {
+				if (dense[r][c] != 0) map.biput(r, c, dense[r][c]);
+			}
+		}
+
+		return SparseMatrix.of(map, dense.length, dense[0].length);
+	}
+
+	@Test
+	public void matrixMatchesPairMap() {
+		PairMap<Integer, Integer, Integer> map = new PairMap<>();
+		map.biput(0, 2, 5);
+		map.biput(2, 0, 7);
+		map.biput(2, 1, 3);
+
+		SparseMatrix matrix = SparseMatrix.of(map);
+
+		assertEquals(3, matrix.rows());
+		assertEquals(3, matrix.columns());
+		assertEquals(3, matrix.nonZeros());
+		assertEquals(5, matrix.get(0, 2), 0);
+		assertEquals(0, matrix.get(1, 1), 0);
+
+		List<Integer> cols = new ArrayList<>();
+		matrix.forEachInRow(2, (row, col, val) -> cols.add(col));
+		assertEquals(Arrays.asList(0, 1), cols);
+
+		List<Integer> rows = new ArrayList<>();
+		matrix.forEachInColumn(0, (row, col, val) -> rows.add(row));
+		assertEquals(Arrays.asList(2), rows);
+
+		assertEquals(7, matrix.transpose().get(0, 2), 0);
+		assertEquals(matrix, SparseMatrix.of(matrix.toPairMap(), 3, 3));
+		assertEquals(matrix, matrix.transpose().transpose());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void matrixRejectsNegativeIndexes() {
+		PairMap<Integer, Integer, Double> map = new PairMap<>();
+		map.biput(-1, 0, 1.0);
+
+		SparseMatrix.of(map);
+	}
+
+	@Test
+	public void multiplyMatchesDense() {
+		Random rng = new Random(46);
+
+		for (int trial = 0; trial < 20; trial++) {
+			int n = rng.nextInt(20) + 1;
+			int m = rng.nextInt(20) + 1;
+			int k = rng.nextInt(20) + 1;
+
+			double[][] lhs = randomDense(rng, n, m);
+			double[][] rhs = randomDense(rng, m, k);
+
+			SparseMatrix lhsSparse = compile(lhs);
+			SparseMatrix rhsSparse = compile(rhs);
+
+			double[] vec = new double[m];
+			for (int i = 0; i < m; i++) vec[i] = rng.nextInt(5);
+
+			double[] expectedVec = new double[n];
+			double[][] expected  = new double[n][k];
+
+			for (int r = 0; r < n; r++) {
+				for (int x = 0; x < m; x++) {
+					expectedVec[r] += lhs[r][x] * vec[x];
+
+					for (int c = 0; c < k; c++) expected[r][c] += lhs[r][x] * rhs[x][c];
+				}
+			}
+
+			assertArrayEquals(expectedVec, lhsSparse.multiply(vec), 0);
+			assertArrayEquals(expectedVec, lhsSparse.multiply(vec, true), 0);
+
+			SparseMatrix product  = lhsSparse.multiply(rhsSparse);
+			SparseMatrix parallel = lhsSparse.multiply(rhsSparse, true);
+
+			assertEquals(product, parallel);
+
+			for (int r = 0; r < n; r++) {
+				for (int c = 0; c < k; c++) {
+					assertEquals(expected[r][c], product.get(r, c), 0);
+					assertEquals(expected[r][c], product.transpose().get(c, r), 0);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package bjc.test.esodata;
+
+import static org.junit.Assert.*;
+import static bjc.test.TestUtils.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import bjc.esodata.FrozenSetMultimap;
+import bjc.esodata.TSetMultimap;
+import bjc.funcdata.ObjectFrozen;
+
+@SuppressWarnings("javadoc")
+public class TSetMultimapTest {
+	@Test
+	public void testLiveView() {
+		TSetMultimap<String, Integer> map = new TSetMultimap<>();
+
+		Set<Integer> view = map.get("a");
+		assertEquals(0, view.size());
+
+		map.add("a", 1);
+		map.add("a", 2);
+		map.add("a", 2);
+
+		assertEquals(2, view.size());
+		assertIteratorSet(false, view.iterator(), 1, 2);
+
+		map.remove("a", 2);
+		assertTrue(view.contains(2));
+
+		map.remove("a", 2);
+		assertFalse(view.contains(2));
+		assertEquals(Optional.of(1), map.getSingle("a"));
+
+		map.remove("a", 1);
+		assertFalse(map.contains("a"));
+	}
+
+	@Test
+	public void testCompile() {
+		TSetMultimap<String, Integer> map = new TSetMultimap<>();
+
+		map.add("a", 1);
+		map.add("a", 2);
+		map.add("b", 3);
+
+		FrozenSetMultimap<String, Integer> frozen = map.compile();
+
+		assertEquals(2, frozen.size());
+		assertEquals(map.get("a"), frozen.get("a"));
+		assertEquals(Optional.of(3), frozen.getSingle("b"));
+		assertEquals(Optional.empty(), frozen.getSingle("a"));
+
+		assertTrue(frozen.contains("a", 2));
+		assertFalse(frozen.contains("b", 2));
+		assertEquals(0, frozen.get("c").size());
+
+		int pairs = 0;
+		for (Iterator<?> itr = frozen.iterator(); itr.hasNext(); itr.next()) pairs++;
+		assertEquals(3, pairs);
+	}
+
+	@Test
+	public void testCompiledIteratesLikeSource() {
+		TSetMultimap<String, Integer> map = new TSetMultimap<>();
+
+		for (int i = 0; i < 50; i++) map.add("k" + (i % 4), i);
+
+		// Pairs added more than once still show up once
+		map.add("k1", 1);
+		map.add("k1", 1);
+
+		FrozenSetMultimap<String, Integer> frozen = map.compile();
+
+		Set<List<Object>> expected = new HashSet<>();
+		map.forEach((pair) -> expected.add(Arrays.asList(pair.getLeft(), pair.getRight())));
+
+		Set<List<Object>> actual = new HashSet<>();
+		frozen.forEach((pair) -> actual.add(Arrays.asList(pair.getLeft(), pair.getRight())));
+
+		assertEquals(50, expected.size());
+		assertEquals(expected, actual);
+
+		for (int i = 0; i < 50; i++) {
+			assertTrue(frozen.contains("k" + (i % 4), i));
+			assertFalse(frozen.contains("k" + ((i + 1) % 4), i));
+			assertTrue(frozen.get("k" + (i % 4)).contains(i));
+		}
+	}
+
+	@Test(expected = ObjectFrozen.class)
+	public void testCompiledIsReadOnly() {
+		TSetMultimap<String, Integer> map = new TSetMultimap<>();
+
+		map.compile().add("a", 1);
+	}
+}
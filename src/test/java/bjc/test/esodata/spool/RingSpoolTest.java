@@ -0,0 +1,163 @@
+package bjc.test.esodata.spool;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.*;
+
+import bjc.esodata.spool.*;
+
+@SuppressWarnings("javadoc")
+public class RingSpoolTest {
+	@Test
+	public void offerAndPollInOrder() {
+		Spool<String> spool = new RingSpool<>(3);
+
+		assertEquals(4, spool.capacity());
+		assertNull(spool.poll());
+
+		assertTrue(spool.offer("a"));
+		assertEquals(3, spool.offerAll(Arrays.asList("b", "c", "d", "e")));
+		assertFalse(spool.offer("f"));
+		assertEquals(4, spool.size());
+
+		assertEquals("a", spool.poll());
+
+		List<String> drained = new ArrayList<>();
+		assertEquals(2, spool.drain(drained::add, 2));
+		assertEquals(Arrays.asList("b", "c"), drained);
+
+		// Wraps around the ring
+		assertEquals(2, spool.offerAll(Arrays.asList("e", "f")));
+		assertEquals(3, spool.drain(drained::add, 10));
+		assertEquals(Arrays.asList("b", "c", "d", "e", "f"), drained);
+	}
+
+	@Test
+	public void capacityOneStillHoldsItems() {
+		Spool<String> spool = Spooler.bounded(1).getSpool();
+
+		assertEquals(2, spool.capacity());
+
+		assertTrue(spool.offer("a"));
+		assertTrue(spool.offer("b"));
+		assertFalse(spool.offer("c"));
+		assertEquals(2, spool.size());
+
+		assertEquals("a", spool.poll());
+		assertEquals("b", spool.poll());
+		assertNull(spool.poll());
+	}
+
+	@Test
+	public void closeLetsConsumersFinish() throws InterruptedException {
+		Spool<Integer> spool = Spooler.bounded(8).getSpool();
+
+		spool.put(1);
+		spool.put(2);
+		spool.close();
+
+		assertTrue(spool.isClosed());
+		assertFalse(spool.isComplete());
+
+		assertEquals(Integer.valueOf(1), spool.take());
+		assertEquals(1, spool.awaitDrain(item -> assertEquals(Integer.valueOf(2), item), 5));
+
+		assertTrue(spool.isComplete());
+		assertNull(spool.take());
+		assertEquals(0, spool.awaitDrain(item -> fail(), 5));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void noOffersAfterClose() {
+		Spool<String> spool = new RingSpool<>(4);
+
+		spool.close();
+		spool.offer("a");
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void noNulls() {
+		new RingSpool<String>(4).offerAll(Arrays.asList("a", null));
+	}
+
+	@Test
+	public void manyProducersAndConsumers() throws InterruptedException {
+		Spool<Integer> spool = new RingSpool<>(16);
+
+		int producers = 4, consumers = 3, perProducer = 20_000;
+
+		AtomicLong total = new AtomicLong();
+		AtomicLong count = new AtomicLong();
+
+		List<Thread> producing = new ArrayList<>();
+		List<Thread> threads   = new ArrayList<>();
+
+		for (int p = 0; p < producers; p++) {
+			Thread thread = new Thread(() -> {
+				try {
+					List<Integer> batch = new ArrayList<>();
+
+					for (int i = 1; i <= perProducer; i++) {
+						if (i % 3 == 0) {
+							spool.put(i);
+						} else {
+							batch.add(i);
+
+							if (batch.size() == 5) {
+								spool.putAll(batch);
+								batch.clear();
+							}
+						}
+					}
+
+					spool.putAll(batch);
+				} catch (InterruptedException iex) {
+					throw new RuntimeException(iex);
+				}
+			});
+
+			producing.add(thread);
+			threads.add(thread);
+		}
+
+		for (int c = 0; c < consumers; c++) {
+			boolean batched = c % 2 == 0;
+
+			threads.add(new Thread(() -> {
+				try {
+					if (batched) {
+						while (spool.awaitDrain(item -> {
+							total.addAndGet(item);
+							count.incrementAndGet();
+						}, 7) > 0) {
+							// Keep going until the spool is complete
+						}
+					} else {
+						Integer item;
+
+						while ((item = spool.take()) != null) {
+							total.addAndGet(item);
+							count.incrementAndGet();
+						}
+					}
+				} catch (InterruptedException iex) {
+					throw new RuntimeException(iex);
+				}
+			}));
+		}
+
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : producing) thread.join();
+
+		spool.close();
+
+		for (Thread thread : threads) thread.join(10_000);
+
+		assertEquals((long) producers * perProducer, count.get());
+		assertEquals((long) producers * perProducer * (perProducer + 1) / 2, total.get());
+		assertTrue(spool.isComplete());
+	}
+}